@@ -0,0 +1,158 @@
+package com.marcovr.terminal.benchmarks;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Generates deterministic terminal output resembling typical workloads.
+ * Each corpus is exactly {@link #SIZE} bytes, so one benchmark operation corresponds to one MiB.
+ */
+public enum Corpus {
+
+    /**
+     * Plain log lines, as printed by cat or a build
+     */
+    PLAIN {
+        @Override
+        void append(StringBuilder sb, Random r) {
+            sb.append(String.format("2018-%02d-%02d %02d:%02d:%02d.%03d %-5s [worker-%d] com.example.Service - "
+                            + "Processed request %d in %d ms\r\n",
+                    r.nextInt(12) + 1, r.nextInt(28) + 1, r.nextInt(24), r.nextInt(60), r.nextInt(60),
+                    r.nextInt(1000), LEVELS[r.nextInt(LEVELS.length)], r.nextInt(16), r.nextInt(100000),
+                    r.nextInt(500)));
+        }
+    },
+
+    /**
+     * Coloured output: ls --color, compiler diagnostics and truecolour syntax highlighting
+     */
+    SGR {
+        @Override
+        void append(StringBuilder sb, Random r) {
+            switch (r.nextInt(3)) {
+                case 0:
+                    for (int i = 0; i < 6; i++) {
+                        sb.append("\033[0m\033[01;").append(30 + r.nextInt(8)).append('m')
+                                .append(WORDS[r.nextInt(WORDS.length)]).append("\033[0m  ");
+                    }
+                    break;
+                case 1:
+                    sb.append("\033[1msrc/main/Foo.java:").append(r.nextInt(500)).append(':')
+                            .append(r.nextInt(80)).append(": \033[1;31merror:\033[0m\033[1m cannot find symbol ")
+                            .append(WORDS[r.nextInt(WORDS.length)]).append("\033[0m");
+                    break;
+                default:
+                    for (int i = 0; i < 8; i++) {
+                        sb.append("\033[38;2;").append(r.nextInt(256)).append(';').append(r.nextInt(256))
+                                .append(';').append(r.nextInt(256)).append('m')
+                                .append(WORDS[r.nextInt(WORDS.length)]).append(' ');
+                    }
+                    sb.append("\033[39m");
+            }
+            sb.append("\r\n");
+        }
+    },
+
+    /**
+     * Full-screen applications (vim, htop): cursor addressing, erasing, scroll regions and reverse video
+     */
+    FULLSCREEN {
+        @Override
+        void append(StringBuilder sb, Random r) {
+            sb.append("\033[?25l\033[H\033[2J\033[1;23r");
+            for (int y = 1; y <= 23; y++) {
+                sb.append("\033[").append(y).append(";1H");
+                if (y == 1) {
+                    sb.append("\033[7m  PID USER      PRI  NI  VIRT   RES   SHR S CPU% MEM%   TIME+  Command\033[27m");
+                }
+                else {
+                    sb.append(String.format("%5d pi         20   0 %5dM %4dM %4dM S %4.1f %4.1f  0:%02d.%02d ",
+                            r.nextInt(30000), r.nextInt(999), r.nextInt(99), r.nextInt(99), r.nextDouble() * 100,
+                            r.nextDouble() * 10, r.nextInt(60), r.nextInt(100)))
+                            .append("\033[32m").append(WORDS[r.nextInt(WORDS.length)]).append("\033[0m\033[K");
+                }
+            }
+            sb.append("\033[r\033[24;1H\033[7m-- INSERT --\033[0m\033[K");
+            sb.append("\033[10;1H\033M\033[5;20H\033[?25h");
+        }
+    },
+
+    /**
+     * Editors and pagers scrolling within a region by inserting and deleting lines, erasing characters
+     * and rectangles
+     */
+    EDITING {
+        @Override
+        void append(StringBuilder sb, Random r) {
+            sb.append("\033[1;23r");
+            if (r.nextBoolean()) {
+                // scroll forward: delete the top line, write the new bottom one
+                sb.append("\033[1;1H\033[M\033[23;1H");
+            }
+            else {
+                // scroll back: insert a line at the top
+                sb.append("\033[1;1H\033[L");
+            }
+            for (int i = 0; i < 6; i++) {
+                sb.append(WORDS[r.nextInt(WORDS.length)]).append(' ');
+            }
+            sb.append("\033[").append(r.nextInt(23) + 1).append(";20H\033[").append(r.nextInt(40) + 1).append('X');
+            if (r.nextInt(8) == 0) {
+                int top = r.nextInt(20) + 1;
+                sb.append("\033[").append(top).append(";10;").append(top + 3).append(";70$z");
+                sb.append("\033[46;").append(top).append(";10;").append(top + 3).append(";70$x");
+            }
+            sb.append("\033[r\033[24;1H");
+        }
+    },
+
+    /**
+     * CJK text, emoji and combining marks
+     */
+    UNICODE {
+        @Override
+        void append(StringBuilder sb, Random r) {
+            for (int i = 0; i < 6; i++) {
+                sb.append(UNICODE_WORDS[r.nextInt(UNICODE_WORDS.length)]).append(' ');
+            }
+            sb.append("\r\n");
+        }
+    };
+
+    static final int SIZE = 1 << 20;
+
+    private static final String[] LEVELS = {"DEBUG", "INFO", "WARN", "ERROR"};
+    private static final String[] WORDS = {
+            "README.md", "pom.xml", "target", "src", "build.sh", "Terminal", "Screen", "Cursor",
+            "BufferPainter", "CommandHandler", "public", "static", "final", "return", "synchronized"
+    };
+    private static final String[] UNICODE_WORDS = {
+            "日本語", "中文字符", "한국어", "😀🚀",
+            "👨‍👩‍👧", "élève", "über", "naïve",
+            "Здравствуй", "αβγ"
+    };
+
+    /**
+     * Appends one unit of output (a line or a screen refresh)
+     *
+     * @param sb the destination
+     * @param r source of variation
+     */
+    abstract void append(StringBuilder sb, Random r);
+
+    /**
+     * @return the corpus as UTF-8 bytes, exactly {@link #SIZE} long
+     */
+    byte[] generate() {
+        Random r = new Random(42);
+        StringBuilder sb = new StringBuilder(SIZE);
+        while (sb.length() < SIZE) {
+            append(sb, r);
+        }
+
+        byte[] bytes = sb.toString().getBytes(StandardCharsets.UTF_8);
+        byte[] corpus = new byte[SIZE];
+        System.arraycopy(bytes, 0, corpus, 0, SIZE);
+        return corpus;
+    }
+}
@@ -0,0 +1,35 @@
+package com.marcovr.terminal.benchmarks;
+
+import com.marcovr.terminal.commands.CommandHandler;
+import com.marcovr.terminal.screen.Screen;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Fills screens with coloured text
+ */
+class Fill {
+
+    private static final String TEXT = "The quick brown fox jumps over the lazy dog 0123456789 ";
+
+    /**
+     * Writes coloured text into every cell of the screen
+     *
+     * @param screen the screen to fill
+     */
+    static void fill(Screen screen) {
+        CommandHandler handler = new CommandHandler(screen, new NoopHost());
+        StringBuilder sb = new StringBuilder("\033[H");
+        int cells = screen.getWidth() * screen.getHeight() - 1;
+        for (int i = 0; i < cells; i++) {
+            if (i % 8 == 0) {
+                sb.append("\033[3").append(i / 8 % 8).append('m');
+            }
+            sb.append(TEXT.charAt(i % TEXT.length()));
+        }
+        sb.append("\033[0m\033[H");
+
+        byte[] data = sb.toString().getBytes(StandardCharsets.UTF_8);
+        handler.parse(data, 0, data.length);
+    }
+}
@@ -0,0 +1,35 @@
+package com.marcovr.terminal.benchmarks;
+
+import com.marcovr.terminal.commands.TerminalHost;
+
+/**
+ * Terminal host without window or connection
+ */
+class NoopHost implements TerminalHost {
+
+    @Override
+    public void send(String s) {}
+
+    @Override
+    public void bell() {}
+
+    @Override
+    public void setTitle(String title) {}
+
+    @Override
+    public void setApplicationCursorKeys(boolean status) {}
+
+    @Override
+    public void setBracketedPaste(boolean status) {}
+
+    @Override
+    public boolean handleXterm(int n, int argc, int arg0, int arg1) {
+        return true;
+    }
+
+    @Override
+    public void scheduleRepaint() {}
+
+    @Override
+    public void shutdown() {}
+}
@@ -0,0 +1,71 @@
+package com.marcovr.terminal.benchmarks;
+
+import com.marcovr.terminal.GUI.BufferPainter;
+import com.marcovr.terminal.GUI.Fonts;
+import com.marcovr.terminal.screen.Damage;
+import com.marcovr.terminal.screen.Screen;
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Painting a full screen into an offscreen image, repainting a single damaged cell (e.g. the cursor),
+ * and taking the frame to paint after writing a character
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class PaintBenchmark {
+
+    @Param({"80x24", "240x80"})
+    public String size;
+
+    private Screen screen;
+    private BufferedImage image;
+    private Graphics2D g;
+    private Graphics2D cell;
+
+    @Setup
+    public void setup() {
+        String[] wh = size.split("x");
+        int width = Integer.parseInt(wh[0]);
+        int height = Integer.parseInt(wh[1]);
+
+        screen = new Screen(width, height);
+        Fill.fill(screen);
+        image = new BufferedImage(width * Fonts.WIDTH + 2, height * Fonts.HEIGHT + 2,
+                BufferedImage.TYPE_INT_RGB);
+        g = image.createGraphics();
+        cell = image.createGraphics();
+        cell.clipRect(Fonts.WIDTH * 10 + 1, Fonts.HEIGHT * 10 + 1, Fonts.WIDTH, Fonts.HEIGHT);
+    }
+
+    @TearDown
+    public void tearDown() {
+        g.dispose();
+        cell.dispose();
+    }
+
+    @Benchmark
+    public BufferedImage paint() {
+        BufferPainter.paint(g, screen.getFrame(), true);
+        return image;
+    }
+
+    @Benchmark
+    public BufferedImage paintCell() {
+        BufferPainter.paint(cell, screen.getFrame(), true);
+        return image;
+    }
+
+    @Benchmark
+    public Damage takeFrame() {
+        screen.write('x');
+        return screen.takeDamage();
+    }
+}
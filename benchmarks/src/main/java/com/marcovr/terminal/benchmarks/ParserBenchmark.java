@@ -0,0 +1,40 @@
+package com.marcovr.terminal.benchmarks;
+
+import com.marcovr.terminal.commands.CommandHandler;
+import com.marcovr.terminal.screen.Screen;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parser and screen model throughput. One operation parses one MiB, so ops/s equals MiB/s.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class ParserBenchmark {
+
+    private static final int CHUNK_SIZE = 65536;
+
+    @Param({"PLAIN", "SGR", "FULLSCREEN", "EDITING", "UNICODE"})
+    public Corpus corpus;
+
+    private byte[] data;
+    private CommandHandler handler;
+
+    @Setup
+    public void setup() {
+        data = corpus.generate();
+        handler = new CommandHandler(new Screen(80, 24), new NoopHost());
+    }
+
+    @Benchmark
+    public void parse() {
+        for (int off = 0; off < data.length; off += CHUNK_SIZE) {
+            handler.parse(data, off, Math.min(CHUNK_SIZE, data.length - off));
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.marcovr.terminal.benchmarks;
+
+import com.marcovr.terminal.commands.CommandHandler;
+import com.marcovr.terminal.record.SessionPlayer;
+import com.marcovr.terminal.record.SessionRecorder;
+import com.marcovr.terminal.screen.Screen;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays a session recording at maximum speed.
+ * Pass a real recording with -p recording=/path/to/file, otherwise one is generated from all corpora.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class ReplayBenchmark {
+
+    private static final int CHUNK_SIZE = 65536;
+
+    @Param("")
+    public String recording;
+
+    private File file;
+    private SessionPlayer player;
+
+    @Setup
+    public void setup() throws IOException {
+        if (recording.isEmpty()) {
+            file = File.createTempFile("session", ".rec");
+            file.deleteOnExit();
+            record(file);
+        }
+        else {
+            file = new File(recording);
+        }
+        player = new SessionPlayer(file, new Screen(), new NoopHost());
+    }
+
+    private static void record(File file) throws IOException {
+        Screen screen = new Screen();
+        CommandHandler handler = new CommandHandler(screen, new NoopHost());
+
+        try (SessionRecorder recorder = new SessionRecorder(file, screen)) {
+            for (Corpus corpus : Corpus.values()) {
+                byte[] data = corpus.generate();
+                for (int off = 0; off < data.length; off += CHUNK_SIZE) {
+                    int len = Math.min(CHUNK_SIZE, data.length - off);
+                    handler.parse(data, off, len);
+                    recorder.record(data, off, len, true);
+                }
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        player.close();
+    }
+
+    @Benchmark
+    public void replay() throws IOException {
+        player.seek(0);
+        player.play(false);
+    }
+}
@@ -0,0 +1,50 @@
+package com.marcovr.terminal.benchmarks;
+
+import com.marcovr.terminal.screen.Screen;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of scrolling and erasing at different screen sizes
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class ScreenBenchmark {
+
+    @Param({"80x24", "240x80", "500x200"})
+    public String size;
+
+    private Screen screen;
+
+    @Setup
+    public void setup() {
+        String[] wh = size.split("x");
+        screen = new Screen(Integer.parseInt(wh[0]), Integer.parseInt(wh[1]));
+        Fill.fill(screen);
+    }
+
+    @Benchmark
+    public void scrollUp() {
+        screen.scroll(1);
+    }
+
+    @Benchmark
+    public void scrollDown() {
+        screen.scroll(-1);
+    }
+
+    @Benchmark
+    public void clear() {
+        screen.clear();
+    }
+
+    @Benchmark
+    public void clearLine() {
+        screen.clearLine(screen.getHeight() / 2);
+    }
+}
@@ -0,0 +1,68 @@
+package com.marcovr.terminal.benchmarks;
+
+import com.marcovr.terminal.HeadlessTerminal;
+
+/**
+ * Measures how many headless sessions fit into a GiB of heap. Every session gets the same amount of shell output,
+ * logs and coloured listings starting at a different place of the corpora, and keeps its scrollback in the heap.
+ * Not a JMH benchmark, since it measures memory rather than time:
+ * <p>
+ * {@code java -cp benchmarks/target/benchmarks.jar com.marcovr.terminal.benchmarks.SessionDensity
+ * [sessions] [output KiB per session] [scrollback KiB per session]}
+ */
+public class SessionDensity {
+
+    private static final int CHUNK_SIZE = 4096;
+
+    public static void main(String[] args) throws InterruptedException {
+        int sessions = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int output = (args.length > 1 ? Integer.parseInt(args[1]) : 32) << 10;
+        long scrollback = (args.length > 2 ? Long.parseLong(args[2]) : 1024) << 10;
+        if (output > 2 * Corpus.SIZE) {
+            throw new IllegalArgumentException("at most " + (2 * Corpus.SIZE >> 10) + " KiB output per session");
+        }
+
+        byte[] plain = Corpus.PLAIN.generate();
+        byte[] sgr = Corpus.SGR.generate();
+
+        long before = usedHeap();
+        HeadlessTerminal[] terminals = new HeadlessTerminal[sessions];
+        for (int i = 0; i < sessions; i++) {
+            HeadlessTerminal t = new HeadlessTerminal(80, 24, scrollback);
+            int off = (int) ((long) i * 7919 % (Corpus.SIZE - output / 2 + 1));
+            feed(t, plain, off, output / 2);
+            feed(t, sgr, off, output / 2);
+            terminals[i] = t;
+        }
+        long after = usedHeap();
+
+        long perSession = (after - before) / sessions;
+        System.out.printf("%d sessions, %d KiB output each: %d bytes per session, %d sessions per GiB%n",
+                sessions, output >> 10, perSession, (1L << 30) / Math.max(1, perSession));
+
+        // closed only now, which keeps the sessions reachable until measured
+        for (HeadlessTerminal t : terminals) {
+            t.close();
+        }
+    }
+
+    private static void feed(HeadlessTerminal t, byte[] data, int off, int len) {
+        for (int end = off + len; off < end; off += CHUNK_SIZE) {
+            t.feed(data, off, Math.min(CHUNK_SIZE, end - off));
+        }
+    }
+
+    /**
+     * @return heap in use after collecting garbage, once background compression had time to finish
+     */
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            Thread.sleep(200);
+            System.gc();
+            used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+        }
+        return used;
+    }
+}
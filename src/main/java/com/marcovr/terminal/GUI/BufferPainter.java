@@ -0,0 +1,234 @@
+package com.marcovr.terminal.GUI;
+
+import com.marcovr.terminal.screen.Frame;
+
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.util.Arrays;
+
+/**
+ * Paints {@link Frame}s of a screen
+ */
+public class BufferPainter {
+
+    private static final Color MATCH = new Color(255, 255, 0, 96);
+    private static final Color CURRENT_MATCH = new Color(255, 128, 0, 160);
+
+    private static final GlyphAtlas GLYPHS = new GlyphAtlas();
+    private static final RowStrip STRIP = new RowStrip();
+    // reused by every paint, under the lock of GLYPHS: the selected cells of a row, and cells drawn directly
+    private static boolean[] selectedRow = new boolean[0];
+    private static int[] uncached = new int[0];
+
+    /**
+     * Paints the cells of a frame intersecting the clip
+     *
+     * @param g the graphics object, the screen starts at (1, 1)
+     * @param f the frame
+     * @param hasFocus true to paint a filled cursor
+     */
+    public static void paint(Graphics2D g, Frame f, boolean hasFocus) {
+        // like the glyphs of the atlas
+        g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+
+        Rectangle cells = cellsIn(g.getClipBounds(), f);
+        paintCells(g, f, cells);
+        if (f.hasSearch()) {
+            paintMatches(g, f, cells);
+        }
+        paintCursor(g, f, hasFocus);
+    }
+
+    /**
+     * @return the cells intersecting the clip, plus a column on each side for glyphs reaching into it
+     */
+    private static Rectangle cellsIn(Rectangle clip, Frame f) {
+        if (clip == null) {
+            return new Rectangle(0, 0, f.getWidth(), f.getHeight());
+        }
+        int left = Math.max(0, Math.floorDiv(clip.x - 1, Fonts.WIDTH) - 1);
+        int right = Math.min(f.getWidth(), Math.floorDiv(clip.x + clip.width - 2, Fonts.WIDTH) + 2);
+        int top = Math.max(0, Math.floorDiv(clip.y - 1, Fonts.HEIGHT));
+        int bottom = Math.min(f.getHeight(), Math.floorDiv(clip.y + clip.height - 2, Fonts.HEIGHT) + 1);
+        return new Rectangle(left, top, Math.max(0, right - left), Math.max(0, bottom - top));
+    }
+
+    private static void paintCells(Graphics2D g, Frame f, Rectangle cells) {
+        AffineTransform t = g.getTransform();
+        synchronized (GLYPHS) {
+            GLYPHS.prepare(t.getScaleX());
+            STRIP.prepare(t.getScaleX(), f.getWidth());
+            if (t.getScaleX() == 1 && t.getScaleY() == 1) {
+                paintRows(g, f, cells);
+                return;
+            }
+
+            // rows are copied pixel for pixel
+            g.setTransform(AffineTransform.getTranslateInstance(t.getTranslateX(), t.getTranslateY()));
+            try {
+                paintRows(g, f, cells);
+            }
+            finally {
+                g.setTransform(t);
+            }
+        }
+    }
+
+    /**
+     * Composes each row in the strip and draws it at once. Cells are taken a run with the same attributes
+     * at a time: one fill for the backgrounds, then the glyphs, which are blended after all backgrounds so
+     * the next run does not cover the parts reaching into it
+     */
+    private static void paintRows(Graphics2D g, Frame f, Rectangle cells) {
+        boolean inverted = f.isInverted();
+        boolean selection = f.hasSelection();
+        int left = cells.x, right = cells.x + cells.width;
+        if (selectedRow.length < f.getWidth()) {
+            selectedRow = new boolean[f.getWidth()];
+        }
+        if (uncached.length <= cells.width) {
+            uncached = new int[cells.width + 1];
+        }
+        for (int y = cells.y; y < cells.y + cells.height; y++) {
+            // selected cells swap their colours
+            boolean[] row = null;
+            if (selection) {
+                Arrays.fill(selectedRow, false);
+                if (f.getSelected(y, selectedRow)) {
+                    row = selectedRow;
+                }
+            }
+            for (int x = left; x < right; ) {
+                int key = runKey(f, row, inverted, x, y);
+                int end = runEnd(f, row, inverted, key, x, right, y);
+                int id = key >>> 1;
+                int background = (key & 1) != 0 ? f.getForeground(id) : f.getBackground(id);
+                STRIP.fill(x, end, Palette.toColor(background).getRGB());
+                x = end;
+            }
+
+            // a wide character cut by the left edge still draws its right half
+            int n = 0;
+            for (int x = left > 0 && f.getCode(left, y) == Frame.WIDE_TAIL ? left - 1 : left; x < right; ) {
+                int key = runKey(f, row, inverted, x, y);
+                int end = runEnd(f, row, inverted, key, x, right, y);
+                int id = key >>> 1;
+                int style = f.getStyle(id);
+                int color = (key & 1) != 0 ? f.getBackground(id) : f.getForeground(id);
+                for (; x < end; x++) {
+                    int code = f.getCode(x, y);
+                    if (code == 0 || code == Frame.WIDE_TAIL) {
+                        continue;
+                    }
+                    int slot = GLYPHS.lookup(f, code, style, color);
+                    if (slot >= 0) {
+                        STRIP.blend(GLYPHS, slot, x);
+                    }
+                    else {
+                        uncached[n++] = x;
+                    }
+                }
+            }
+            STRIP.draw(g, y, left, right);
+
+            // drawn over the strip, once enough glyphs were rendered for this paint
+            for (int i = 0; i < n; i++) {
+                int x = uncached[i];
+                int key = runKey(f, row, inverted, x, y);
+                int id = key >>> 1;
+                int color = (key & 1) != 0 ? f.getBackground(id) : f.getForeground(id);
+                GLYPHS.drawString(g, f, f.getCode(x, y), f.getStyle(id), color, x, y);
+            }
+        }
+    }
+
+    /**
+     * @return the end (exclusive) of the run of cells from x on with the same key, at most right
+     */
+    private static int runEnd(Frame f, boolean[] selected, boolean inverted, int key, int x, int right, int y) {
+        int end = x + 1;
+        while (end < right && runKey(f, selected, inverted, end, y) == key) {
+            end++;
+        }
+        return end;
+    }
+
+    /**
+     * @return what decides the colours of a cell: its attributes, and whether they are swapped because the
+     * screen is inverted or the cell selected
+     */
+    private static int runKey(Frame f, boolean[] selected, boolean inverted, int x, int y) {
+        boolean swap = inverted ^ (selected != null && selected[x]);
+        return f.getAttrs(x, y) << 1 | (swap ? 1 : 0);
+    }
+
+    private static void paintMatches(Graphics2D g, Frame f, Rectangle cells) {
+        byte[] row = new byte[f.getWidth()];
+        for (int y = cells.y; y < cells.y + cells.height; y++) {
+            if (!f.getMatches(y, row)) {
+                continue;
+            }
+            // one rectangle per run of equally highlighted cells
+            for (int x = 0; x < row.length; ) {
+                int end = x + 1;
+                while (end < row.length && row[end] == row[x]) {
+                    end++;
+                }
+                if (row[x] != 0) {
+                    g.setColor(row[x] == Frame.CURRENT_MATCH ? CURRENT_MATCH : MATCH);
+                    g.fillRect(x * Fonts.WIDTH + 1, y * Fonts.HEIGHT + 1, (end - x) * Fonts.WIDTH, Fonts.HEIGHT);
+                }
+                x = end;
+            }
+            Arrays.fill(row, (byte) 0);
+        }
+    }
+
+    private static void paintCursor(Graphics2D g, Frame f, boolean hasFocus) {
+        int y = f.getCursorY();
+        if (y >= 0) {
+            int x = f.getCursorX();
+
+            // covers both halves of a wide character
+            int code = f.getCode(x, y);
+            int width = x + 1 < f.getWidth() && f.getCode(x + 1, y) == Frame.WIDE_TAIL ? 2 : 1;
+
+            g.setColor(Color.GREEN);
+            if (hasFocus) {
+                fillCells(g, x, y, width);
+
+                if (code != 0 && code != Frame.WIDE_TAIL) {
+                    g.setColor(Color.BLACK);
+                    g.setFont(Fonts.getFont(f.getStyle(f.getAttrs(x, y)), f.getBase(code)));
+                    writeCell(g, f.getText(code), x, y);
+                }
+            }
+            else {
+                drawCells(g, x, y, width);
+            }
+        }
+    }
+
+    private static void fillCells(Graphics2D g, int x, int y, int n) {
+        x = x * Fonts.WIDTH + 1;
+        y = y * Fonts.HEIGHT + 1;
+        g.fillRect(x, y, n * Fonts.WIDTH, Fonts.HEIGHT);
+    }
+
+    private static void drawCells(Graphics2D g, int x, int y, int n) {
+        x = x * Fonts.WIDTH + 1;
+        y = y * Fonts.HEIGHT + 1;
+        g.drawRect(x, y, n * Fonts.WIDTH - 1, Fonts.HEIGHT - 1);
+    }
+
+    private static void writeCell(Graphics2D g, String s, int x, int y) {
+        x = x * Fonts.WIDTH + 1;
+        y = (y + 1) * Fonts.HEIGHT - 3;
+        g.drawString(s, x, y);
+
+        if (g.getFont().isBold()) {
+            g.drawString(s, x - 1, y);
+        }
+    }
+
+}
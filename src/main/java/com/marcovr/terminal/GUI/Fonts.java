@@ -0,0 +1,215 @@
+package com.marcovr.terminal.GUI;
+
+import com.marcovr.terminal.screen.CellStyle;
+
+import java.awt.*;
+import java.awt.font.TextAttribute;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The fonts cells are drawn with, and the size of a cell in pixels.
+ * Code points the base font cannot display are drawn with a fallback font. Fallbacks are resolved in the
+ * background for a block of code points at a time, the base font stands in until then. Once a block is
+ * resolved, finding the font of a code point is an array read, including the code points no font can display
+ */
+public class Fonts {
+
+    public static final int WIDTH = 8;
+    public static final int HEIGHT = 16;
+
+    private static final int SIZE = 12;
+    private static final int BLOCK_BITS = 8;
+    private static final int BLOCK_SIZE = 1 << BLOCK_BITS;
+    // fallbacks are stored as a byte per code point, 0 for the base font
+    private static final int MAX_FALLBACKS = 255;
+
+    private static final ExecutorService RESOLVER = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "Fonts");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private static Font baseFont = new Font("Courier New", Font.PLAIN, SIZE);
+    private static Font[] fonts;
+    private static final List<Map<TextAttribute, Object>> styles = new ArrayList<>();
+
+    // tried first when the base font cannot display a code point, then every other font of the system
+    private static final String[] PREFERRED = {"Segoe UI Emoji", "MS Gothic", "SimSun", "Malgun Gothic"};
+    // created by the resolver, in the order they are tried
+    private static final List<Font> fallbacks = new ArrayList<>();
+    private static boolean fallbacksListed;
+
+    // for each block of code points: the fallback of each one plus 1, or 0 for the base font. Null until resolved
+    private static final AtomicReferenceArray<byte[]> blocks =
+            new AtomicReferenceArray<>((Character.MAX_CODE_POINT + 1) >> BLOCK_BITS);
+    private static final boolean[] requested = new boolean[blocks.length()];
+    // fallbacks derived for each style, on first use. At most MAX_FALLBACKS times the number of styles
+    private static final AtomicReferenceArray<Font> derived = new AtomicReferenceArray<>(MAX_FALLBACKS * 8);
+
+    private static volatile int generation;
+    private static final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+
+    static {
+
+        int n = 8;
+        fonts = new Font[n];
+
+        Map<TextAttribute, Object> attributes;
+        for (int i = 0; i < n; i++) {
+            attributes = new HashMap<>();
+            attributes.put(TextAttribute.WEIGHT,
+                    (i & CellStyle.BOLD) == 0 ? TextAttribute.WEIGHT_REGULAR : TextAttribute.WEIGHT_EXTRABOLD);
+            attributes.put(TextAttribute.POSTURE,
+                    (i & CellStyle.ITALIC) == 0 ? TextAttribute.POSTURE_REGULAR : TextAttribute.POSTURE_OBLIQUE);
+            attributes.put(TextAttribute.UNDERLINE,
+                    (i & CellStyle.UNDERLINE) == 0 ? -1 : TextAttribute.UNDERLINE_ON);
+
+            styles.add(attributes);
+            fonts[i] = baseFont.deriveFont(attributes);
+        }
+    }
+
+    public static Font getFont(int style) {
+        return fonts[style];
+    }
+
+    /**
+     * Returns the font to draw a code point with, falling back to other fonts if the base font cannot
+     * display it. Until the fallbacks of its block are resolved, that is the base font
+     *
+     * @param style the cell style
+     * @param codePoint the code point
+     * @return the font
+     */
+    static Font getFont(int style, int codePoint) {
+        if (codePoint < 0x80) {
+            return fonts[style];
+        }
+
+        byte[] block = blocks.get(codePoint >> BLOCK_BITS);
+        if (block == null) {
+            request(codePoint >> BLOCK_BITS);
+            return fonts[style];
+        }
+        int fallback = block[codePoint & BLOCK_SIZE - 1] & 0xff;
+        return fallback == 0 ? fonts[style] : getFallback(fallback - 1, style);
+    }
+
+    /**
+     * @return a number that changes whenever fallbacks were resolved, so glyphs drawn with the base font
+     * in their place are out of date
+     */
+    static int getGeneration() {
+        return generation;
+    }
+
+    /**
+     * @param listener called from a background thread whenever fallbacks were resolved
+     */
+    static void addListener(Runnable listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * @param listener a listener added before, it is not called anymore
+     */
+    static void removeListener(Runnable listener) {
+        listeners.remove(listener);
+    }
+
+    private static Font getFallback(int i, int style) {
+        Font f = derived.get(i * 8 + style);
+        if (f == null) {
+            Font fallback;
+            synchronized (fallbacks) {
+                fallback = fallbacks.get(i);
+            }
+            f = fallback.deriveFont(styles.get(style));
+            derived.set(i * 8 + style, f);
+        }
+        return f;
+    }
+
+    private static void request(int block) {
+        synchronized (requested) {
+            if (requested[block]) {
+                return;
+            }
+            requested[block] = true;
+        }
+        RESOLVER.execute(() -> resolve(block));
+    }
+
+    /**
+     * Finds the fallback of each code point of a block: the first font that can display it.
+     * Code points no font can display keep the base font, which shows them as missing
+     */
+    private static void resolve(int block) {
+        byte[] resolved = new byte[BLOCK_SIZE];
+        int first = block << BLOCK_BITS;
+        int missing = 0;
+        boolean[] covered = new boolean[BLOCK_SIZE];
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            covered[i] = baseFont.canDisplay(first + i);
+            if (!covered[i]) {
+                missing++;
+            }
+        }
+
+        int found = 0;
+        if (missing > 0) {
+            List<Font> candidates = getFallbacks();
+            for (int k = 0; k < candidates.size() && found < missing; k++) {
+                Font f = candidates.get(k);
+                for (int i = 0; i < BLOCK_SIZE; i++) {
+                    if (!covered[i] && f.canDisplay(first + i)) {
+                        covered[i] = true;
+                        resolved[i] = (byte) (k + 1);
+                        found++;
+                    }
+                }
+            }
+        }
+
+        blocks.set(block, resolved);
+        if (found > 0) {
+            generation++;
+            for (Runnable listener : listeners) {
+                listener.run();
+            }
+        }
+    }
+
+    /**
+     * @return the fonts to fall back to, created once on the resolver thread
+     */
+    private static List<Font> getFallbacks() {
+        synchronized (fallbacks) {
+            if (!fallbacksListed) {
+                Set<String> names = new LinkedHashSet<>(Arrays.asList(PREFERRED));
+                names.addAll(Arrays.asList(GraphicsEnvironment.getLocalGraphicsEnvironment().getAvailableFontFamilyNames()));
+                names.remove(baseFont.getFamily());
+                for (String name : names) {
+                    Font f = new Font(name, Font.PLAIN, SIZE);
+                    // unknown names fall back to the default font, which is tried in its own right
+                    if (f.getFamily().equals(name) && fallbacks.size() < MAX_FALLBACKS) {
+                        fallbacks.add(f);
+                    }
+                }
+                fallbacksListed = true;
+            }
+            return new ArrayList<>(fallbacks);
+        }
+    }
+
+}
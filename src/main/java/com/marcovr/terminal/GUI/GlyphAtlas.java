@@ -0,0 +1,345 @@
+package com.marcovr.terminal.GUI;
+
+import com.marcovr.terminal.screen.CellStyle;
+import com.marcovr.terminal.screen.Frame;
+
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Cache of rendered glyphs. Java2D looks up, positions and blends text anew on every drawString, so glyphs are
+ * rendered once into an image instead, and blended from there into the {@link RowStrip} a row is composed in.
+ * Glyphs are keyed by text, style and colour, rendered on first use and evicted least recently used first once
+ * the atlas is full.
+ * Not thread-safe, {@link BufferPainter} paints under its lock
+ */
+class GlyphAtlas {
+
+    // room around a cell for glyphs reaching out of it, like accents and italics
+    private static final int PAD = 4;
+    // a slot holds a cell of a wide character plus padding
+    private static final int SLOT_WIDTH = 2 * Fonts.WIDTH + 2 * PAD;
+    private static final int SLOT_HEIGHT = Fonts.HEIGHT + 2 * PAD;
+    private static final int COLUMNS = 64;
+    private static final int MIN_ROWS = 4;
+    private static final int MAX_ROWS = 32;
+    private static final int CAPACITY = COLUMNS * MAX_ROWS;
+    // glyphs rendered per paint at most, the rest are drawn without caching until a later paint.
+    // Keeps the first paint of a busy screen and screens with more glyphs than fit from rendering all the time
+    private static final int MAX_MISSES = 256;
+
+    private final Map<Key, Integer> slots = new HashMap<>();
+    private final Key probe = new Key();
+
+    // glyph of each slot, and the slots in order of use as a doubly linked list
+    private final Key[] keys = new Key[CAPACITY];
+    private final int[] older = new int[CAPACITY];
+    private final int[] newer = new int[CAPACITY];
+    private int newest = -1, oldest = -1;
+    private int used;
+    // pixels covered by the glyph of each slot: x, y, width and height within the slot
+    private final int[] bounds = new int[CAPACITY * 4];
+
+    // created with the first glyph, and grown by rows of slots. Its pixels are read directly
+    private BufferedImage image;
+    private int[] pixels;
+    private Graphics2D graphics;
+    private int rows;
+    private int misses;
+    // device pixels per cell pixel, glyphs are rendered at the resolution they are shown at
+    private double scale = 1;
+    private int slotWidth = SLOT_WIDTH, slotHeight = SLOT_HEIGHT;
+    // device pixels from the corner of a slot to the corner of its cell
+    private int padding = PAD;
+    // fallback fonts known when the glyphs were rendered
+    private int fonts = Fonts.getGeneration();
+
+    /**
+     * Starts a paint at the resolution glyphs are shown at, dropping all glyphs if it changed or fallback
+     * fonts were resolved since the last paint
+     *
+     * @param s device pixels per cell pixel
+     */
+    void prepare(double s) {
+        misses = 0;
+        if (s <= 0) {
+            s = scale;
+        }
+        int generation = Fonts.getGeneration();
+        if (s != scale || fonts != generation) {
+            slots.clear();
+            newest = oldest = -1;
+            used = 0;
+            if (graphics != null) {
+                graphics.dispose();
+            }
+            image = null;
+            pixels = null;
+            graphics = null;
+            rows = 0;
+            fonts = generation;
+            scale = s;
+            slotWidth = (int) Math.ceil(SLOT_WIDTH * s);
+            slotHeight = (int) Math.ceil(SLOT_HEIGHT * s);
+            padding = (int) Math.round(PAD * s);
+        }
+    }
+
+    /**
+     * Finds the glyph of a cell, rendering it if needed
+     *
+     * @param f the frame of the cell
+     * @param code the cell code, not empty
+     * @param style the cell style
+     * @param color the packed foreground colour
+     * @return the slot of the glyph, or -1 if it is not cached and enough glyphs were rendered for this paint
+     */
+    int lookup(Frame f, int code, int style, int color) {
+        // cluster codes differ between buffers, their text does not
+        probe.set(code < 0 ? 0 : code, code < 0 ? f.getText(code) : null, style, color);
+        Integer slot = slots.get(probe);
+        int i;
+        if (slot == null) {
+            if (++misses > MAX_MISSES) {
+                return -1;
+            }
+            i = allocate();
+            render(i, f.getText(code), Fonts.getFont(style, f.getBase(code)), style, color);
+            Key key = probe.copy();
+            keys[i] = key;
+            slots.put(key, i);
+        }
+        else {
+            i = slot;
+            unlink(i);
+        }
+        link(i);
+        return i;
+    }
+
+    /**
+     * Blends a glyph over opaque pixels, only the part that falls within them
+     *
+     * @param i the slot of the glyph
+     * @param dst RGB pixels
+     * @param width pixels per line of dst
+     * @param height lines of dst
+     * @param x position of the glyph's cell in dst
+     * @param y position of the glyph's cell in dst
+     */
+    void blend(int i, int[] dst, int width, int height, int x, int y) {
+        int w = bounds[i * 4 + 2];
+        if (w == 0) {
+            return;
+        }
+        int h = bounds[i * 4 + 3];
+        int dx = x - padding + bounds[i * 4];
+        int dy = y - padding + bounds[i * 4 + 1];
+        int sx = i % COLUMNS * slotWidth + bounds[i * 4];
+        int sy = i / COLUMNS * slotHeight + bounds[i * 4 + 1];
+
+        int left = Math.max(0, -dx), right = Math.min(w, width - dx);
+        int top = Math.max(0, -dy), bottom = Math.min(h, height - dy);
+        int stride = COLUMNS * slotWidth;
+        for (int r = top; r < bottom; r++) {
+            int s = (sy + r) * stride + sx;
+            int d = (dy + r) * width + dx;
+            for (int c = left; c < right; c++) {
+                int p = pixels[s + c];
+                if (p != 0) {
+                    dst[d + c] = over(p, dst[d + c]);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param p premultiplied ARGB
+     * @param q opaque RGB
+     * @return p over q
+     */
+    private static int over(int p, int q) {
+        int inverse = 255 - (p >>> 24);
+        if (inverse == 0) {
+            return p;
+        }
+        int r = (p >> 16 & 0xff) + ((q >> 16 & 0xff) * inverse + 127) / 255;
+        int g = (p >> 8 & 0xff) + ((q >> 8 & 0xff) * inverse + 127) / 255;
+        int b = (p & 0xff) + ((q & 0xff) * inverse + 127) / 255;
+        return 0xff000000 | r << 16 | g << 8 | b;
+    }
+
+    /**
+     * Draws the content of a cell directly, for glyphs that are not cached
+     *
+     * @param g the graphics object in device pixels, the screen starts at (1, 1) times the scale
+     */
+    void drawString(Graphics2D g, Frame f, int code, int style, int color, int x, int y) {
+        AffineTransform t = null;
+        if (scale != 1) {
+            t = g.getTransform();
+            g.scale(scale, scale);
+        }
+        g.setFont(Fonts.getFont(style, f.getBase(code)));
+        g.setColor(Palette.toColor(color));
+        String text = f.getText(code);
+        int left = x * Fonts.WIDTH + 1;
+        int baseline = (y + 1) * Fonts.HEIGHT - 3;
+        g.drawString(text, left, baseline);
+        if ((style & CellStyle.BOLD) != 0) {
+            g.drawString(text, left - 1, baseline);
+        }
+        if (t != null) {
+            g.setTransform(t);
+        }
+    }
+
+    /**
+     * @return a free slot, the least recently used one if the atlas is full
+     */
+    private int allocate() {
+        if (used < CAPACITY) {
+            if (used == COLUMNS * rows) {
+                grow();
+            }
+            return used++;
+        }
+
+        int i = oldest;
+        unlink(i);
+        slots.remove(keys[i]);
+        return i;
+    }
+
+    private void grow() {
+        int n = rows == 0 ? MIN_ROWS : rows * 2;
+        BufferedImage grown = new BufferedImage(COLUMNS * slotWidth, n * slotHeight, BufferedImage.TYPE_INT_ARGB_PRE);
+        Graphics2D g = grown.createGraphics();
+        if (image != null) {
+            g.setComposite(AlphaComposite.Src);
+            g.drawImage(image, 0, 0, null);
+            graphics.dispose();
+        }
+        // subpixel antialiasing needs an opaque background, glyphs are blended onto the cells later
+        g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        image = grown;
+        pixels = ((DataBufferInt) grown.getRaster().getDataBuffer()).getData();
+        graphics = g;
+        rows = n;
+    }
+
+    private void render(int i, String text, Font font, int style, int color) {
+        Graphics2D g = graphics;
+        g.setTransform(new AffineTransform());
+        g.translate(i % COLUMNS * slotWidth, i / COLUMNS * slotHeight);
+        g.setClip(0, 0, slotWidth, slotHeight);
+        g.setComposite(AlphaComposite.Clear);
+        g.fillRect(0, 0, slotWidth, slotHeight);
+        g.setComposite(AlphaComposite.SrcOver);
+
+        g.scale(scale, scale);
+        g.setFont(font);
+        g.setColor(Palette.toColor(color));
+        int baseline = PAD + Fonts.HEIGHT - 4;
+        g.drawString(text, PAD, baseline);
+        if ((style & CellStyle.BOLD) != 0) {
+            g.drawString(text, PAD - 1, baseline);
+        }
+
+        measure(i);
+    }
+
+    /**
+     * Finds the pixels of a slot the glyph covers
+     */
+    private void measure(int i) {
+        int origin = i / COLUMNS * slotHeight * COLUMNS * slotWidth + i % COLUMNS * slotWidth;
+        int left = slotWidth, top = slotHeight, right = 0, bottom = 0;
+        for (int y = 0; y < slotHeight; y++) {
+            for (int x = 0; x < slotWidth; x++) {
+                if (pixels[origin + y * COLUMNS * slotWidth + x] != 0) {
+                    left = Math.min(left, x);
+                    right = Math.max(right, x + 1);
+                    top = Math.min(top, y);
+                    bottom = y + 1;
+                }
+            }
+        }
+        bounds[i * 4] = left;
+        bounds[i * 4 + 1] = top;
+        bounds[i * 4 + 2] = Math.max(0, right - left);
+        bounds[i * 4 + 3] = Math.max(0, bottom - top);
+    }
+
+    private void link(int i) {
+        older[i] = newest;
+        newer[i] = -1;
+        if (newest >= 0) {
+            newer[newest] = i;
+        }
+        else {
+            oldest = i;
+        }
+        newest = i;
+    }
+
+    private void unlink(int i) {
+        if (older[i] >= 0) {
+            newer[older[i]] = newer[i];
+        }
+        else {
+            oldest = newer[i];
+        }
+        if (newer[i] >= 0) {
+            older[newer[i]] = older[i];
+        }
+        else {
+            newest = older[i];
+        }
+    }
+
+    /**
+     * A glyph: code point or cluster text, style and colour. Mutable, so lookups do not allocate
+     */
+    private static class Key {
+
+        private int code;
+        private String text;
+        private int style;
+        private int color;
+
+        void set(int code, String text, int style, int color) {
+            this.code = code;
+            this.text = text;
+            this.style = style;
+            this.color = color;
+        }
+
+        Key copy() {
+            Key k = new Key();
+            k.set(code, text, style, color);
+            return k;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key k = (Key) o;
+            return code == k.code && style == k.style && color == k.color
+                    && (text == null ? k.text == null : text.equals(k.text));
+        }
+
+        @Override
+        public int hashCode() {
+            int h = code * 31 + color;
+            h = h * 31 + style;
+            return text == null ? h : h * 31 + text.hashCode();
+        }
+    }
+}
@@ -1,4 +1,4 @@
-package com.marcovr.terminal.misc;
+package com.marcovr.terminal.GUI;
 
 import java.awt.event.KeyEvent;
 
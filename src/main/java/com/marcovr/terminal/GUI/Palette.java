@@ -0,0 +1,98 @@
+package com.marcovr.terminal.GUI;
+
+import com.marcovr.terminal.screen.CellStyle;
+
+import java.awt.*;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Resolves the packed colours of the screen model to AWT colours
+ */
+public class Palette {
+
+    private static final int MAX_CACHED = 4096;
+
+    private static Color[] colors;
+    private static Color foreground, background;
+
+    private static final Map<Integer, Color> rgbColors = new ConcurrentHashMap<>();
+
+    static {
+        colors = new Color[256];
+
+        // 8 base colors & 8 bright colors
+        int c = 0;
+        int shade = 187;
+        for (int i = 0; i < 8; i++) {
+            int r = (i & 1) * shade;
+            int g = ((i & 2) >> 1) * shade;
+            int b = ((i & 4) >> 2) * shade;
+            colors[c++] = new Color(r , g, b);
+        }
+        shade = 85;
+        for (int i = 0; i < 8; i++) {
+            int r = (((i & 1) << 1) + 1) * shade;
+            int g = ((i & 2) + 1) * shade;
+            int b = (((i & 4) >> 1) + 1) * shade;
+            colors[c++] = new Color(r , g, b);
+        }
+
+        // 216 additional colors
+        for (int i = 0; i < 6; i++) {
+            int r = i == 0 ? 0 : i * 40 + 55;
+            for (int j = 0; j < 6; j++) {
+                int g = j == 0 ? 0 : j * 40 + 55;
+                for (int k = 0; k < 6; k++) {
+                    int b = k == 0 ? 0 : k * 40 + 55;
+                    colors[c++] = new Color(r, g, b);
+                }
+            }
+        }
+
+        // 24 gray-scales
+        for (int i = 0; i < 24; i++) {
+            int g = 10 * i + 8;
+            colors[c++] = new Color(g, g, g);
+        }
+
+        // default colors
+        foreground = colors[CellStyle.DEFAULT_FOREGROUND];
+        background = colors[CellStyle.DEFAULT_BACKGROUND];
+    }
+
+    public static Color getColor(int color) {
+        return colors[color];
+    }
+
+    /**
+     * Resolves a packed colour, either a palette index or a value created by {@link CellStyle#rgb(int, int, int)}
+     *
+     * @param color the packed colour
+     * @return the Color
+     */
+    public static Color toColor(int color) {
+        if ((color & CellStyle.RGB) == 0) {
+            return colors[color];
+        }
+
+        Color c = rgbColors.get(color);
+        if (c == null) {
+            if (rgbColors.size() >= MAX_CACHED) {
+                rgbColors.clear();
+            }
+            c = new Color(color & 0xffffff);
+            rgbColors.put(color, c);
+        }
+        return c;
+    }
+
+    public static Color getForeground() {
+        return foreground;
+    }
+
+    public static Color getBackground() {
+        return background;
+    }
+
+}
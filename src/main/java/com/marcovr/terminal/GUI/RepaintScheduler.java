@@ -0,0 +1,66 @@
+package com.marcovr.terminal.GUI;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Limits the repaints of a component to a maximum frame rate.
+ * A request after a quiet period is presented immediately (so typing stays responsive),
+ * requests arriving faster than the frame rate are merged into one repaint at the next frame.
+ */
+public class RepaintScheduler {
+
+    private final Runnable repaint;
+    private final long frameNanos;
+    private final AtomicBoolean pending = new AtomicBoolean();
+    private final ScheduledExecutorService executor;
+    private volatile long lastPresent;
+
+    /**
+     * Creates a new RepaintScheduler
+     *
+     * @param repaint requests the repaint, e.g. component::repaint. Called from a background thread
+     * @param fps maximum number of repaints per second
+     */
+    public RepaintScheduler(Runnable repaint, int fps) {
+        this.repaint = repaint;
+        frameNanos = TimeUnit.SECONDS.toNanos(1) / Math.max(fps, 1);
+        lastPresent = System.nanoTime() - frameNanos;
+
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "RepaintScheduler");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Marks the component dirty. Can be called from any thread, as often as desired
+     */
+    public void requestRepaint() {
+        if (pending.compareAndSet(false, true)) {
+            long delay = lastPresent + frameNanos - System.nanoTime();
+            if (delay <= 0) {
+                present();
+            }
+            else {
+                executor.schedule(this::present, delay, TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+
+    private void present() {
+        lastPresent = System.nanoTime();
+        pending.set(false);
+        repaint.run();
+    }
+
+    /**
+     * Stops the scheduler, pending repaints are dropped
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
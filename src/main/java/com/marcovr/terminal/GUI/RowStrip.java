@@ -0,0 +1,90 @@
+package com.marcovr.terminal.GUI;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+
+/**
+ * A row of cells composed in memory, backgrounds and glyphs, and drawn with a single image copy.
+ * Drawing cell by cell costs a Java2D call per background and glyph, each blending its pixels anew.
+ * Not thread-safe, {@link BufferPainter} paints under the lock of its glyph atlas
+ */
+class RowStrip {
+
+    private BufferedImage image;
+    private int[] pixels;
+    private int width, height;
+
+    private double scale;
+    // device position of the screen's corner, and of each column relative to it
+    private int originX;
+    private int[] columnX;
+
+    /**
+     * Adapts the strip to a screen width and the resolution it is shown at
+     *
+     * @param s device pixels per cell pixel
+     * @param columns the width of the screen
+     */
+    void prepare(double s, int columns) {
+        if (s == scale && columnX != null && columnX.length == columns + 1) {
+            return;
+        }
+
+        scale = s;
+        originX = deviceX(0);
+        columnX = new int[columns + 1];
+        for (int x = 0; x <= columns; x++) {
+            columnX[x] = deviceX(x) - originX;
+        }
+        width = Math.max(1, columnX[columns]);
+        height = (int) Math.ceil(Fonts.HEIGHT * s) + 1;
+        image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+    }
+
+    /**
+     * Fills the backgrounds of cells from (inclusive) to (exclusive)
+     *
+     * @param rgb the colour
+     */
+    void fill(int from, int to, int rgb) {
+        int left = columnX[from], right = columnX[to];
+        for (int y = 0; y < height; y++) {
+            Arrays.fill(pixels, y * width + left, y * width + right, rgb);
+        }
+    }
+
+    /**
+     * Blends a glyph over a cell, the parts reaching out of the row are cut off
+     *
+     * @param atlas the atlas holding the glyph
+     * @param slot the slot of the glyph
+     * @param x column
+     */
+    void blend(GlyphAtlas atlas, int slot, int x) {
+        atlas.blend(slot, pixels, width, height, columnX[x], 0);
+    }
+
+    /**
+     * Draws cells from (inclusive) to (exclusive)
+     *
+     * @param g the graphics object in device pixels, the screen starts at (1, 1) times the scale
+     * @param y the row to draw them in
+     */
+    void draw(Graphics2D g, int y, int from, int to) {
+        int top = deviceY(y);
+        int bottom = Math.min(deviceY(y + 1), top + height);
+        int left = columnX[from], right = columnX[to];
+        g.drawImage(image, originX + left, top, originX + right, bottom, left, 0, right, bottom - top, null);
+    }
+
+    private int deviceX(int column) {
+        return (int) Math.round((column * Fonts.WIDTH + 1) * scale);
+    }
+
+    private int deviceY(int row) {
+        return (int) Math.round((row * Fonts.HEIGHT + 1) * scale);
+    }
+}
@@ -1,7 +1,6 @@
 package com.marcovr.terminal.GUI;
 
 import com.marcovr.terminal.Terminal;
-import com.marcovr.terminal.screen.CellStyle;
 
 import javax.swing.*;
 import java.awt.*;
@@ -15,6 +14,8 @@ import java.awt.event.WindowEvent;
  */
 public class TerminalFrame extends JFrame {
 
+    private final TerminalPanel terminalPanel;
+
     //private boolean maximised;
 
     /**
@@ -23,7 +24,7 @@ public class TerminalFrame extends JFrame {
     public TerminalFrame(Terminal terminal) {
         super("Terminal");
 
-        TerminalPanel terminalPanel = new TerminalPanel(terminal);
+        terminalPanel = new TerminalPanel(terminal);
         setContentPane(terminalPanel);
 
         // Properly close
@@ -43,10 +44,10 @@ public class TerminalFrame extends JFrame {
             @Override
             public void componentResized(ComponentEvent e) {
                 Dimension size = terminalPanel.getSize();
-                int x = size.width / CellStyle.WIDTH;
-                int y = size.height / CellStyle.HEIGHT;
-                int width = CellStyle.WIDTH * x + 2;
-                int height = CellStyle.HEIGHT * y + 2;
+                int x = size.width / Fonts.WIDTH;
+                int y = size.height / Fonts.HEIGHT;
+                int width = Fonts.WIDTH * x + 2;
+                int height = Fonts.HEIGHT * y + 2;
 
                 /*if (!maximised) {
                     size.setSize(width, height);
@@ -58,4 +59,10 @@ public class TerminalFrame extends JFrame {
         });
     }
 
+    /**
+     * Repaints the parts of the terminal screen that changed. Can be called from any thread
+     */
+    public void repaintDamage() {
+        terminalPanel.repaintDamage();
+    }
 }
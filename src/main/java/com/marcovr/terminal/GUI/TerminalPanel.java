@@ -1,7 +1,7 @@
 package com.marcovr.terminal.GUI;
 
 import com.marcovr.terminal.Terminal;
-import com.marcovr.terminal.screen.CellStyle;
+import com.marcovr.terminal.screen.Damage;
 import com.marcovr.terminal.screen.Screen;
 
 import javax.swing.*;
@@ -16,6 +16,10 @@ class TerminalPanel extends JPanel {
     private Screen screen;
     private Terminal terminal;
 
+    // registered while the panel is displayed, static registries would keep a closed window alive otherwise
+    private final Runnable fontsListener = this::repaint;
+    private final KeyEventDispatcher keyDispatcher;
+
     /**
      * Creates a new terminal panel
      *
@@ -46,14 +50,55 @@ class TerminalPanel extends JPanel {
         addMouseListener(listener);
         addMouseMotionListener(listener);
 
+        // scroll through history with the mouse wheel
+        addMouseWheelListener(e -> this.terminal.scrollView(-e.getWheelRotation() * 3));
+
         // stronger than KeyListener - also catches TAB etc.
-        KeyboardFocusManager.getCurrentKeyboardFocusManager().addKeyEventDispatcher(e -> {
+        keyDispatcher = e -> {
             if (e.getID() == KeyEvent.KEY_PRESSED && hasFocus()) {
                 this.terminal.handleKey(e); // if focused, pass event to terminal
                 return true;
             }
             return false;
-        });
+        };
+    }
+
+    @Override
+    public void addNotify() {
+        super.addNotify();
+        // cells drawn with the base font in place of a fallback that was not resolved yet
+        Fonts.addListener(fontsListener);
+        KeyboardFocusManager.getCurrentKeyboardFocusManager().addKeyEventDispatcher(keyDispatcher);
+    }
+
+    @Override
+    public void removeNotify() {
+        Fonts.removeListener(fontsListener);
+        KeyboardFocusManager.getCurrentKeyboardFocusManager().removeKeyEventDispatcher(keyDispatcher);
+        super.removeNotify();
+    }
+
+    /**
+     * Repaints the cells that changed on the screen since the last call. Swing merges the requests.
+     * A scrolled region is repainted as a whole, since the painting is not kept between repaints
+     */
+    void repaintDamage() {
+        Damage damage = screen.takeDamage();
+        if (damage.isFull()) {
+            repaint();
+            return;
+        }
+        if (damage.getScrollDelta() != 0) {
+            int top = damage.getScrollTop();
+            repaint(0, top * Fonts.HEIGHT + 1, getWidth(), (damage.getScrollBottom() - top) * Fonts.HEIGHT);
+        }
+        for (int y = 0; y < damage.getHeight(); y++) {
+            if (damage.isDirty(y)) {
+                int x = damage.getStart(y);
+                repaint(x * Fonts.WIDTH + 1, y * Fonts.HEIGHT + 1,
+                        (damage.getEnd(y) - x) * Fonts.WIDTH, Fonts.HEIGHT);
+            }
+        }
     }
 
     /**
@@ -73,17 +118,17 @@ class TerminalPanel extends JPanel {
      * @param g the graphics object
      */
     private void _paintComponent(Graphics2D g) {
-        g.setColor(CellStyle.getBackground());
+        g.setColor(Palette.getBackground());
         g.fillRect(0, 0, getWidth(), getHeight());
 
         if (screen == null) {
             g.setColor(Color.RED);
-            g.fillRect(1, 1, CellStyle.WIDTH, CellStyle.HEIGHT);
+            g.fillRect(1, 1, Fonts.WIDTH, Fonts.HEIGHT);
         }
         else {
-            screen.paint(g, hasFocus());
+            BufferPainter.paint(g, screen.getFrame(), hasFocus());
         }
-        g.setColor(CellStyle.getBackground());
+        g.setColor(Palette.getBackground());
         g.fillRect(0, 0, 1, getHeight());
     }
 
@@ -139,11 +184,11 @@ class TerminalPanel extends JPanel {
 
         @Override
         public void mouseDragged(MouseEvent e) {
-            // if dragging, notify terminal of new mouse position
+            // if dragging, notify terminal of new mouse position, dragging with ALT selects a block
             if (dragState != NONE) {
                 Point dragEnd = e.getPoint();
                 dragEnd.translate(0, -1);
-                terminal.select(dragStart.getLocation(), dragEnd);
+                terminal.select(dragStart.getLocation(), dragEnd, e.isAltDown());
                 dragState = DRAGGING;
             }
         }
@@ -0,0 +1,165 @@
+package com.marcovr.terminal;
+
+import com.marcovr.terminal.commands.CommandHandler;
+import com.marcovr.terminal.commands.TerminalHost;
+import com.marcovr.terminal.screen.Screen;
+
+/**
+ * A terminal without user interface, e.g. for running many sessions on a server.
+ * Output is fed in by the caller, the resulting screen can be read through {@link #getScreen()},
+ * and answers to requests of the remote side (like cursor position reports) are collected until taken.
+ * Scrollback stays in the heap, within a budget per session. {@link #close()} releases it once the session ends.
+ * Not thread-safe, output has to be fed from one thread at a time
+ */
+public class HeadlessTerminal implements TerminalHost {
+
+    /**
+     * Heap for the compressed scrollback of a session if not given, in bytes
+     */
+    public static final long DEFAULT_SCROLLBACK = 1 << 20;
+
+    private final Screen screen;
+    private final CommandHandler handler;
+
+    // created by the first answer, most sessions never send one
+    private StringBuilder replies;
+    private String title = "";
+    private boolean applicationCursorKeys;
+    private boolean bracketedPaste;
+    private boolean closed;
+
+    /**
+     * Creates a terminal with {@link #DEFAULT_SCROLLBACK} of heap for its scrollback
+     *
+     * @param width columns
+     * @param height rows
+     */
+    public HeadlessTerminal(int width, int height) {
+        this(width, height, DEFAULT_SCROLLBACK);
+    }
+
+    /**
+     * Creates a terminal whose scrollback stays in the heap
+     *
+     * @param width columns
+     * @param height rows
+     * @param scrollback bytes of heap for the compressed scrollback, older lines are dropped
+     */
+    public HeadlessTerminal(int width, int height, long scrollback) {
+        screen = new Screen(width, height, scrollback, 0);
+        handler = new CommandHandler(screen, this);
+    }
+
+    /**
+     * Processes UTF-8 encoded terminal output. Sequences may be split across calls
+     *
+     * @param data the output
+     * @param off offset into data
+     * @param len number of bytes
+     */
+    public void feed(byte[] data, int off, int len) {
+        if (closed) {
+            throw new IllegalStateException("terminal is closed");
+        }
+        handler.parse(data, off, len);
+    }
+
+    /**
+     * Ends the session and releases its scrollback. No output can be fed afterwards
+     */
+    public void close() {
+        if (!closed) {
+            closed = true;
+            screen.close();
+        }
+    }
+
+    /**
+     * @return the screen the output is written to
+     */
+    public Screen getScreen() {
+        return screen;
+    }
+
+    /**
+     * Returns what the terminal answered since the last call, which has to be sent to the remote side
+     *
+     * @return the answers, empty if there were none
+     */
+    public String takeReplies() {
+        if (replies == null) {
+            return "";
+        }
+        String s = replies.toString();
+        replies = null;
+        return s;
+    }
+
+    /**
+     * @return the title last set by the remote side
+     */
+    public String getTitle() {
+        return title;
+    }
+
+    /**
+     * @return true if cursor keys should send application codes
+     */
+    public boolean isApplicationCursorKeys() {
+        return applicationCursorKeys;
+    }
+
+    /**
+     * @return true if pasted text should be wrapped in bracketed paste markers
+     */
+    public boolean isBracketedPaste() {
+        return bracketedPaste;
+    }
+
+    /**
+     * @return true if {@link #close()} was called
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public void send(String s) {
+        if (replies == null) {
+            replies = new StringBuilder();
+        }
+        replies.append(s);
+    }
+
+    @Override
+    public void bell() {}
+
+    @Override
+    public void setTitle(String title) {
+        this.title = title;
+    }
+
+    @Override
+    public void setApplicationCursorKeys(boolean status) {
+        applicationCursorKeys = status;
+    }
+
+    @Override
+    public void setBracketedPaste(boolean status) {
+        bracketedPaste = status;
+    }
+
+    @Override
+    public boolean handleXterm(int n, int argc, int arg0, int arg1) {
+        // there is no window to manipulate or report on
+        return false;
+    }
+
+    @Override
+    public void scheduleRepaint() {}
+
+    @Override
+    public void shutdown() {
+        // only called by the read loop of a connection, the owner feeds output and closes the session instead
+    }
+}
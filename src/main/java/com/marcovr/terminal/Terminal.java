@@ -1,12 +1,17 @@
 package com.marcovr.terminal;
 
+import com.marcovr.terminal.GUI.Fonts;
+import com.marcovr.terminal.GUI.KeyTranslator;
+import com.marcovr.terminal.GUI.RepaintScheduler;
 import com.marcovr.terminal.GUI.TerminalFrame;
 import com.marcovr.terminal.commands.CommandHandler;
-import com.marcovr.terminal.misc.KeyTranslator;
-import com.marcovr.terminal.screen.CellStyle;
+import com.marcovr.terminal.commands.TerminalHost;
+import com.marcovr.terminal.record.SessionRecorder;
 import com.marcovr.terminal.screen.Screen;
+import com.marcovr.terminal.screen.SearchListener;
 import com.marcovr.terminal.ssh.ConnectionHandler;
 import com.marcovr.terminal.ssh.CredentialsHandler;
+import com.marcovr.terminal.ssh.PasteJob;
 import net.schmizz.sshj.userauth.method.AuthMethod;
 import net.schmizz.sshj.userauth.method.AuthPublickey;
 
@@ -15,20 +20,40 @@ import java.awt.*;
 import java.awt.datatransfer.Clipboard;
 import java.awt.datatransfer.DataFlavor;
 import java.awt.datatransfer.StringSelection;
+import java.awt.datatransfer.Transferable;
 import java.awt.datatransfer.UnsupportedFlavorException;
 import java.awt.event.KeyEvent;
 import java.awt.event.WindowEvent;
+import java.io.File;
 import java.io.IOException;
+import java.io.Reader;
+import java.util.regex.PatternSyntaxException;
 
 /**
  * Main terminal class
  */
-public class Terminal {
+public class Terminal implements TerminalHost {
+
+    /**
+     * Maximum frame rate for repaints caused by received output
+     */
+    private static final int FPS = Integer.getInteger("terminal.fps", 60);
+
+    /**
+     * If set, the session output is recorded into this file
+     */
+    private static final String RECORDING = System.getProperty("terminal.record");
 
     private final Screen screen;
     private final TerminalFrame frame;
+    private final RepaintScheduler repaintScheduler;
     private final KeyTranslator keys;
     private ConnectionHandler handler;
+    private CommandHandler commandHandler;
+    private SessionRecorder recorder;
+    private volatile PasteJob pasteJob;
+    private boolean bracketedPaste;
+    private String lastQuery = "";
     private String hostname;
     private int port;
     private String username;
@@ -39,6 +64,7 @@ public class Terminal {
     public Terminal() {
         screen = new Screen();
         frame = new TerminalFrame(this);
+        repaintScheduler = new RepaintScheduler(frame::repaintDamage, FPS);
         keys = new KeyTranslator();
 
         frame.setDefaultCloseOperation(WindowConstants.EXIT_ON_CLOSE);
@@ -76,7 +102,12 @@ public class Terminal {
 
             handler.startShell();
 
-            new CommandHandler(this).start();
+            commandHandler = new CommandHandler(screen, this);
+            if (RECORDING != null) {
+                recorder = new SessionRecorder(new File(RECORDING), screen);
+                commandHandler.setRecorder(recorder);
+            }
+            commandHandler.start(handler);
         } catch (IOException e) {
             e.printStackTrace();
             handler = null;
@@ -85,16 +116,27 @@ public class Terminal {
     }
 
     /**
-     * Disconnects from host
+     * Disconnects from host and releases the scrollback
      */
     public void disconnect() {
-        handler.disconnect();
-        handler = null;
+        if (handler != null) {
+            handler.disconnect();
+            handler = null;
+        }
+        if (recorder != null) {
+            try {
+                recorder.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        screen.close();
     }
 
     /**
      * Sends a close event to the corresponding JFrame
      */
+    @Override
     public void shutdown() {
         frame.dispatchEvent(new WindowEvent(frame, WindowEvent.WINDOW_CLOSING));
     }
@@ -113,6 +155,7 @@ public class Terminal {
         return handler;
     }
 
+    @Override
     public void setApplicationCursorKeys(boolean status) {
         keys.applicationCursorKeys = status;
     }
@@ -122,6 +165,7 @@ public class Terminal {
      *
      * @param title the title String
      */
+    @Override
     public void setTitle(String title) {
         frame.setTitle(title);
     }
@@ -137,7 +181,12 @@ public class Terminal {
     public void resize(int cols, int rows, int width, int height) {
         if (handler != null) {
             handler.resizeShell(cols, rows, width, height);
-            screen.resize(cols, rows);
+            if (commandHandler != null) {
+                commandHandler.resize(cols, rows);
+            }
+            else {
+                screen.resize(cols, rows);
+            }
         }
         repaint();
     }
@@ -150,16 +199,82 @@ public class Terminal {
     }
 
     /**
-     * Pastes any text from the clipboard as input
+     * Pastes any text from the clipboard as input. The text is streamed in chunks, read from the clipboard as
+     * they are sent if it offers the text as a stream, the window title shows the progress.
+     * A running paste can be cancelled with ESC
      */
     public void paste() {
-        if (handler != null) {
+        if (handler != null && pasteJob == null) {
+            Transferable contents = getClipboard().getContents(null);
+            if (contents == null) {
+                return;
+            }
             try {
-                handler.send((String) getClipboard().getData(DataFlavor.stringFlavor));
+                Reader reader = textFlavor(contents).getReaderForText(contents);
+                pasteJob = new PasteJob(handler, reader, bracketedPaste, new PasteProgress(frame.getTitle()));
+                pasteJob.start();
             } catch (UnsupportedFlavorException | IOException ignored) {}
         }
     }
 
+    /**
+     * @return a flavor the text can be read in as a stream, rather than loaded into one String, if one is offered
+     */
+    private static DataFlavor textFlavor(Transferable contents) {
+        DataFlavor unicode = DataFlavor.getTextPlainUnicodeFlavor();
+        if (contents.isDataFlavorSupported(unicode)) {
+            return unicode;
+        }
+        for (DataFlavor flavor : contents.getTransferDataFlavors()) {
+            if (flavor.isMimeTypeEqual("text/plain") && flavor.isRepresentationClassInputStream()
+                    && flavor.getParameter("charset") != null) {
+                return flavor;
+            }
+        }
+        return DataFlavor.stringFlavor;
+    }
+
+    /**
+     * Shows the progress of a paste in the window title
+     */
+    private class PasteProgress implements PasteJob.Listener {
+
+        private static final long INTERVAL_NANOS = 100_000_000;
+
+        private final String title;
+        private long lastUpdate = System.nanoTime();
+
+        PasteProgress(String title) {
+            this.title = title;
+        }
+
+        @Override
+        public void progress(long chars) {
+            long now = System.nanoTime();
+            if (now - lastUpdate >= INTERVAL_NANOS) {
+                lastUpdate = now;
+                String text = "Pasting... " + chars / 1024 + " KB (ESC to cancel) - " + title;
+                SwingUtilities.invokeLater(() -> frame.setTitle(text));
+            }
+        }
+
+        @Override
+        public void finished(boolean cancelled) {
+            pasteJob = null;
+            SwingUtilities.invokeLater(() -> frame.setTitle(title));
+        }
+    }
+
+    /**
+     * Enables or disables bracketed paste mode, i.e. wrapping pasted text in markers
+     *
+     * @param status true to enable
+     */
+    @Override
+    public void setBracketedPaste(boolean status) {
+        bracketedPaste = status;
+    }
+
     /**
      * @return the system clipboard
      */
@@ -172,9 +287,10 @@ public class Terminal {
      *
      * @param start selection start (pixels relative to terminal screen)
      * @param end selection end (pixels relative to terminal screen)
+     * @param block true to select a rectangle, false to select in reading order
      */
-    public void select(Point start, Point end) {
-        screen.select(start, end);
+    public void select(Point start, Point end, boolean block) {
+        screen.select(start.x / Fonts.WIDTH, start.y / Fonts.HEIGHT, end.x / Fonts.WIDTH, end.y / Fonts.HEIGHT, block);
         repaint();
     }
 
@@ -192,14 +308,121 @@ public class Terminal {
      * @param e the KEY_PRESSED KeyEvent to handle
      */
     public void handleKey(KeyEvent e) {
+        PasteJob job = pasteJob;
+        if (job != null && e.getKeyCode() == KeyEvent.VK_ESCAPE) {
+            job.cancel();
+            return;
+        }
+
+        if (e.isControlDown() && e.isShiftDown()) {
+            switch (e.getKeyCode()) {
+                case KeyEvent.VK_F:
+                    search();
+                    return;
+                case KeyEvent.VK_UP:
+                case KeyEvent.VK_DOWN:
+                    if (screen.findNext(e.getKeyCode() == KeyEvent.VK_UP)) {
+                        repaint();
+                    }
+                    return;
+            }
+        }
+
+        if (e.isShiftDown() && (e.getKeyCode() == KeyEvent.VK_PAGE_UP || e.getKeyCode() == KeyEvent.VK_PAGE_DOWN)) {
+            int page = screen.getHeight() - 1;
+            scrollView(e.getKeyCode() == KeyEvent.VK_PAGE_UP ? page : -page);
+            return;
+        }
+
         if (handler != null) {
             String keyPress = keys.translateKey(e);
             if (keyPress != null) {
+                if (screen.getViewOffset() != 0) {
+                    screen.resetView();
+                    repaint();
+                }
                 handler.send(keyPress);
             }
         }
     }
 
+    /**
+     * Scrolls the view through the scrollback history
+     *
+     * @param lines number of lines to scroll back, negative to scroll forward
+     */
+    public void scrollView(int lines) {
+        screen.scrollView(lines);
+        repaint();
+    }
+
+    /**
+     * Asks for a search term and highlights its matches on the screen and in the history.
+     * A term enclosed in slashes is a regular expression. Case is ignored unless the term contains upper case letters
+     */
+    public void search() {
+        String query = JOptionPane.showInputDialog(frame, "Search (/regex/):", lastQuery);
+        if (query == null) {
+            return;
+        }
+        lastQuery = query;
+
+        boolean regex = query.length() > 1 && query.startsWith("/") && query.endsWith("/");
+        if (regex) {
+            query = query.substring(1, query.length() - 1);
+        }
+        if (query.isEmpty()) {
+            screen.clearSearch();
+        }
+        else {
+            try {
+                screen.search(query, regex, query.equals(query.toLowerCase()), new SearchProgress());
+            } catch (PatternSyntaxException ex) {
+                JOptionPane.showMessageDialog(frame, ex.getMessage(), "Search", JOptionPane.ERROR_MESSAGE);
+            }
+        }
+        repaint();
+    }
+
+    /**
+     * Shows new matches as they are found and jumps to the first one
+     */
+    private class SearchProgress implements SearchListener {
+
+        private boolean found;
+
+        @Override
+        public void progress(int matches, boolean finished) {
+            if (matches > 0 && !found) {
+                found = true;
+                SwingUtilities.invokeLater(() -> {
+                    screen.findNext(true);
+                    repaint();
+                });
+            }
+            else {
+                scheduleRepaint();
+            }
+        }
+    }
+
+    /**
+     * Sends text to the host, if connected
+     *
+     * @param s the text to send
+     */
+    @Override
+    public void send(String s) {
+        if (handler != null) {
+            handler.send(s);
+        }
+    }
+
+    @Override
+    public void bell() {
+        Toolkit.getDefaultToolkit().beep();
+    }
+
     /**
      * Writes text onto the screen as if received
      *
@@ -222,14 +445,32 @@ public class Terminal {
     }
 
     /**
-     * Repaints the terminal window
+     * Repaints what changed in the terminal window, without waiting for the next frame
      */
     public void repaint() {
-        frame.repaint();
+        frame.repaintDamage();
     }
 
-    public boolean handleXterm(int n, java.util.List<Integer> args) {
-        if (args.size() > 2) {
+    /**
+     * Repaints the terminal window, limited to the configured frame rate
+     */
+    @Override
+    public void scheduleRepaint() {
+        repaintScheduler.requestRepaint();
+    }
+
+    /**
+     * Handles xterm window manipulation (CSI n ; arg0 ; arg1 t)
+     *
+     * @param n the operation
+     * @param argc number of further arguments
+     * @param arg0 first further argument, if any
+     * @param arg1 second further argument, if any
+     * @return false if the operation is not supported
+     */
+    @Override
+    public boolean handleXterm(int n, int argc, int arg0, int arg1) {
+        if (argc > 2) {
             return false;
         }
 
@@ -241,16 +482,16 @@ public class Terminal {
                 addState(Frame.ICONIFIED);
                 break;
             case 3:
-                if (args.size() < 2) {
+                if (argc < 2) {
                     return false;
                 }
-                frame.setLocation(args.get(0), args.get(1));
+                frame.setLocation(arg0, arg1);
                 break;
             case 4:
-                if (args.size() < 2) {
+                if (argc < 2) {
                     return false;
                 }
-                frame.getContentPane().setPreferredSize(new Dimension(args.get(1), args.get(0)));
+                frame.getContentPane().setPreferredSize(new Dimension(arg1, arg0));
                 frame.pack();
                 break;
             case 5:
@@ -263,18 +504,18 @@ public class Terminal {
                 frame.repaint();
                 break;
             case 8:
-                if (args.size() < 2) {
+                if (argc < 2) {
                     return false;
                 }
-                int width = CellStyle.WIDTH * args.get(1) + 2;
-                int height = CellStyle.HEIGHT * args.get(0) + 2;
+                int width = Fonts.WIDTH * arg1 + 2;
+                int height = Fonts.HEIGHT * arg0 + 2;
                 frame.setSize(width, height);
                 break;
             case 9:
-                if (args.size() == 0) {
+                if (argc == 0) {
                     return false;
                 }
-                switch (args.get(0)) {
+                switch (arg0) {
                     case 0: removeState(Frame.MAXIMIZED_BOTH);
                     case 1: addState(Frame.MAXIMIZED_BOTH);
                 }
@@ -1,47 +1,67 @@
 package com.marcovr.terminal.commands;
 
+import com.marcovr.terminal.record.SessionRecorder;
 import com.marcovr.terminal.screen.Screen;
 import com.marcovr.terminal.screen.CellStyle;
 import com.marcovr.terminal.screen.Cursor;
-import com.marcovr.terminal.ssh.ConnectionHandler;
-import com.marcovr.terminal.Terminal;
 
-import java.awt.*;
 import java.io.EOFException;
 import java.io.IOException;
 
-public class CommandHandler {
+public class CommandHandler implements ParserListener {
 
     private final Screen screen;
-    private final ConnectionHandler handler;
-    private final Terminal terminal;
+    private final TerminalHost terminal;
     private final NumArgRetriever numArgs;
+    private final Parser parser;
+    // held while a chunk is parsed and recorded, and while resizing, so a recording has them in the order applied
+    private final Object chunkLock = new Object();
+    private SessionRecorder recorder;
     private Cursor cursor;
     private boolean qModifier;
 
     private static final int TAB_SIZE = 8;
+    private static final int CHUNK_SIZE = 65536;
 
-    public CommandHandler(Terminal terminal) {
+    /**
+     * Creates a new CommandHandler
+     *
+     * @param screen the screen to operate on
+     * @param terminal the surrounding terminal
+     */
+    public CommandHandler(Screen screen, TerminalHost terminal) {
         this.terminal = terminal;
-        handler = terminal.getConnectionHandler();
-        screen = terminal.getScreen();
-        numArgs = new NumArgRetriever(handler);
+        this.screen = screen;
+        numArgs = new NumArgRetriever();
+        parser = new Parser(this, numArgs);
         cursor = screen.getCursor();
         qModifier = false;
     }
 
-    public void start() {
-        new Thread(this::readLoop).start();
+    /**
+     * Starts processing everything received from a source in a new thread
+     *
+     * @param source the source to read from, e.g. the connection
+     */
+    public void start(OutputSource source) {
+        new Thread(() -> readLoop(source)).start();
     }
 
     @SuppressWarnings("InfiniteLoopStatement")
-    private void readLoop() {
+    private void readLoop(OutputSource source) {
         Thread.currentThread().setName("CommandHandler");
 
+        byte[] chunk = new byte[CHUNK_SIZE];
         try {
             while (true) {
-                handleChar(handler.receive());
-                terminal.repaint();
+                int n = source.receive(chunk);
+                synchronized (chunkLock) {
+                    parse(chunk, 0, n);
+                    if (recorder != null) {
+                        recorder.record(chunk, 0, n, parser.isIdle());
+                    }
+                }
+                terminal.scheduleRepaint();
             }
         } catch (IOException e) {
             if (e instanceof EOFException) {
@@ -52,47 +72,103 @@ public class CommandHandler {
         }
     }
 
-    private void handleChar(int b) throws IOException {
-        switch (b) {
+    /**
+     * Records all received output from now on. Has to be set before {@link #start(OutputSource)}
+     *
+     * @param recorder the recorder to write to
+     */
+    public void setRecorder(SessionRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    /**
+     * Resizes the screen between two chunks of output, and records the resize. A resize in the middle of a chunk
+     * would be replayed before or after all of it, laying out part of it at another width
+     *
+     * @param width new width in cells
+     * @param height new height in cells
+     */
+    public void resize(int width, int height) {
+        synchronized (chunkLock) {
+            screen.resize(width, height);
+            if (recorder != null) {
+                try {
+                    recorder.resize(width, height);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * Processes UTF-8 encoded terminal output. Sequences may be split across calls
+     *
+     * @param data the output
+     * @param off offset into data
+     * @param len number of bytes
+     */
+    public void parse(byte[] data, int off, int len) {
+        parser.parse(data, off, len);
+    }
+
+    @Override
+    public void print(int[] data, int off, int len) {
+        screen.write(data, off, len);
+    }
+
+    @Override
+    public void execute(int c) {
+        switch (c) {
             case 0: // NUL
                 break;
             case 5: // ENQ
-                handler.send("Terminal");
+                terminal.send("Terminal");
                 break;
             case 7: // BEL
-                java.awt.Toolkit.getDefaultToolkit().beep();
+                terminal.bell();
                 break;
             case 8: // BS
                 cursor.prev();
                 break;
+            case 9: // HT
+                int x = (cursor.getX() / TAB_SIZE + 1) * TAB_SIZE;
+                cursor.setX(Math.min(x, screen.getWidth() - 1));
+                break;
             case 10: // LF
+            case 11: // VT
+            case 12: // FF
                 cursor.lineFeed();
                 break;
             case 13: // CR
                 cursor.carriageReturn();
                 break;
-            case 27: // ESC
-                handleESC(handler.receive());
+            case 14: // SO
+            case 15: // SI
+            case 24: // CAN
+            case 26: // SUB
                 break;
             default:
-                screen.write(b);
+                unsupported("C0/C1", c);
         }
     }
 
-    private void handleESC(int b) throws IOException {
+    @Override
+    public void escDispatch(int intermediates, int b) {
+        if (intermediates != 0) {
+            switch (intermediates) {
+                case '(': // designate character sets, ignore
+                case ')':
+                case '*':
+                case '+':
+                    break;
+                default:
+                    unsupported("ESC " + (char) intermediates, b);
+            }
+            return;
+        }
+
         switch (b) {
-            case '[': // CSI
-                processCSI();
-                break;
-            case ']': // OSC
-                processOSC(handler.receive());
-                break;
-            case '(':
-            case ')':
-            case '*':
-            case '+':
-                handler.receive(); // ignore
-                break;
             case '7':
                 screen.saveCursor();
                 break;
@@ -105,14 +181,26 @@ public class CommandHandler {
                 break;
             case '=': // NumLock off
             case '>': // NumLock on
+            case '\\': // ST
                 break;
             default:
                 unsupported("ESC", b);
         }
     }
 
-    private void processCSI() throws IOException {
-        int b = numArgs.retrieve();
+    @Override
+    public void csiDispatch(int prefix, int intermediates, int b) {
+        if (prefix == 0 && intermediates == '$') {
+            rectangleDispatch(b);
+            return;
+        }
+        if (prefix != 0 && prefix != '?' || intermediates != 0) {
+            unsupported("CSI " + (prefix != 0 ? String.valueOf((char) prefix) : "") + numArgs
+                    + (intermediates != 0 ? " " + (char) intermediates : ""), b);
+            return;
+        }
+        qModifier = prefix == '?';
+
         int n = numArgs.getArgOrDef(0, 1);
         int x;
 
@@ -142,12 +230,12 @@ public class CommandHandler {
                 break;
             case '`':
             case 'G':
-                cursor.setX(n - 1);
+                cursor.setX(Math.min(n, screen.getWidth()) - 1);
                 break;
             case 'f':
             case 'H':
-                cursor.setX(numArgs.getArgOrDef(1, 1) - 1);
-                cursor.setY(n - 1);
+                cursor.setX(Math.min(numArgs.getArgOrDef(1, 1), screen.getWidth()) - 1);
+                cursor.setY(Math.min(n, screen.getHeight()) - 1);
                 break;
             case 'I': // Tab stops
                 x = cursor.getX() / TAB_SIZE + n * TAB_SIZE;
@@ -159,11 +247,12 @@ public class CommandHandler {
             case 'K':
                 erase(numArgs.getArgOrDef(0, 0) + 4);
                 break;
-            /*
             case 'L':
+                screen.insertLines(Math.max(n, 1));
                 break;
             case 'M':
-                break;*/
+                screen.deleteLines(Math.max(n, 1));
+                break;
             case 'P':
                 screen.delete(n);
                 break;
@@ -173,14 +262,15 @@ public class CommandHandler {
             case 'T':
                 screen.scroll(-n);
                 break;
-            /*case 'X':
-                break;*/
+            case 'X':
+                screen.eraseChars(Math.max(n, 1));
+                break;
             case 'Z':
                 x = (cursor.getX() - 1) / TAB_SIZE - (n - 1) * TAB_SIZE;
                 cursor.setX(Math.min(x, 0));
                 break;
             case 'd':
-                cursor.setY(n - 1);
+                cursor.setY(Math.min(n, screen.getHeight()) - 1);
                 break;
             case 'h':
             case 'l':
@@ -194,69 +284,64 @@ public class CommandHandler {
                 } while (numArgs.hasArguments());
                 break;
             case 'r':
-                screen.scrollTop = n - 1;
-                screen.scrollBottom = numArgs.getArgOrDef(1, screen.getHeight());
+                screen.setScrollRegion(n, numArgs.getArgOrDef(1, screen.getHeight()));
                 break;
             case 't':
                 numArgs.consumeArgOrDef(0);
-                if (!terminal.handleXterm(n, numArgs.toList())) {
+                int argc = numArgs.remaining();
+                if (!terminal.handleXterm(n, argc, numArgs.getArgOrDef(0, 0), numArgs.getArgOrDef(1, 0))) {
                     unsupported("CSI " + n + ";" + numArgs + " t");
                 }
                 break;
-
-            case '?':
-                qModifier = true;
-                processCSI();
-                return;
             default:
                 unsupported("CSI " + numArgs, b);
         }
         qModifier = false;
-        handler.println();
     }
 
-    private void processOSC(int b) throws IOException {
-        switch (b) {
-            case '0': // set window title
-            case '1':
-            case '2':
-                handler.receive();
-                terminal.setTitle(readTitle());
+    @Override
+    public void oscDispatch(CharSequence s) {
+        int i = 0;
+        int n = 0;
+        while (i < s.length() && s.charAt(i) >= '0' && s.charAt(i) <= '9') {
+            n = n * 10 + s.charAt(i++) - '0';
+        }
+        if (i == 0 || i < s.length() && s.charAt(i) != ';') {
+            unsupported("OSC " + s);
+            return;
+        }
+
+        switch (n) {
+            case 0: // set window title
+            case 1:
+            case 2:
+                terminal.setTitle(i < s.length() ? s.subSequence(i + 1, s.length()).toString() : "");
                 break;
             default:
-                unsupported("OSC", b);
+                unsupported("OSC " + n);
         }
     }
 
-    private String readTitle() throws IOException {
-        int b;
-        StringBuilder title = new StringBuilder();
+    @Override
+    public void dcsHook(int prefix, int intermediates, int b) {
+        unsupported("DCS " + numArgs, b);
+    }
 
-        boolean incomplete = true;
-        while (incomplete) {
-            switch (b = handler.receive()) {
-                case 7: // BEL
-                    incomplete = false;
-                    break;
-                case 27: // ESC
-                    b = handler.receive();
-                    if (b != '\\') {
-                        unsupported("OSC-title: " + title.toString() + "\\e", b);
-                    }
-                    incomplete = false;
-                    break;
-                default:
-                    title.append((char)b);
-            }
-        }
-        return title.toString();
+    @Override
+    public void dcsPut(int c) {
+        // DCS data is ignored
+    }
+
+    @Override
+    public void dcsUnhook() {
+        // nothing to finish
     }
 
     private void applySGRArg(int x) {
         switch(x) {
             case 0:
-                cursor.setForeground(CellStyle.getForeground());
-                cursor.setBackground(CellStyle.getBackground());
+                cursor.setForeground(CellStyle.DEFAULT_FOREGROUND);
+                cursor.setBackground(CellStyle.DEFAULT_BACKGROUND);
                 cursor.style = CellStyle.REGULAR;
                 cursor.setInverted(false);
                 break;
@@ -295,34 +380,34 @@ public class CommandHandler {
                 // reveal
                 break;*/
             case 30: case 31: case 32: case 33: case 34: case 35: case 36: case 37:
-                cursor.setForeground(CellStyle.getColor(x - 30));
+                cursor.setForeground(x - 30);
                 break;
             case 38:
-                Color c = getSGRColor();
-                if (c != null) {
+                int c = getSGRColor();
+                if (c >= 0) {
                     cursor.setForeground(c);
                 }
                 break;
             case 39:
-                cursor.setForeground(CellStyle.getForeground());
+                cursor.setForeground(CellStyle.DEFAULT_FOREGROUND);
                 break;
             case 40: case 41: case 42: case 43: case 44: case 45: case 46: case 47:
-                cursor.setBackground(CellStyle.getColor(x - 40));
+                cursor.setBackground(x - 40);
                 break;
             case 48:
                 c = getSGRColor();
-                if (c != null) {
+                if (c >= 0) {
                     cursor.setBackground(c);
                 }
                 break;
             case 49:
-                cursor.setBackground(CellStyle.getBackground());
+                cursor.setBackground(CellStyle.DEFAULT_BACKGROUND);
                 break;
             case 90: case 91: case 92: case 93: case 94: case 95: case 96: case 97:
-                cursor.setForeground(CellStyle.getColor(x - 82));
+                cursor.setForeground(x - 82);
                 break;
             case 100: case 101: case 102: case 103: case 104: case 105: case 106: case 107:
-                cursor.setBackground(CellStyle.getColor(x - 92));
+                cursor.setBackground(x - 92);
                 break;
             default:
                 unsupported("SGR " + x);
@@ -392,32 +477,64 @@ public class CommandHandler {
                     cursor = screen.getCursor();
                 }
                 break;
+            case 2004:
+                terminal.setBracketedPaste(is_h);
+                break;
             default:
                 unsupported("CSI? " + x + " " + b);
         }
     }
 
     private void unsupported(String text) {
-        handler.println();
         System.err.println("unsupported: " + text);
     }
 
     private void unsupported(String text, int b) {
-        handler.println();
         System.err.println("unsupported: " + text + " " + (char)b + " [" + b + "]");
     }
 
+    /**
+     * Rectangular area operations, CSI ... $ b. Rectangles are given as top;left;bottom;right, 1-based and inclusive
+     */
+    private void rectangleDispatch(int b) {
+        switch (b) {
+            case 'x': // DECFRA
+                int c = numArgs.getArgOrDef(0, 0);
+                if (c >= 32 && c < 127 || c >= 160 && c < 256) {
+                    screen.fillRect(c, numArgs.getArgOrDef(2, 1) - 1, numArgs.getArgOrDef(1, 1) - 1,
+                            getRectEnd(4, screen.getWidth()), getRectEnd(3, screen.getHeight()));
+                }
+                break;
+            case 'z': // DECERA
+                screen.eraseRect(numArgs.getArgOrDef(1, 1) - 1, numArgs.getArgOrDef(0, 1) - 1,
+                        getRectEnd(3, screen.getWidth()), getRectEnd(2, screen.getHeight()));
+                break;
+            default:
+                unsupported("CSI " + numArgs + " $", b);
+        }
+    }
+
+    /**
+     * @return the last row or column of a rectangle, 0 or missing meaning the end of the screen
+     */
+    private int getRectEnd(int i, int max) {
+        int n = numArgs.getArgOrDef(i, max);
+        return n == 0 ? max : n;
+    }
+
     private void erase(int n) {
+        int x = cursor.getX();
+        int y = cursor.getY();
+        int width = screen.getWidth();
+        int height = screen.getHeight();
         switch(n) {
             case 0:
-                for (int i = cursor.getY() + 1; i < screen.getHeight(); i++) {
-                    screen.clearLine(i);
-                }
+                screen.eraseRect(x, y, width, y + 1);
+                screen.eraseRect(0, y + 1, width, height);
                 break;
             case 1:
-                for (int i = 0; i < cursor.getY(); i++) {
-                    screen.clearLine(i);
-                }
+                screen.eraseRect(0, 0, width, y);
+                screen.eraseRect(0, y, x + 1, y + 1);
                 break;
             case 2:
                 screen.clear();
@@ -426,22 +543,27 @@ public class CommandHandler {
                 unsupported("CSI 3J");
                 break;
             case 4:
-                for (int i = cursor.getX(); i < screen.getWidth(); i++) {
-                    screen.clearCell(i, cursor.getY());
-                }
+                screen.eraseRect(x, y, width, y + 1);
                 break;
             case 5:
-                for (int i = 0; i < cursor.getX(); i++) {
-                    screen.clearCell(i, cursor.getY());
-                }
+                screen.eraseRect(0, y, x + 1, y + 1);
                 break;
             case 6:
-                screen.clearLine(cursor.getY());
+                screen.clearLine(y);
                 break;
         }
     }
 
-    private Color getSGRColor() {
+    /**
+     * Reads a colour given as "38;5;n" or "38;2;r;g;b"
+     *
+     * @return the packed colour, or -1 if invalid
+     */
+    private int getSGRColor() {
+        if (numArgs.hasSubArgs()) {
+            return getSGRSubColor();
+        }
+
         int n = numArgs.consumeArgOrDef(0);
         switch (n) {
             case 2:
@@ -449,20 +571,53 @@ public class CommandHandler {
                 int g = numArgs.consumeArgOrDef(-1);
                 int b = numArgs.consumeArgOrDef(-1);
                 if (r >= 0 && r <= 255 && g >= 0 && g <= 255 && b >= 0 && b <= 255) {
-                    return new Color(r, g, b);
+                    return CellStyle.rgb(r, g, b);
                 }
                 unsupported("SGR color-rgb: " + r + ";" + g + ";" + b);
                 break;
             case 5:
                 int c = numArgs.consumeArgOrDef(-1);
                 if (c >= 0 && c <= 255) {
-                    return CellStyle.getColor(c);
+                    return c;
+                }
+                unsupported("SGR color-256: " + c);
+                break;
+            default:
+                unsupported("SGR color " + n);
+        }
+        return -1;
+    }
+
+    /**
+     * Reads a colour given as sub-parameters, i.e. "38:5:n", "38:2::r:g:b" or "38:2:r:g:b"
+     *
+     * @return the packed colour, or -1 if invalid
+     */
+    private int getSGRSubColor() {
+        int n = numArgs.consumeSubArgOrDef(0);
+        switch (n) {
+            case 2:
+                if (numArgs.subArgCount() > 3) {
+                    numArgs.consumeSubArgOrDef(-1); // colour space id
+                }
+                int r = numArgs.consumeSubArgOrDef(-1);
+                int g = numArgs.consumeSubArgOrDef(-1);
+                int b = numArgs.consumeSubArgOrDef(-1);
+                if (r >= 0 && r <= 255 && g >= 0 && g <= 255 && b >= 0 && b <= 255) {
+                    return CellStyle.rgb(r, g, b);
+                }
+                unsupported("SGR color-rgb: " + r + ":" + g + ":" + b);
+                break;
+            case 5:
+                int c = numArgs.consumeSubArgOrDef(-1);
+                if (c >= 0 && c <= 255) {
+                    return c;
                 }
                 unsupported("SGR color-256: " + c);
                 break;
             default:
                 unsupported("SGR color " + n);
         }
-        return null;
+        return -1;
     }
 }
@@ -1,113 +1,165 @@
 package com.marcovr.terminal.commands;
 
-import com.marcovr.terminal.ssh.ConnectionHandler;
-
-import java.io.IOException;
-import java.util.ArrayList;
-import java.util.LinkedList;
-import java.util.List;
-
 /**
- * Allows to create a list of integer arguments out of characters read from ConnectionHandler
+ * Collects a list of integer arguments out of the parameter characters passed by the {@link Parser}.
+ * Arguments are stored in a fixed-size array and read through a cursor, so no allocations are made per
+ * sequence. Colon-separated sub-parameters (e.g. "38:2::r:g:b") are kept and marked as such.
  */
 class NumArgRetriever {
 
-    private final LinkedList<Integer> args = new LinkedList<>();
-    private final ConnectionHandler handler;
-
     private static final int EMPTY = -1;
+    private static final int MAX_ARGS = 32;
+    private static final int MAX_VALUE = 65535;
+
+    private final int[] args = new int[MAX_ARGS];
+    private final boolean[] sub = new boolean[MAX_ARGS];
+    private int count;
+    private int pos;
+
+    private boolean newArg;
+    private boolean nextIsSub;
+    private int currentValue;
 
     /**
-     * Creates a new NumArgRetriever
-     *
-     * @param handler the ConnectionHandler to read from
+     * Discards all arguments, prepares for a new sequence
      */
-    NumArgRetriever(ConnectionHandler handler) {
-        this.handler = handler;
+    void reset() {
+        count = 0;
+        pos = 0;
+        newArg = true;
+        nextIsSub = false;
+        currentValue = 0;
     }
 
     /**
-     * Retrieves arguments from connection
+     * Adds a parameter character
      *
-     * @return last character read
-     * @throws IOException from connection
+     * @param b a digit or separator (';' or ':')
      */
-    int retrieve() throws IOException {
-        args.clear();
-        boolean newArg = true;
-        int currentValue = 0;
-        int b;
-
-        while (true) {
-            b = handler.receive();
-
-            if (b >= '0' && b <= '9') {
-                currentValue *= 10;
-                currentValue += b - '0';
-                newArg = false;
-            }
-            else if (b == ';') {
-                args.add(newArg ? EMPTY : currentValue);
-                currentValue = 0;
-                newArg = true;
-            }
-            else {
-                args.add(newArg ? EMPTY : currentValue);
-                return b;
-            }
+    void put(int b) {
+        if (b >= '0' && b <= '9') {
+            currentValue = Math.min(currentValue * 10 + b - '0', MAX_VALUE);
+            newArg = false;
+        }
+        else {
+            add();
+            nextIsSub = b == ':';
         }
     }
 
     /**
-     * Returns the stored argument at position i, or default value if empty
+     * Completes the last argument of the sequence
+     */
+    void finish() {
+        add();
+    }
+
+    /**
+     * Stores the current argument. Overlong argument lists are clamped to {@link #MAX_ARGS}
+     */
+    private void add() {
+        if (count < MAX_ARGS) {
+            args[count] = newArg ? EMPTY : currentValue;
+            sub[count] = nextIsSub;
+            count++;
+        }
+        currentValue = 0;
+        newArg = true;
+    }
+
+    /**
+     * Returns the stored argument at position i (relative to the read cursor), or default value if empty
      *
      * @param i the argument's position
      * @param def the default value
      * @return the argument
      */
     int getArgOrDef(int i, int def) {
-        if (i >= args.size()) {
+        i += pos;
+        if (i >= count) {
             return def;
         }
-        int n = args.get(i);
+        int n = args[i];
         return n == EMPTY ? def : n;
     }
 
     /**
-     * Returns the first stored argument, or default value if empty
+     * Returns the next argument, or default value if empty. Skips any sub-parameters not consumed yet
      *
      * @param def the default value
      * @return the argument
      */
     int consumeArgOrDef(int def) {
-        if (args.isEmpty()) {
+        skipSubArgs();
+        if (pos >= count) {
+            return def;
+        }
+        int n = args[pos++];
+        return n == EMPTY ? def : n;
+    }
+
+    /**
+     * Returns the next sub-parameter of the current argument, or default value if empty or there is none
+     *
+     * @param def the default value
+     * @return the sub-parameter
+     */
+    int consumeSubArgOrDef(int def) {
+        if (!hasSubArgs()) {
             return def;
         }
-        int n = args.removeFirst();
+        int n = args[pos++];
         return n == EMPTY ? def : n;
     }
 
+    /**
+     * @return are there sub-parameters left for the current argument
+     */
+    boolean hasSubArgs() {
+        return pos < count && sub[pos];
+    }
+
+    /**
+     * @return number of sub-parameters left for the current argument
+     */
+    int subArgCount() {
+        int i = pos;
+        while (i < count && sub[i]) {
+            i++;
+        }
+        return i - pos;
+    }
+
+    private void skipSubArgs() {
+        while (pos < count && sub[pos]) {
+            pos++;
+        }
+    }
+
     /**
      * @return are there arguments stored
      */
     boolean hasArguments() {
-        return !args.isEmpty();
+        skipSubArgs();
+        return pos < count;
     }
 
-    public List<Integer> toList() {
-        return new ArrayList<>(args);
+    /**
+     * @return number of arguments not consumed yet
+     */
+    int remaining() {
+        return count - pos;
     }
 
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < args.size(); i++) {
-            int arg = args.get(i);
-            if (arg != EMPTY) {
-                sb.append(arg);
+        for (int i = pos; i < count; i++) {
+            if (i > pos) {
+                sb.append(sub[i] ? ':' : ';');
             }
-            if (i < args.size() - 1) {
-                sb.append(';');
+            if (args[i] != EMPTY) {
+                sb.append(args[i]);
             }
         }
         return sb.toString();
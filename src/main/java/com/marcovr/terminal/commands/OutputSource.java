@@ -0,0 +1,19 @@
+package com.marcovr.terminal.commands;
+
+import java.io.IOException;
+
+/**
+ * Where the terminal output comes from, e.g. the shell of an SSH connection
+ */
+public interface OutputSource {
+
+    /**
+     * Waits for output
+     *
+     * @param buffer receives the output
+     * @return number of bytes received, at least 1
+     * @throws java.io.EOFException if the remote side closed the connection
+     * @throws IOException if receiving failed
+     */
+    int receive(byte[] buffer) throws IOException;
+}
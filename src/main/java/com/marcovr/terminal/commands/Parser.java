@@ -0,0 +1,339 @@
+package com.marcovr.terminal.commands;
+
+import com.marcovr.terminal.misc.Utf8Decoder;
+
+/**
+ * Push-style VT500 parser, following the state machine by Paul Williams (vt100.net/emu/dec_ansi_parser).
+ * Input is pushed in chunks of arbitrary size; the parser keeps its state between calls.
+ * Transitions are looked up in a precomputed table, the recognised sequences are passed on to a
+ * {@link ParserListener}.
+ */
+class Parser {
+
+    // states
+    private static final int GROUND               = 0;
+    private static final int ESCAPE               = 1;
+    private static final int ESCAPE_INTERMEDIATE  = 2;
+    private static final int CSI_ENTRY            = 3;
+    private static final int CSI_PARAM            = 4;
+    private static final int CSI_INTERMEDIATE     = 5;
+    private static final int CSI_IGNORE           = 6;
+    private static final int DCS_ENTRY            = 7;
+    private static final int DCS_PARAM            = 8;
+    private static final int DCS_INTERMEDIATE     = 9;
+    private static final int DCS_PASSTHROUGH      = 10;
+    private static final int DCS_IGNORE           = 11;
+    private static final int OSC_STRING           = 12;
+    private static final int SOS_PM_APC_STRING    = 13;
+    private static final int STATES               = 14;
+
+    // actions
+    private static final int NONE         = 0;
+    private static final int IGNORE       = 1;
+    private static final int PRINT        = 2;
+    private static final int EXECUTE      = 3;
+    private static final int CLEAR        = 4;
+    private static final int COLLECT      = 5;
+    private static final int PARAM        = 6;
+    private static final int ESC_DISPATCH = 7;
+    private static final int CSI_DISPATCH = 8;
+    private static final int HOOK         = 9;
+    private static final int PUT          = 10;
+    private static final int UNHOOK       = 11;
+    private static final int OSC_START    = 12;
+    private static final int OSC_PUT      = 13;
+    private static final int OSC_END      = 14;
+
+    /**
+     * Code points from this value on are all treated alike (as printable characters)
+     */
+    private static final int CLASSES = 0xa1;
+    private static final int GRAPHIC = 0xa0;
+
+    /**
+     * Bit set in a table entry if the state is left (and exit / entry actions have to be run)
+     */
+    private static final int TRANSITION = 0x100;
+
+    private static final short[] TABLE = new short[STATES * CLASSES];
+    private static final byte[] ENTRY_ACTIONS = new byte[STATES];
+    private static final byte[] EXIT_ACTIONS = new byte[STATES];
+
+    private static final int MAX_INTERMEDIATES = 2;
+    private static final int MAX_OSC_LENGTH = 4096;
+
+    // input is decoded in slices of at most this many bytes, which bounds the buffer every parser keeps
+    private static final int DECODE_SLICE = 1024;
+
+    private final ParserListener listener;
+    private final NumArgRetriever numArgs;
+    private final StringBuilder osc = new StringBuilder();
+    private final Utf8Decoder decoder = new Utf8Decoder();
+    private int[] decoded = new int[0];
+    private final int[] data1 = new int[1];
+
+    private int state = GROUND;
+    private int prefix;
+    private int intermediates;
+    private int intermediateCount;
+
+    /**
+     * Creates a new parser
+     *
+     * @param listener receives the parsed sequences
+     * @param numArgs collects numeric parameters of CSI & DCS sequences
+     */
+    Parser(ParserListener listener, NumArgRetriever numArgs) {
+        this.listener = listener;
+        this.numArgs = numArgs;
+    }
+
+    /**
+     * Parses UTF-8 encoded bytes
+     *
+     * @param data the input
+     * @param off offset into data
+     * @param len number of bytes to parse
+     */
+    void parse(byte[] data, int off, int len) {
+        for (int end = off + len; off < end; off += DECODE_SLICE) {
+            int n = Math.min(end - off, DECODE_SLICE);
+            if (decoded.length <= n) {
+                decoded = new int[n + 1];
+            }
+            parse(decoded, 0, decoder.decode(data, off, n, decoded));
+        }
+    }
+
+    /**
+     * Parses code points
+     *
+     * @param data the input
+     * @param off offset into data
+     * @param len number of code points to parse
+     */
+    void parse(int[] data, int off, int len) {
+        int end = off + len;
+        for (int i = off; i < end; i++) {
+            int b = data[i];
+
+            if (state == GROUND && isPrintable(b)) {
+                // pass whole runs of printable characters at once
+                int start = i;
+                while (++i < end && isPrintable(data[i])) {}
+                listener.print(data, start, i - start);
+                if (i == end) {
+                    break;
+                }
+                b = data[i];
+            }
+
+            int entry = TABLE[state * CLASSES + (b < GRAPHIC ? b : GRAPHIC)];
+
+            if ((entry & TRANSITION) != 0) {
+                int next = entry & 0xf;
+                perform(EXIT_ACTIONS[state], b);
+                perform(entry >> 4 & 0xf, b);
+                perform(ENTRY_ACTIONS[next], b);
+                state = next;
+            }
+            else {
+                perform(entry >> 4 & 0xf, b);
+            }
+        }
+    }
+
+    private static boolean isPrintable(int b) {
+        return b >= 0x20 && b < 0x7f || b >= GRAPHIC;
+    }
+
+    /**
+     * @return true if the parser is neither in the middle of a sequence nor of a UTF-8 encoded character,
+     * so a fresh parser could continue from here
+     */
+    boolean isIdle() {
+        return state == GROUND && decoder.isIdle();
+    }
+
+    private void perform(int action, int b) {
+        switch (action) {
+            case NONE:
+            case IGNORE:
+                break;
+            case PRINT:
+                data1[0] = b;
+                listener.print(data1, 0, 1);
+                break;
+            case EXECUTE:
+                listener.execute(b);
+                break;
+            case CLEAR:
+                prefix = 0;
+                intermediates = 0;
+                intermediateCount = 0;
+                numArgs.reset();
+                break;
+            case COLLECT:
+                if (b >= 0x3c) {
+                    prefix = b;
+                }
+                else if (intermediateCount++ < MAX_INTERMEDIATES) {
+                    intermediates = intermediates << 8 | b;
+                }
+                break;
+            case PARAM:
+                numArgs.put(b);
+                break;
+            case ESC_DISPATCH:
+                listener.escDispatch(intermediates, b);
+                break;
+            case CSI_DISPATCH:
+                numArgs.finish();
+                listener.csiDispatch(prefix, intermediates, b);
+                break;
+            case HOOK:
+                numArgs.finish();
+                listener.dcsHook(prefix, intermediates, b);
+                break;
+            case PUT:
+                listener.dcsPut(b);
+                break;
+            case UNHOOK:
+                listener.dcsUnhook();
+                break;
+            case OSC_START:
+                osc.setLength(0);
+                break;
+            case OSC_PUT:
+                if (osc.length() < MAX_OSC_LENGTH) {
+                    osc.appendCodePoint(b);
+                }
+                break;
+            case OSC_END:
+                listener.oscDispatch(osc);
+                break;
+        }
+    }
+
+    private static void set(int state, int from, int to, int action, int next) {
+        for (int b = from; b <= to; b++) {
+            TABLE[state * CLASSES + b] = (short) (TRANSITION | action << 4 | next);
+        }
+    }
+
+    private static void set(int state, int from, int to, int action) {
+        for (int b = from; b <= to; b++) {
+            TABLE[state * CLASSES + b] = (short) (action << 4 | state);
+        }
+    }
+
+    private static void set(int state, int b, int action) {
+        set(state, b, b, action);
+    }
+
+    static {
+        for (int s = 0; s < STATES; s++) {
+            // C0 controls are executed in most states, graphic characters ignored unless stated otherwise
+            set(s, 0x00, 0x17, EXECUTE);
+            set(s, 0x19, EXECUTE);
+            set(s, 0x1c, 0x1f, EXECUTE);
+            set(s, 0x20, 0x7f, IGNORE);
+            set(s, 0x80, 0x8f, EXECUTE, GROUND);
+            set(s, 0x91, 0x97, EXECUTE, GROUND);
+            set(s, 0x99, EXECUTE, GROUND);
+            set(s, 0x9a, EXECUTE, GROUND);
+            set(s, GRAPHIC, IGNORE);
+
+            // transitions from anywhere
+            set(s, 0x18, 0x18, EXECUTE, GROUND);
+            set(s, 0x1a, 0x1a, EXECUTE, GROUND);
+            set(s, 0x1b, 0x1b, NONE, ESCAPE);
+            set(s, 0x90, 0x90, NONE, DCS_ENTRY);
+            set(s, 0x98, 0x98, NONE, SOS_PM_APC_STRING);
+            set(s, 0x9b, 0x9b, NONE, CSI_ENTRY);
+            set(s, 0x9c, 0x9c, NONE, GROUND);
+            set(s, 0x9d, 0x9d, NONE, OSC_STRING);
+            set(s, 0x9e, 0x9f, NONE, SOS_PM_APC_STRING);
+        }
+
+        set(GROUND, 0x20, 0x7e, PRINT);
+        set(GROUND, GRAPHIC, PRINT);
+
+        set(ESCAPE, 0x20, 0x2f, COLLECT, ESCAPE_INTERMEDIATE);
+        set(ESCAPE, 0x30, 0x4f, ESC_DISPATCH, GROUND);
+        set(ESCAPE, 0x50, 0x50, NONE, DCS_ENTRY);
+        set(ESCAPE, 0x51, 0x57, ESC_DISPATCH, GROUND);
+        set(ESCAPE, 0x58, 0x58, NONE, SOS_PM_APC_STRING);
+        set(ESCAPE, 0x59, 0x5a, ESC_DISPATCH, GROUND);
+        set(ESCAPE, 0x5b, 0x5b, NONE, CSI_ENTRY);
+        set(ESCAPE, 0x5c, 0x5c, ESC_DISPATCH, GROUND);
+        set(ESCAPE, 0x5d, 0x5d, NONE, OSC_STRING);
+        set(ESCAPE, 0x5e, 0x5f, NONE, SOS_PM_APC_STRING);
+        set(ESCAPE, 0x60, 0x7e, ESC_DISPATCH, GROUND);
+
+        set(ESCAPE_INTERMEDIATE, 0x20, 0x2f, COLLECT);
+        set(ESCAPE_INTERMEDIATE, 0x30, 0x7e, ESC_DISPATCH, GROUND);
+
+        set(CSI_ENTRY, 0x20, 0x2f, COLLECT, CSI_INTERMEDIATE);
+        set(CSI_ENTRY, 0x30, 0x3b, PARAM, CSI_PARAM);
+        set(CSI_ENTRY, 0x3c, 0x3f, COLLECT, CSI_PARAM);
+        set(CSI_ENTRY, 0x40, 0x7e, CSI_DISPATCH, GROUND);
+
+        set(CSI_PARAM, 0x30, 0x3b, PARAM);
+        set(CSI_PARAM, 0x20, 0x2f, COLLECT, CSI_INTERMEDIATE);
+        set(CSI_PARAM, 0x3c, 0x3f, NONE, CSI_IGNORE);
+        set(CSI_PARAM, 0x40, 0x7e, CSI_DISPATCH, GROUND);
+
+        set(CSI_INTERMEDIATE, 0x20, 0x2f, COLLECT);
+        set(CSI_INTERMEDIATE, 0x30, 0x3f, NONE, CSI_IGNORE);
+        set(CSI_INTERMEDIATE, 0x40, 0x7e, CSI_DISPATCH, GROUND);
+
+        set(CSI_IGNORE, 0x40, 0x7e, NONE, GROUND);
+
+        set(DCS_ENTRY, 0x00, 0x1f, IGNORE);
+        set(DCS_ENTRY, 0x20, 0x2f, COLLECT, DCS_INTERMEDIATE);
+        set(DCS_ENTRY, 0x30, 0x3b, PARAM, DCS_PARAM);
+        set(DCS_ENTRY, 0x3c, 0x3f, COLLECT, DCS_PARAM);
+        set(DCS_ENTRY, 0x40, 0x7e, NONE, DCS_PASSTHROUGH);
+
+        set(DCS_PARAM, 0x00, 0x1f, IGNORE);
+        set(DCS_PARAM, 0x30, 0x3b, PARAM);
+        set(DCS_PARAM, 0x20, 0x2f, COLLECT, DCS_INTERMEDIATE);
+        set(DCS_PARAM, 0x3c, 0x3f, NONE, DCS_IGNORE);
+        set(DCS_PARAM, 0x40, 0x7e, NONE, DCS_PASSTHROUGH);
+
+        set(DCS_INTERMEDIATE, 0x00, 0x1f, IGNORE);
+        set(DCS_INTERMEDIATE, 0x20, 0x2f, COLLECT);
+        set(DCS_INTERMEDIATE, 0x30, 0x3f, NONE, DCS_IGNORE);
+        set(DCS_INTERMEDIATE, 0x40, 0x7e, NONE, DCS_PASSTHROUGH);
+
+        set(DCS_PASSTHROUGH, 0x00, 0x7e, PUT);
+        set(DCS_PASSTHROUGH, 0x7f, IGNORE);
+        set(DCS_PASSTHROUGH, GRAPHIC, PUT);
+
+        set(DCS_IGNORE, 0x00, 0x7f, IGNORE);
+
+        set(OSC_STRING, 0x00, 0x1f, IGNORE);
+        set(OSC_STRING, 0x07, 0x07, NONE, GROUND); // xterm: BEL terminates OSC
+        set(OSC_STRING, 0x20, 0x7f, OSC_PUT);
+        set(OSC_STRING, GRAPHIC, OSC_PUT);
+
+        set(SOS_PM_APC_STRING, 0x00, 0x7f, IGNORE);
+
+        // C0 controls still have to be able to cancel / escape from strings
+        for (int s : new int[] {DCS_ENTRY, DCS_PARAM, DCS_INTERMEDIATE, DCS_PASSTHROUGH,
+                DCS_IGNORE, OSC_STRING, SOS_PM_APC_STRING}) {
+            set(s, 0x18, 0x18, EXECUTE, GROUND);
+            set(s, 0x1a, 0x1a, EXECUTE, GROUND);
+            set(s, 0x1b, 0x1b, NONE, ESCAPE);
+        }
+
+        ENTRY_ACTIONS[ESCAPE] = CLEAR;
+        ENTRY_ACTIONS[CSI_ENTRY] = CLEAR;
+        ENTRY_ACTIONS[DCS_ENTRY] = CLEAR;
+        ENTRY_ACTIONS[DCS_PASSTHROUGH] = HOOK;
+        ENTRY_ACTIONS[OSC_STRING] = OSC_START;
+        EXIT_ACTIONS[DCS_PASSTHROUGH] = UNHOOK;
+        EXIT_ACTIONS[OSC_STRING] = OSC_END;
+    }
+}
@@ -0,0 +1,68 @@
+package com.marcovr.terminal.commands;
+
+/**
+ * Receives the sequences recognised by {@link Parser}
+ */
+interface ParserListener {
+
+    /**
+     * Prints a run of graphic characters
+     *
+     * @param data the code points (only valid until the call returns)
+     * @param off offset of the run
+     * @param len length of the run
+     */
+    void print(int[] data, int off, int len);
+
+    /**
+     * Executes a control function (C0 or C1)
+     *
+     * @param c the control character
+     */
+    void execute(int c);
+
+    /**
+     * Dispatches an escape sequence
+     *
+     * @param intermediates collected intermediate characters, packed into an int (first one in the higher byte)
+     * @param c the final character
+     */
+    void escDispatch(int intermediates, int c);
+
+    /**
+     * Dispatches a control sequence. Its parameters are available from the parser's {@link NumArgRetriever}
+     *
+     * @param prefix private marker ('<', '=', '>' or '?'), or 0 if none
+     * @param intermediates collected intermediate characters, packed into an int
+     * @param c the final character
+     */
+    void csiDispatch(int prefix, int intermediates, int c);
+
+    /**
+     * Dispatches an operating system command
+     *
+     * @param s the command string (only valid until the next call)
+     */
+    void oscDispatch(CharSequence s);
+
+    /**
+     * Starts a device control string. Its parameters are available from the parser's {@link NumArgRetriever}
+     *
+     * @param prefix private marker, or 0 if none
+     * @param intermediates collected intermediate characters, packed into an int
+     * @param c the final character
+     */
+    void dcsHook(int prefix, int intermediates, int c);
+
+    /**
+     * Passes a character of the device control string
+     *
+     * @param c the data character
+     */
+    void dcsPut(int c);
+
+    /**
+     * Ends a device control string
+     */
+    void dcsUnhook();
+}
@@ -0,0 +1,57 @@
+package com.marcovr.terminal.commands;
+
+/**
+ * Everything a {@link CommandHandler} needs from its surrounding terminal (besides the screen)
+ */
+public interface TerminalHost {
+
+    /**
+     * Sends text to the remote side, e.g. as an answer to a request
+     *
+     * @param s the text to send
+     */
+    void send(String s);
+
+    /**
+     * Rings the bell
+     */
+    void bell();
+
+    /**
+     * Sets the window title
+     *
+     * @param title the title String
+     */
+    void setTitle(String title);
+
+    /**
+     * @param status true to use application cursor key codes
+     */
+    void setApplicationCursorKeys(boolean status);
+
+    /**
+     * @param status true to wrap pasted text in bracketed paste markers
+     */
+    void setBracketedPaste(boolean status);
+
+    /**
+     * Handles xterm window manipulation (CSI n ; arg0 ; arg1 t)
+     *
+     * @param n the operation
+     * @param argc number of further arguments
+     * @param arg0 first further argument, if any
+     * @param arg1 second further argument, if any
+     * @return false if the operation is not supported
+     */
+    boolean handleXterm(int n, int argc, int arg0, int arg1);
+
+    /**
+     * Notifies that the screen changed and should be repainted eventually
+     */
+    void scheduleRepaint();
+
+    /**
+     * Notifies that the connection was closed by the remote side
+     */
+    void shutdown();
+}
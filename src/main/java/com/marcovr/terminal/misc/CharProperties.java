@@ -0,0 +1,240 @@
+package com.marcovr.terminal.misc;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Display width and grapheme cluster break property (UAX #29) of code points, for laying out text in cells.
+ * Both are looked up in a two-level table: the upper bits of a code point select a block of 256 entries,
+ * the lower bits the entry. Blocks with equal entries are stored once, so the whole code space takes about
+ * 36 KiB. The table is built from the ranges below, which were generated from the Unicode 14 character
+ * database (EastAsianWidth.txt, GraphemeBreakProperty.txt, emoji-data.txt); unassigned code points between
+ * ranges of a property are included in them.
+ */
+public class CharProperties {
+
+    // grapheme cluster break properties
+    public static final int OTHER                 = 0;
+    public static final int CR                    = 1;
+    public static final int LF                    = 2;
+    public static final int CONTROL               = 3;
+    public static final int EXTEND                = 4;
+    public static final int ZWJ                   = 5;
+    public static final int REGIONAL_INDICATOR    = 6;
+    public static final int PREPEND               = 7;
+    public static final int SPACING_MARK          = 8;
+    public static final int L                     = 9;
+    public static final int V                     = 10;
+    public static final int T                     = 11;
+    public static final int LV                    = 12;
+    public static final int LVT                   = 13;
+    public static final int EXTENDED_PICTOGRAPHIC = 14;
+
+    private static final int BREAK_MASK = 0x0f;
+    private static final int WIDTH_SHIFT = 4;
+    private static final int WIDTH_MASK = 3 << WIDTH_SHIFT;
+    private static final int BLOCK_BITS = 8;
+    private static final int BLOCK_SIZE = 1 << BLOCK_BITS;
+    private static final int CODE_POINTS = Character.MAX_CODE_POINT + 1;
+
+    // anything not listed: one cell wide, Other
+    private static final int DEFAULT = 1 << WIDTH_SHIFT | OTHER;
+
+    // zero width: nonspacing and enclosing marks, format characters but the soft hyphen and prepended
+    // concatenation marks, Hangul medial vowels and final consonants
+    private static final String ZERO_WIDTH_RANGES =
+            "0300-036F 0483-0489 0591-05BD 05BF 05C1-05C2 05C4-05C5 05C7 0610-061A 061C 064B-065F 0670 06D6-06DC " +
+            "06DF-06E4 06E7-06E8 06EA-06ED 0711 0730-074A 07A6-07B0 07EB-07F3 07FD 0816-0819 081B-0823 0825-0827 " +
+            "0829-082D 0859-085B 0898-089F 08CA-08E1 08E3-0902 093A 093C 0941-0948 094D 0951-0957 0962-0963 0981 " +
+            "09BC 09C1-09C4 09CD 09E2-09E3 09FE-0A02 0A3C 0A41-0A51 0A70-0A71 0A75 0A81-0A82 0ABC 0AC1-0AC8 0ACD " +
+            "0AE2-0AE3 0AFA-0B01 0B3C 0B3F 0B41-0B44 0B4D-0B56 0B62-0B63 0B82 0BC0 0BCD 0C00 0C04 0C3C 0C3E-0C40 " +
+            "0C46-0C56 0C62-0C63 0C81 0CBC 0CBF 0CC6 0CCC-0CCD 0CE2-0CE3 0D00-0D01 0D3B-0D3C 0D41-0D44 0D4D " +
+            "0D62-0D63 0D81 0DCA 0DD2-0DD6 0E31 0E34-0E3A 0E47-0E4E 0EB1 0EB4-0EBC 0EC8-0ECD 0F18-0F19 0F35 0F37 " +
+            "0F39 0F71-0F7E 0F80-0F84 0F86-0F87 0F8D-0FBC 0FC6 102D-1030 1032-1037 1039-103A 103D-103E 1058-1059 " +
+            "105E-1060 1071-1074 1082 1085-1086 108D 109D 1160-11FF 135D-135F 1712-1714 1732-1733 1752-1753 " +
+            "1772-1773 17B4-17B5 17B7-17BD 17C6 17C9-17D3 17DD 180B-180F 1885-1886 18A9 1920-1922 1927-1928 1932 " +
+            "1939-193B 1A17-1A18 1A1B 1A56 1A58-1A60 1A62 1A65-1A6C 1A73-1A7F 1AB0-1B03 1B34 1B36-1B3A 1B3C 1B42 " +
+            "1B6B-1B73 1B80-1B81 1BA2-1BA5 1BA8-1BA9 1BAB-1BAD 1BE6 1BE8-1BE9 1BED 1BEF-1BF1 1C2C-1C33 1C36-1C37 " +
+            "1CD0-1CD2 1CD4-1CE0 1CE2-1CE8 1CED 1CF4 1CF8-1CF9 1DC0-1DFF 200B-200F 202A-202E 2060-206F 20D0-20F0 " +
+            "2CEF-2CF1 2D7F 2DE0-2DFF 302A-302D 3099-309A A66F-A672 A674-A67D A69E-A69F A6F0-A6F1 A802 A806 A80B " +
+            "A825-A826 A82C A8C4-A8C5 A8E0-A8F1 A8FF A926-A92D A947-A951 A980-A982 A9B3 A9B6-A9B9 A9BC-A9BD A9E5 " +
+            "AA29-AA2E AA31-AA32 AA35-AA36 AA43 AA4C AA7C AAB0 AAB2-AAB4 AAB7-AAB8 AABE-AABF AAC1 AAEC-AAED AAF6 " +
+            "ABE5 ABE8 ABED D7B0-D7FF FB1E FE00-FE0F FE20-FE2F FEFF FFF9-FFFB 101FD 102E0 10376-1037A 10A01-10A0F " +
+            "10A38-10A3F 10AE5-10AE6 10D24-10D27 10EAB-10EAC 10F46-10F50 10F82-10F85 11001 11038-11046 11070 " +
+            "11073-11074 1107F-11081 110B3-110B6 110B9-110BA 110C2 11100-11102 11127-1112B 1112D-11134 11173 " +
+            "11180-11181 111B6-111BE 111C9-111CC 111CF 1122F-11231 11234 11236-11237 1123E 112DF 112E3-112EA " +
+            "11300-11301 1133B-1133C 11340 11366-11374 11438-1143F 11442-11444 11446 1145E 114B3-114B8 114BA " +
+            "114BF-114C0 114C2-114C3 115B2-115B5 115BC-115BD 115BF-115C0 115DC-115DD 11633-1163A 1163D " +
+            "1163F-11640 116AB 116AD 116B0-116B5 116B7 1171D-1171F 11722-11725 11727-1172B 1182F-11837 " +
+            "11839-1183A 1193B-1193C 1193E 11943 119D4-119DB 119E0 11A01-11A0A 11A33-11A38 11A3B-11A3E 11A47 " +
+            "11A51-11A56 11A59-11A5B 11A8A-11A96 11A98-11A99 11C30-11C3D 11C3F 11C92-11CA7 11CAA-11CB0 " +
+            "11CB2-11CB3 11CB5-11CB6 11D31-11D45 11D47 11D90-11D91 11D95 11D97 11EF3-11EF4 13430-13438 " +
+            "16AF0-16AF4 16B30-16B36 16F4F 16F8F-16F92 16FE4 1BC9D-1BC9E 1BCA0-1CF46 1D167-1D169 1D173-1D182 " +
+            "1D185-1D18B 1D1AA-1D1AD 1D242-1D244 1DA00-1DA36 1DA3B-1DA6C 1DA75 1DA84 1DA9B-1DAAF 1E000-1E02A " +
+            "1E130-1E136 1E2AE 1E2EC-1E2EF 1E8D0-1E8D6 1E944-1E94A E0001-E01EF";
+
+    // two cells wide: East Asian Wide and Fullwidth, and the CJK ideograph planes
+    private static final String WIDE_RANGES =
+            "1100-115F 231A-231B 2329-232A 23E9-23EC 23F0 23F3 25FD-25FE 2614-2615 2648-2653 267F 2693 26A1 " +
+            "26AA-26AB 26BD-26BE 26C4-26C5 26CE 26D4 26EA 26F2-26F3 26F5 26FA 26FD 2705 270A-270B 2728 274C 274E " +
+            "2753-2755 2757 2795-2797 27B0 27BF 2B1B-2B1C 2B50 2B55 2E80-3029 302E-303E 3041-3096 309B-3247 " +
+            "3250-4DBF 4E00-A4C6 A960-A97C AC00-D7A3 F900-FAFF FE10-FE19 FE30-FE6B FF01-FF60 FFE0-FFE6 " +
+            "16FE0-16FE3 16FF0-1B2FB 1F004 1F0CF 1F18E 1F191-1F19A 1F200-1F320 1F32D-1F335 1F337-1F37C " +
+            "1F37E-1F393 1F3A0-1F3CA 1F3CF-1F3D3 1F3E0-1F3F0 1F3F4 1F3F8-1F43E 1F440 1F442-1F4FC 1F4FF-1F53D " +
+            "1F54B-1F54E 1F550-1F567 1F57A 1F595-1F596 1F5A4 1F5FB-1F64F 1F680-1F6C5 1F6CC 1F6D0-1F6D2 " +
+            "1F6D5-1F6DF 1F6EB-1F6EC 1F6F4-1F6FC 1F7E0-1F7F0 1F90C-1F93A 1F93C-1F945 1F947-1F9FF 1FA70-1FAF6 " +
+            "20000-3FFFD";
+
+    // Grapheme_Cluster_Break=Control
+    private static final String CONTROL_RANGES =
+            "0000-0009 000B-000C 000E-001F 007F-009F 00AD 061C 180E 200B 200E-200F 2028-202E 2060-206F FEFF " +
+            "FFF9-FFFB 13430-13438 1BCA0-1BCA3 1D173-1D17A E0001";
+
+    // Grapheme_Cluster_Break=Extend
+    private static final String EXTEND_RANGES =
+            "0300-036F 0483-0489 0591-05BD 05BF 05C1-05C2 05C4-05C5 05C7 0610-061A 064B-065F 0670 06D6-06DC " +
+            "06DF-06E4 06E7-06E8 06EA-06ED 0711 0730-074A 07A6-07B0 07EB-07F3 07FD 0816-0819 081B-0823 0825-0827 " +
+            "0829-082D 0859-085B 0898-089F 08CA-08E1 08E3-0902 093A 093C 0941-0948 094D 0951-0957 0962-0963 0981 " +
+            "09BC 09BE 09C1-09C4 09CD 09D7 09E2-09E3 09FE-0A02 0A3C 0A41-0A51 0A70-0A71 0A75 0A81-0A82 0ABC " +
+            "0AC1-0AC8 0ACD 0AE2-0AE3 0AFA-0B01 0B3C 0B3E-0B3F 0B41-0B44 0B4D-0B57 0B62-0B63 0B82 0BBE 0BC0 0BCD " +
+            "0BD7 0C00 0C04 0C3C 0C3E-0C40 0C46-0C56 0C62-0C63 0C81 0CBC 0CBF 0CC2 0CC6 0CCC-0CD6 0CE2-0CE3 " +
+            "0D00-0D01 0D3B-0D3C 0D3E 0D41-0D44 0D4D 0D57 0D62-0D63 0D81 0DCA-0DCF 0DD2-0DD6 0DDF 0E31 0E34-0E3A " +
+            "0E47-0E4E 0EB1 0EB4-0EBC 0EC8-0ECD 0F18-0F19 0F35 0F37 0F39 0F71-0F7E 0F80-0F84 0F86-0F87 0F8D-0FBC " +
+            "0FC6 102D-1030 1032-1037 1039-103A 103D-103E 1058-1059 105E-1060 1071-1074 1082 1085-1086 108D 109D " +
+            "135D-135F 1712-1714 1732-1733 1752-1753 1772-1773 17B4-17B5 17B7-17BD 17C6 17C9-17D3 17DD 180B-180D " +
+            "180F 1885-1886 18A9 1920-1922 1927-1928 1932 1939-193B 1A17-1A18 1A1B 1A56 1A58-1A60 1A62 1A65-1A6C " +
+            "1A73-1A7F 1AB0-1B03 1B34-1B3A 1B3C 1B42 1B6B-1B73 1B80-1B81 1BA2-1BA5 1BA8-1BA9 1BAB-1BAD 1BE6 " +
+            "1BE8-1BE9 1BED 1BEF-1BF1 1C2C-1C33 1C36-1C37 1CD0-1CD2 1CD4-1CE0 1CE2-1CE8 1CED 1CF4 1CF8-1CF9 " +
+            "1DC0-1DFF 200C 20D0-20F0 2CEF-2CF1 2D7F 2DE0-2DFF 302A-302F 3099-309A A66F-A672 A674-A67D A69E-A69F " +
+            "A6F0-A6F1 A802 A806 A80B A825-A826 A82C A8C4-A8C5 A8E0-A8F1 A8FF A926-A92D A947-A951 A980-A982 A9B3 " +
+            "A9B6-A9B9 A9BC-A9BD A9E5 AA29-AA2E AA31-AA32 AA35-AA36 AA43 AA4C AA7C AAB0 AAB2-AAB4 AAB7-AAB8 " +
+            "AABE-AABF AAC1 AAEC-AAED AAF6 ABE5 ABE8 ABED FB1E FE00-FE0F FE20-FE2F FF9E-FF9F 101FD 102E0 " +
+            "10376-1037A 10A01-10A0F 10A38-10A3F 10AE5-10AE6 10D24-10D27 10EAB-10EAC 10F46-10F50 10F82-10F85 " +
+            "11001 11038-11046 11070 11073-11074 1107F-11081 110B3-110B6 110B9-110BA 110C2 11100-11102 " +
+            "11127-1112B 1112D-11134 11173 11180-11181 111B6-111BE 111C9-111CC 111CF 1122F-11231 11234 " +
+            "11236-11237 1123E 112DF 112E3-112EA 11300-11301 1133B-1133C 1133E 11340 11357 11366-11374 " +
+            "11438-1143F 11442-11444 11446 1145E 114B0 114B3-114B8 114BA 114BD 114BF-114C0 114C2-114C3 115AF " +
+            "115B2-115B5 115BC-115BD 115BF-115C0 115DC-115DD 11633-1163A 1163D 1163F-11640 116AB 116AD " +
+            "116B0-116B5 116B7 1171D-1171F 11722-11725 11727-1172B 1182F-11837 11839-1183A 11930 1193B-1193C " +
+            "1193E 11943 119D4-119DB 119E0 11A01-11A0A 11A33-11A38 11A3B-11A3E 11A47 11A51-11A56 11A59-11A5B " +
+            "11A8A-11A96 11A98-11A99 11C30-11C3D 11C3F 11C92-11CA7 11CAA-11CB0 11CB2-11CB3 11CB5-11CB6 " +
+            "11D31-11D45 11D47 11D90-11D91 11D95 11D97 11EF3-11EF4 16AF0-16AF4 16B30-16B36 16F4F 16F8F-16F92 " +
+            "16FE4 1BC9D-1BC9E 1CF00-1CF46 1D165 1D167-1D169 1D16E-1D172 1D17B-1D182 1D185-1D18B 1D1AA-1D1AD " +
+            "1D242-1D244 1DA00-1DA36 1DA3B-1DA6C 1DA75 1DA84 1DA9B-1DAAF 1E000-1E02A 1E130-1E136 1E2AE " +
+            "1E2EC-1E2EF 1E8D0-1E8D6 1E944-1E94A 1F3FB-1F3FF E0020-E01EF";
+
+    // Grapheme_Cluster_Break=SpacingMark
+    private static final String SPACING_MARK_RANGES =
+            "0903 093B 093E-0940 0949-094C 094E-094F 0982-0983 09BF-09C0 09C7-09CC 0A03 0A3E-0A40 0A83 0ABE-0AC0 " +
+            "0AC9-0ACC 0B02-0B03 0B40 0B47-0B4C 0BBF 0BC1-0BCC 0C01-0C03 0C41-0C44 0C82-0C83 0CBE 0CC0-0CC1 " +
+            "0CC3-0CC4 0CC7-0CCB 0D02-0D03 0D3F-0D40 0D46-0D4C 0D82-0D83 0DD0-0DD1 0DD8-0DDE 0DF2-0DF3 0E33 0EB3 " +
+            "0F3E-0F3F 0F7F 1031 103B-103C 1056-1057 1084 1715 1734 17B6 17BE-17C5 17C7-17C8 1923-1926 1929-1931 " +
+            "1933-1938 1A19-1A1A 1A55 1A57 1A6D-1A72 1B04 1B3B 1B3D-1B41 1B43-1B44 1B82 1BA1 1BA6-1BA7 1BAA 1BE7 " +
+            "1BEA-1BEC 1BEE 1BF2-1BF3 1C24-1C2B 1C34-1C35 1CE1 1CF7 A823-A824 A827 A880-A881 A8B4-A8C3 A952-A953 " +
+            "A983 A9B4-A9B5 A9BA-A9BB A9BE-A9C0 AA2F-AA30 AA33-AA34 AA4D AAEB AAEE-AAEF AAF5 ABE3-ABE4 ABE6-ABE7 " +
+            "ABE9-ABEA ABEC 11000 11002 11082 110B0-110B2 110B7-110B8 1112C 11145-11146 11182 111B3-111B5 " +
+            "111BF-111C0 111CE 1122C-1122E 11232-11233 11235 112E0-112E2 11302-11303 1133F 11341-1134D " +
+            "11362-11363 11435-11437 11440-11441 11445 114B1-114B2 114B9 114BB-114BC 114BE 114C1 115B0-115B1 " +
+            "115B8-115BB 115BE 11630-11632 1163B-1163C 1163E 116AC 116AE-116AF 116B6 11726 1182C-1182E 11838 " +
+            "11931-11938 1193D 11940 11942 119D1-119D3 119DC-119DF 119E4 11A39 11A57-11A58 11A97 11C2F 11C3E " +
+            "11CA9 11CB1 11CB4 11D8A-11D8E 11D93-11D94 11D96 11EF5-11EF6 16F51-16F87 16FF0-16FF1 1D166 1D16D";
+
+    // Grapheme_Cluster_Break=Prepend
+    private static final String PREPEND_RANGES =
+            "0600-0605 06DD 070F 0890-0891 08E2 0D4E 110BD 110CD 111C2-111C3 1193F 11941 11A3A 11A84-11A89 11D46";
+
+    // Extended_Pictographic
+    private static final String EXTENDED_PICTOGRAPHIC_RANGES =
+            "00A9 00AE 203C 2049 2122 2139 2194-2199 21A9-21AA 231A-231B 2328 2388 23CF 23E9-23F3 23F8-23FA 24C2 " +
+            "25AA-25AB 25B6 25C0 25FB-25FE 2600-2605 2607-2612 2614-2685 2690-2705 2708-2712 2714 2716 271D 2721 " +
+            "2728 2733-2734 2744 2747 274C 274E 2753-2755 2757 2763-2767 2795-2797 27A1 27B0 27BF 2934-2935 " +
+            "2B05-2B07 2B1B-2B1C 2B50 2B55 3030 303D 3297 3299 1F000-1F0FF 1F10D-1F10F 1F12F 1F16C-1F171 " +
+            "1F17E-1F17F 1F18E 1F191-1F19A 1F1AD-1F1E5 1F201-1F20F 1F21A 1F22F 1F232-1F23A 1F23C-1F23F " +
+            "1F249-1F3FA 1F400-1F53D 1F546-1F64F 1F680-1F6FF 1F774-1F77F 1F7D5-1F7FF 1F80C-1F80F 1F848-1F84F " +
+            "1F85A-1F85F 1F888-1F88F 1F8AE-1F8FF 1F90C-1F93A 1F93C-1F945 1F947-1FAFF 1FC00-1FFFD";
+
+    // the block of each 256 code points, and the distinct blocks
+    private static final char[] INDEX = new char[CODE_POINTS >> BLOCK_BITS];
+    private static final byte[] BLOCKS;
+
+    static {
+        byte[] table = new byte[CODE_POINTS];
+        Arrays.fill(table, (byte) DEFAULT);
+        set(table, ZERO_WIDTH_RANGES, WIDTH_MASK, 0);
+        set(table, WIDE_RANGES, WIDTH_MASK, 2 << WIDTH_SHIFT);
+        set(table, CONTROL_RANGES, BREAK_MASK, CONTROL);
+        set(table, EXTEND_RANGES, BREAK_MASK, EXTEND);
+        set(table, SPACING_MARK_RANGES, BREAK_MASK, SPACING_MARK);
+        set(table, PREPEND_RANGES, BREAK_MASK, PREPEND);
+        set(table, EXTENDED_PICTOGRAPHIC_RANGES, BREAK_MASK, EXTENDED_PICTOGRAPHIC);
+        set(table, "000D", BREAK_MASK, CR);
+        set(table, "000A", BREAK_MASK, LF);
+        set(table, "200D", BREAK_MASK, ZWJ);
+        set(table, "1F1E6-1F1FF", BREAK_MASK, REGIONAL_INDICATOR);
+        set(table, "1100-115F A960-A97C", BREAK_MASK, L);
+        set(table, "1160-11A7 D7B0-D7C6", BREAK_MASK, V);
+        set(table, "11A8-11FF D7CB-D7FB", BREAK_MASK, T);
+        // Hangul syllables: every 28th one has no final consonant
+        for (int c = 0xac00; c <= 0xd7a3; c++) {
+            table[c] = (byte) (table[c] & ~BREAK_MASK | ((c - 0xac00) % 28 == 0 ? LV : LVT));
+        }
+
+        Map<String, Integer> blocks = new HashMap<>();
+        byte[] distinct = new byte[CODE_POINTS];
+        for (int i = 0; i < INDEX.length; i++) {
+            String key = new String(table, i << BLOCK_BITS, BLOCK_SIZE, StandardCharsets.ISO_8859_1);
+            Integer block = blocks.get(key);
+            if (block == null) {
+                block = blocks.size();
+                blocks.put(key, block);
+                System.arraycopy(table, i << BLOCK_BITS, distinct, block << BLOCK_BITS, BLOCK_SIZE);
+            }
+            INDEX[i] = (char) (int) block;
+        }
+        BLOCKS = Arrays.copyOf(distinct, blocks.size() << BLOCK_BITS);
+    }
+
+    /**
+     * Sets a property of the code points in a list of ranges
+     *
+     * @param ranges hexadecimal code points and ranges of them ("0300-036F"), separated by spaces
+     * @param mask the bits of the property
+     * @param value the new value, within the mask
+     */
+    private static void set(byte[] table, String ranges, int mask, int value) {
+        for (String range : ranges.split(" ")) {
+            int dash = range.indexOf('-');
+            int first = Integer.parseInt(dash < 0 ? range : range.substring(0, dash), 16);
+            int last = dash < 0 ? first : Integer.parseInt(range.substring(dash + 1), 16);
+            for (int c = first; c <= last; c++) {
+                table[c] = (byte) (table[c] & ~mask | value);
+            }
+        }
+    }
+
+    private static int get(int c) {
+        if (c < 0 || c >= CODE_POINTS) {
+            return DEFAULT;
+        }
+        return BLOCKS[INDEX[c >> BLOCK_BITS] << BLOCK_BITS | c & BLOCK_SIZE - 1];
+    }
+
+    /**
+     * @param c a code point
+     * @return the number of cells it takes: 0 for marks and format characters, 2 for wide East Asian characters
+     * and emoji, 1 otherwise
+     */
+    public static int width(int c) {
+        return get(c) >> WIDTH_SHIFT;
+    }
+
+    /**
+     * @param c a code point
+     * @return its grapheme cluster break property, see {@link Graphemes}
+     */
+    public static int breakProperty(int c) {
+        return get(c) & BREAK_MASK;
+    }
+}
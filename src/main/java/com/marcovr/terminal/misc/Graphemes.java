@@ -0,0 +1,93 @@
+package com.marcovr.terminal.misc;
+
+import static com.marcovr.terminal.misc.CharProperties.*;
+
+/**
+ * Grapheme cluster boundaries after the extended rules of UAX #29 (GB3 to GB13), for deciding which code points
+ * share a cell. Works on the break properties of {@link CharProperties} one code point at a time: the state of
+ * the cluster so far is an int holding the property of its last code point and what the emoji and regional
+ * indicator rules need to remember about the ones before
+ */
+public class Graphemes {
+
+    /**
+     * Returned by {@link #next(int, int)} when a new cluster starts
+     */
+    public static final int BREAK = -1;
+
+    private static final int PROPERTY_MASK = 0x0f;
+    // the cluster ends in Extended_Pictographic Extend*, possibly followed by a ZWJ (GB11)
+    private static final int PICTOGRAPHIC = 0x10;
+    // the cluster ends in an odd number of regional indicators (GB12, GB13)
+    private static final int ODD_RI = 0x20;
+
+    /**
+     * @param property the break property of the first code point of a cluster
+     * @return the state of the cluster
+     */
+    public static int start(int property) {
+        switch (property) {
+            case EXTENDED_PICTOGRAPHIC:
+                return property | PICTOGRAPHIC;
+            case REGIONAL_INDICATOR:
+                return property | ODD_RI;
+            default:
+                return property;
+        }
+    }
+
+    /**
+     * @param state the state of the cluster so far
+     * @param property the break property of the next code point
+     * @return the state of the cluster with the code point appended, or {@link #BREAK} if it starts a new one
+     */
+    public static int next(int state, int property) {
+        int previous = state & PROPERTY_MASK;
+
+        switch (previous) {
+            case CR:
+                return property == LF ? property : BREAK;           // GB3, GB4
+            case LF:
+            case CONTROL:
+                return BREAK;                                       // GB4
+        }
+
+        switch (property) {
+            case CR:
+            case LF:
+            case CONTROL:
+                return BREAK;                                       // GB5
+            case EXTEND:
+            case ZWJ:
+                // GB9, the pictographic sequence only survives Extend* ZWJ
+                return property | (previous != ZWJ ? state & PICTOGRAPHIC : 0);
+            case SPACING_MARK:
+                return property;                                    // GB9a
+        }
+
+        if (previous == PREPEND) {
+            return start(property);                                 // GB9b
+        }
+
+        switch (property) {
+            case L:
+                return previous == L ? property : BREAK;            // GB6
+            case V:
+                return previous == L || previous == LV || previous == V ? property : BREAK;   // GB6, GB7
+            case T:
+                return previous == LV || previous == V || previous == LVT || previous == T
+                        ? property : BREAK;                         // GB7, GB8
+            case LV:
+            case LVT:
+                return previous == L ? property : BREAK;            // GB6
+            case EXTENDED_PICTOGRAPHIC:
+                return previous == ZWJ && (state & PICTOGRAPHIC) != 0
+                        ? property | PICTOGRAPHIC : BREAK;          // GB11
+            case REGIONAL_INDICATOR:
+                return previous == REGIONAL_INDICATOR && (state & ODD_RI) != 0
+                        ? property : BREAK;                         // GB12, GB13
+            default:
+                return BREAK;                                       // GB999
+        }
+    }
+}
@@ -1,10 +1,5 @@
 package com.marcovr.terminal.misc;
 
-import java.awt.*;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 
 public class UnicodeHelper {
@@ -12,7 +7,7 @@ public class UnicodeHelper {
     private static final String REPLACEMENT_CHAR_STR = "\ufffd";
     private static final int REPLACEMENT_CHAR_CPT = 0xfffd;
 
-    private static ArrayList<Font> fonts;
+    private static final String[] ASCII = new String[128];
 
     private enum CodePointStatus {
         SINGLE, INVALID, PAIR
@@ -114,7 +109,10 @@ public class UnicodeHelper {
     }
     
     public static String codePointToString(int b) {
-        if (Character.isBmpCodePoint(b)) {
+        if (b >= 0 && b < ASCII.length) {
+            return ASCII[b];
+        }
+        else if (Character.isBmpCodePoint(b)) {
             return String.valueOf((char) b);
         }
         else if (Character.isValidCodePoint(b)) {
@@ -124,84 +122,10 @@ public class UnicodeHelper {
         return REPLACEMENT_CHAR_STR;
     }
 
-    public static Font getAppropriateFont(int b, Font font) {
-        if (font.canDisplay(b)) {
-            return font;
-        }
-        else {
-            for (Font f : fonts) {
-                if (f.canDisplay(b)) {
-                    return f.deriveFont(font.getStyle());
-                }
-            }
-        }
-
-        return tryAllFonts(b, font);
-    }
-
-    private static Font tryAllFonts(int b, Font font) {
-        String[] fonts = GraphicsEnvironment.getLocalGraphicsEnvironment().getAvailableFontFamilyNames();
-        for (String fName : fonts) {
-            Font f = new Font(fName, Font.PLAIN, 12);
-            if (f.canDisplay(b)) {
-                return f.deriveFont(font.getStyle());
-            }
-        }
-
-        return font;
-    }
-
     static {
-        fonts = new ArrayList<>();
-        int size = 12;
-        fonts.add(new Font("Segoe UI Emoji", Font.PLAIN, size));
-        fonts.add(new Font("MS Gothic", Font.PLAIN, size));
-        fonts.add(new Font("SimSun", Font.PLAIN, size));
-        fonts.add(new Font("Malgun Gothic", Font.PLAIN, size));
-    }
-
-
-    public static class UnicodeStreamReader extends InputStreamReader {
-
-        private int pushBackChar = -2;
-
-        public UnicodeStreamReader(InputStream in) {
-            super(in, StandardCharsets.UTF_8);
-        }
-
-        @Override
-        public int read() throws IOException {
-            int c1;
-
-            if (pushBackChar == -2) {
-                c1 = super.read();
-            }
-            else {
-                c1 = pushBackChar;
-                pushBackChar = -2;
-            }
-
-            if (c1 == -1 || !Character.isSurrogate((char) c1)) {
-                return c1; // c1 is an easy non-surrogate character. We're done.
-            }
-
-            if (Character.isLowSurrogate((char) c1)) {
-                // c1 is a low surrogate but we need a high one.
-                return REPLACEMENT_CHAR_CPT;
-            }
-
-            // We have a high-surrogate. Hopefully next is a low surrogate.
-            int c2 = super.read();
-            if (c2 == -1 || !Character.isLowSurrogate((char) c2)) {
-                // Didn't get what we want. Push it back.
-                pushBackChar = c2;
-                return REPLACEMENT_CHAR_CPT;
-            }
-
-            // c1 and c2 form a surrogate pair. Join 'em.
-            return Character.toCodePoint((char) c1, (char) c2);
+        for (int i = 0; i < ASCII.length; i++) {
+            ASCII[i] = String.valueOf((char) i);
         }
-
     }
 
 }
@@ -0,0 +1,90 @@
+package com.marcovr.terminal.misc;
+
+/**
+ * Incremental UTF-8 decoder. Keeps its state between calls, so sequences may be split across chunks.
+ * Malformed input is replaced by U+FFFD.
+ */
+public class Utf8Decoder {
+
+    private static final int REPLACEMENT_CHAR_CPT = 0xfffd;
+
+    private int codePoint;
+    private int remaining;
+    private int min;
+
+    /**
+     * Decodes bytes into code points. The destination must hold at least len + 1 code points
+     * (one extra for a pending incomplete sequence that gets replaced).
+     *
+     * @param src source bytes
+     * @param off offset into src
+     * @param len number of bytes to decode
+     * @param dst destination for code points
+     * @return number of code points written to dst
+     */
+    public int decode(byte[] src, int off, int len, int[] dst) {
+        int n = 0;
+        int end = off + len;
+
+        for (int i = off; i < end; i++) {
+            int b = src[i];
+
+            if (remaining == 0) {
+                if (b >= 0) {
+                    // ASCII fast path
+                    dst[n++] = b;
+                    continue;
+                }
+                b &= 0xff;
+                if (b >= 0xc2 && b <= 0xdf) {
+                    codePoint = b & 0x1f;
+                    remaining = 1;
+                    min = 0x80;
+                }
+                else if (b >= 0xe0 && b <= 0xef) {
+                    codePoint = b & 0x0f;
+                    remaining = 2;
+                    min = 0x800;
+                }
+                else if (b >= 0xf0 && b <= 0xf4) {
+                    codePoint = b & 0x07;
+                    remaining = 3;
+                    min = 0x10000;
+                }
+                else {
+                    dst[n++] = REPLACEMENT_CHAR_CPT;
+                }
+            }
+            else if ((b & 0xc0) == 0x80) {
+                codePoint = codePoint << 6 | b & 0x3f;
+                if (--remaining == 0) {
+                    boolean valid = codePoint >= min && codePoint <= Character.MAX_CODE_POINT
+                            && (codePoint < Character.MIN_SURROGATE || codePoint > Character.MAX_SURROGATE);
+                    dst[n++] = valid ? codePoint : REPLACEMENT_CHAR_CPT;
+                }
+            }
+            else {
+                // sequence interrupted: replace it and handle this byte anew
+                remaining = 0;
+                dst[n++] = REPLACEMENT_CHAR_CPT;
+                i--;
+            }
+        }
+
+        return n;
+    }
+
+    /**
+     * @return true if the decoder is not in the middle of a sequence, so no bytes are pending
+     */
+    public boolean isIdle() {
+        return remaining == 0;
+    }
+
+    /**
+     * Resets the decoder, dropping any incomplete sequence
+     */
+    public void reset() {
+        remaining = 0;
+    }
+}
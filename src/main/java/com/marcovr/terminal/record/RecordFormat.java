@@ -0,0 +1,23 @@
+package com.marcovr.terminal.record;
+
+/**
+ * Layout of session recordings.
+ *
+ * A recording starts with a header (magic, version, initial width & height as ints), followed by records.
+ * Every record consists of a type byte, a timestamp (nanoseconds since the start of the recording, long),
+ * the payload length (int) and the payload. Keyframe payloads are deflate-compressed screen states.
+ */
+final class RecordFormat {
+
+    static final int MAGIC = 0x54524543; // "TREC"
+    static final int VERSION = 3;
+    static final int HEADER_SIZE = 16;
+
+    static final byte DATA = 1;
+    static final byte KEYFRAME = 2;
+    static final byte RESIZE = 3;
+
+    static final int RECORD_HEADER_SIZE = 13;
+
+    private RecordFormat() {}
+}
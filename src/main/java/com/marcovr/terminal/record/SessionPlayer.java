@@ -0,0 +1,243 @@
+package com.marcovr.terminal.record;
+
+import com.marcovr.terminal.commands.CommandHandler;
+import com.marcovr.terminal.commands.TerminalHost;
+import com.marcovr.terminal.screen.Screen;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Replays a session recording onto a screen, either as fast as possible or in real time.
+ * The recording is read through memory-mapped windows, seeking restores the nearest keyframe
+ * and only replays the output after it.
+ */
+public class SessionPlayer implements Closeable {
+
+    private static final int WINDOW_SIZE = 64 << 20;
+
+    private final FileChannel channel;
+    private final long size;
+    private final Screen screen;
+    private final TerminalHost host;
+    private final List<long[]> keyframes = new ArrayList<>(); // {timestamp, offset}
+    private final long duration;
+
+    private MappedByteBuffer window;
+    private long windowStart;
+    private byte[] chunk = new byte[0];
+
+    private CommandHandler handler;
+    private long position;
+    private long time;
+
+    /**
+     * Opens a recording and indexes its keyframes
+     *
+     * @param file the recording
+     * @param screen the screen to replay onto
+     * @param host receives everything else the session does (title changes, bells, answers...)
+     * @throws IOException if the file cannot be read or is no recording
+     */
+    public SessionPlayer(File file, Screen screen, TerminalHost host) throws IOException {
+        this.screen = screen;
+        this.host = host;
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        size = channel.size();
+
+        ByteBuffer header = map(0, RecordFormat.HEADER_SIZE);
+        if (header.getInt() != RecordFormat.MAGIC || header.getInt() != RecordFormat.VERSION) {
+            channel.close();
+            throw new IOException("not a session recording: " + file);
+        }
+        screen.resize(header.getInt(), header.getInt());
+
+        long last = 0;
+        for (long pos = RecordFormat.HEADER_SIZE; pos + RecordFormat.RECORD_HEADER_SIZE <= size; ) {
+            ByteBuffer b = map(pos, RecordFormat.RECORD_HEADER_SIZE);
+            byte type = b.get();
+            long timestamp = b.getLong();
+            int len = b.getInt();
+            if (pos + RecordFormat.RECORD_HEADER_SIZE + len > size) {
+                break; // truncated record at the end
+            }
+            if (type == RecordFormat.KEYFRAME) {
+                keyframes.add(new long[] {timestamp, pos});
+            }
+            last = timestamp;
+            pos += RecordFormat.RECORD_HEADER_SIZE + len;
+        }
+        duration = last;
+
+        seek(0);
+    }
+
+    /**
+     * @return timestamp of the last record, in nanoseconds
+     */
+    public long getDuration() {
+        return duration;
+    }
+
+    /**
+     * @return current replay position, in nanoseconds
+     */
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * Jumps to the given point in time: restores the last keyframe before it and replays the rest
+     *
+     * @param timestamp target time in nanoseconds
+     * @throws IOException if the recording cannot be read
+     */
+    public void seek(long timestamp) throws IOException {
+        // the initial keyframe always applies, it resets the screen
+        long[] keyframe = keyframes.isEmpty() ? null : keyframes.get(0);
+        for (long[] k : keyframes) {
+            if (k[0] > timestamp) {
+                break;
+            }
+            keyframe = k;
+        }
+
+        handler = new CommandHandler(screen, host);
+        time = 0;
+        if (keyframe == null) {
+            position = RecordFormat.HEADER_SIZE;
+        }
+        else {
+            position = keyframe[1];
+            restoreKeyframe();
+        }
+        play(timestamp, false);
+    }
+
+    /**
+     * Replays everything up to the given point in time
+     *
+     * @param timestamp target time in nanoseconds
+     * @param realTime true to replay in real time, false for maximum speed
+     * @return false if the end of the recording was reached
+     * @throws IOException if the recording cannot be read
+     */
+    public boolean play(long timestamp, boolean realTime) throws IOException {
+        long startNanos = System.nanoTime() - time;
+
+        while (position + RecordFormat.RECORD_HEADER_SIZE <= size) {
+            long next = map(position, RecordFormat.RECORD_HEADER_SIZE).getLong(1);
+            if (next > timestamp) {
+                return true;
+            }
+            if (realTime) {
+                sleepUntil(startNanos + next);
+            }
+            if (!step()) {
+                break;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Replays the rest of the recording
+     *
+     * @param realTime true to replay in real time, false for maximum speed
+     * @throws IOException if the recording cannot be read
+     */
+    public void play(boolean realTime) throws IOException {
+        play(Long.MAX_VALUE, realTime);
+    }
+
+    /**
+     * Applies the record at the current position
+     *
+     * @return false if the record is incomplete
+     */
+    private boolean step() throws IOException {
+        ByteBuffer b = map(position, RecordFormat.RECORD_HEADER_SIZE);
+        byte type = b.get();
+        long timestamp = b.getLong();
+        int len = b.getInt();
+        long payload = position + RecordFormat.RECORD_HEADER_SIZE;
+        if (payload + len > size) {
+            return false;
+        }
+
+        b = map(payload, len);
+        switch (type) {
+            case RecordFormat.DATA:
+                if (chunk.length < len) {
+                    chunk = new byte[len];
+                }
+                b.get(chunk, 0, len);
+                handler.parse(chunk, 0, len);
+                break;
+            case RecordFormat.KEYFRAME:
+                // only needed when seeking, the output replayed so far results in the same state
+                break;
+            case RecordFormat.RESIZE:
+                screen.resize(b.getInt(), b.getInt());
+                break;
+        }
+
+        position = payload + len;
+        time = timestamp;
+        return true;
+    }
+
+    /**
+     * Restores the screen from the keyframe at the current position and moves past it
+     */
+    private void restoreKeyframe() throws IOException {
+        ByteBuffer b = map(position, RecordFormat.RECORD_HEADER_SIZE);
+        b.get();
+        time = b.getLong();
+        int len = b.getInt();
+
+        byte[] state = new byte[len];
+        map(position + RecordFormat.RECORD_HEADER_SIZE, len).get(state);
+        try (DataInputStream in = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(state)))) {
+            screen.readState(in);
+        }
+        position += RecordFormat.RECORD_HEADER_SIZE + len;
+    }
+
+    private void sleepUntil(long nanos) throws InterruptedIOException {
+        long delay = nanos - System.nanoTime();
+        if (delay > 0) {
+            try {
+                Thread.sleep(delay / 1_000_000, (int) (delay % 1_000_000));
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+        }
+    }
+
+    /**
+     * Returns a buffer positioned at the given file offset, with at least len bytes remaining.
+     * Maps a new window of the file if necessary
+     */
+    private ByteBuffer map(long pos, int len) throws IOException {
+        if (window == null || pos < windowStart || pos + len > windowStart + window.capacity()) {
+            long mapSize = Math.min(Math.max(WINDOW_SIZE, len), size - pos);
+            window = channel.map(FileChannel.MapMode.READ_ONLY, pos, mapSize);
+            windowStart = pos;
+        }
+        ByteBuffer b = window.duplicate();
+        b.position((int) (pos - windowStart));
+        return b.slice();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
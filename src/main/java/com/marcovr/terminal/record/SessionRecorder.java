@@ -0,0 +1,105 @@
+package com.marcovr.terminal.record;
+
+import com.marcovr.terminal.screen.Screen;
+
+import java.io.*;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Records the raw output of a session into an append-only, timestamped log.
+ * Periodically adds keyframes (complete screen states), so a replay can seek without starting over.
+ */
+public class SessionRecorder implements Closeable {
+
+    private static final long KEYFRAME_BYTES = 1 << 20;
+    private static final long KEYFRAME_NANOS = 10_000_000_000L;
+    private static final int BUFFER_SIZE = 65536;
+
+    private final Screen screen;
+    private final DataOutputStream out;
+    private final long start;
+    private final ByteArrayOutputStream keyframe = new ByteArrayOutputStream();
+
+    private long bytesSinceKeyframe;
+    private long lastKeyframe;
+
+    /**
+     * Creates a new recording. Writes the header and an initial keyframe
+     *
+     * @param file the file to write to (replaced if existing)
+     * @param screen the screen the session is displayed on
+     * @throws IOException if the file cannot be written
+     */
+    public SessionRecorder(File file, Screen screen) throws IOException {
+        this.screen = screen;
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+        start = System.nanoTime();
+
+        out.writeInt(RecordFormat.MAGIC);
+        out.writeInt(RecordFormat.VERSION);
+        out.writeInt(screen.getWidth());
+        out.writeInt(screen.getHeight());
+        writeKeyframe();
+    }
+
+    /**
+     * Records received output. To be called by the thread that parses it, after parsing
+     *
+     * @param data the output
+     * @param off offset into data
+     * @param len number of bytes
+     * @param parserIdle true if the parser is neither in the middle of a sequence nor of a character,
+     *                   i.e. a keyframe may be taken
+     * @throws IOException if the file cannot be written
+     */
+    public synchronized void record(byte[] data, int off, int len, boolean parserIdle) throws IOException {
+        writeHeader(RecordFormat.DATA, len);
+        out.write(data, off, len);
+
+        bytesSinceKeyframe += len;
+        if (parserIdle && (bytesSinceKeyframe >= KEYFRAME_BYTES || elapsed() - lastKeyframe >= KEYFRAME_NANOS)) {
+            writeKeyframe();
+        }
+    }
+
+    /**
+     * Records a change of the screen size
+     *
+     * @param width new width in cells
+     * @param height new height in cells
+     * @throws IOException if the file cannot be written
+     */
+    public synchronized void resize(int width, int height) throws IOException {
+        writeHeader(RecordFormat.RESIZE, 8);
+        out.writeInt(width);
+        out.writeInt(height);
+    }
+
+    private void writeKeyframe() throws IOException {
+        keyframe.reset();
+        try (DataOutputStream state = new DataOutputStream(new DeflaterOutputStream(keyframe))) {
+            screen.writeState(state);
+        }
+
+        lastKeyframe = elapsed();
+        bytesSinceKeyframe = 0;
+        writeHeader(RecordFormat.KEYFRAME, keyframe.size());
+        keyframe.writeTo(out);
+        out.flush();
+    }
+
+    private void writeHeader(byte type, int len) throws IOException {
+        out.writeByte(type);
+        out.writeLong(elapsed());
+        out.writeInt(len);
+    }
+
+    private long elapsed() {
+        return System.nanoTime() - start;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        out.close();
+    }
+}
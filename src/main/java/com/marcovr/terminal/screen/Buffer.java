@@ -1,148 +1,715 @@
 package com.marcovr.terminal.screen;
 
-import java.awt.*;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
 
 class Buffer {
 
+    static final int BLANK = StyleTable.BLANK;
+
     int width, height;
-    Cell[][] cells;
+    final ClusterTable clusters = new ClusterTable();
+    final StyleTable styles = new StyleTable();
+    final History history;
+
+    // the lines form a ring, origin is the index of the top line
+    private Line[] lines;
+    private int origin;
 
-    private Cell[][][] buffers;
+    // the normal and the alternate buffer, which is only created once used
+    private Line[][] buffers;
+    private final int[] origins = new int[2];
+    private Line[] spare;
     private boolean alternate;
-    private Point selectionStart, selectionEnd;
+    private Selection selection;
+
+    // the view: if scrolled back, the row viewRow of the logical history line starting at viewLine is at the top
+    private final ReflowCache reflow;
+    private long viewLine = -1;
+    private int viewRow;
+
+    // the rows shown from the history, with the logical line and row index of each
+    private Line[] view;
+    private ReflowCache.Rows[] viewRows;
+    private int[] viewIndices;
+    private int viewOffset;
+
+    private Damage damage;
 
-    Buffer(int width, int height) {
+    /**
+     * @param memoryBudget bytes of heap for the compressed history
+     * @param diskBudget bytes of disk for the spilled history, 0 to disable spilling
+     */
+    Buffer(int width, int height, long memoryBudget, long diskBudget) {
         this.width = width;
         this.height = height;
+        history = new History(memoryBudget, diskBudget);
+
+        buffers = new Line[][] {init(), null};
+        lines = buffers[0];
+        spare = new Line[height];
+        reflow = new ReflowCache(history, clusters, styles, width);
+        damage = new Damage(width, height);
+        damage.markAll();
+    }
+
+    /**
+     * Marks cells of a buffer row from (inclusive) to (exclusive) dirty
+     */
+    void damage(int y, int from, int to) {
+        if (viewLine >= 0) {
+            // the rows of the view are not the ones of the buffer
+            damage.markAll();
+        }
+        else {
+            damage.mark(y, from, Math.min(to, width));
+        }
+    }
+
+    void damageAll() {
+        damage.markAll();
+    }
+
+    /**
+     * @return the damage recorded so far, recording starts anew
+     */
+    Damage takeDamage() {
+        Damage d = damage;
+        damage = new Damage(width, height);
+        return d;
+    }
+
+    /**
+     * @param y row index, 0 &lt;= y &lt; height
+     * @return the line at the given row
+     */
+    Line line(int y) {
+        int i = origin + y;
+        return lines[i < height ? i : i - height];
+    }
+
+    /**
+     * @param y row index in the view, 0 &lt;= y &lt; height
+     * @return the line displayed at the given row, taking the view offset into account
+     */
+    Line visibleLine(int y) {
+        int offset = getViewOffset();
+        return y < offset ? view[y] : line(y - offset);
+    }
+
+    /**
+     * @return number of history rows shown above the buffer, 0 if not scrolled back
+     */
+    int getViewOffset() {
+        if (viewLine < 0) {
+            return 0;
+        }
+        if (view == null) {
+            buildView();
+        }
+        return viewOffset;
+    }
+
+    /**
+     * @param y row index in the view, 0 &lt;= y &lt; getViewOffset()
+     * @return the logical history line displayed at the given row
+     */
+    ReflowCache.Rows viewRows(int y) {
+        return viewRows[y];
+    }
+
+    /**
+     * @param y row index in the view, 0 &lt;= y &lt; getViewOffset()
+     * @return index of the row of the logical history line displayed at the given row
+     */
+    int viewIndex(int y) {
+        return viewIndices[y];
+    }
+
+    /**
+     * Scrolls the view through the history. Only the logical lines passed are reflowed
+     *
+     * @param rows number of rows to scroll back, negative to scroll forward
+     */
+    void scrollView(int rows) {
+        if (alternate) {
+            return;
+        }
+        long line = viewLine < 0 ? history.end() : Math.max(viewLine, history.start());
+        int row = line == viewLine ? viewRow - rows : -rows;
+
+        while (row < 0 && line > history.start()) {
+            line = reflow.startOf(line - 1);
+            row += reflow.rowCount(line);
+        }
+        row = Math.max(row, 0);
+        while (line < history.end()) {
+            int n = reflow.rowCount(line);
+            if (row < n) {
+                break;
+            }
+            row -= n;
+            line = reflow.next(line);
+        }
+
+        viewLine = line < history.end() ? line : -1;
+        viewRow = row;
+        view = null;
+        damage.markAll();
+    }
+
+    /**
+     * Scrolls the view back to the bottom, i.e. shows the buffer without history
+     */
+    void resetView() {
+        if (viewLine >= 0) {
+            viewLine = -1;
+            view = null;
+            damage.markAll();
+        }
+    }
 
-        buffers = new Cell[2][][];
-        cells = new Cell[height][width];
-        init();
-        buffers[1] = cells;
-        cells = new Cell[height][width];
-        init();
-        buffers[0] = cells;
+    /**
+     * Scrolls the view to show a cell of the history or the buffer near its middle
+     *
+     * @param line absolute line number, history lines come before the buffer rows
+     * @param column column in the line
+     */
+    void showLine(long line, int column) {
+        if (line >= history.end() || line < history.start() || alternate) {
+            resetView();
+            return;
+        }
+        viewLine = reflow.startOf(line);
+        ReflowCache.Rows r = reflow.get(viewLine);
+        viewRow = r.rowOf(r.offsets[(int) (line - viewLine)] + column);
+        scrollView(height / 2);
+    }
+
+    /**
+     * @param line absolute line number, history lines come before the buffer rows
+     * @param column column in the line
+     * @return the row of the view showing the cell, or -1 if it is not visible
+     */
+    int viewRowOf(long line, int column) {
+        int offset = getViewOffset();
+        if (line >= history.end()) {
+            long y = line - history.end() + offset;
+            return y < height ? (int) y : -1;
+        }
+        for (int y = 0; y < offset; y++) {
+            ReflowCache.Rows r = viewRows[y];
+            if (line >= r.start && line < r.start + r.sources
+                    && r.rowOf(r.offsets[(int) (line - r.start)] + column) == viewIndices[y]) {
+                return y;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Reflows the history rows shown, plus a margin of a screen height above and below them
+     */
+    private void buildView() {
+        view = new Line[height];
+        viewRows = new ReflowCache.Rows[height];
+        viewIndices = new int[height];
+
+        long line = Math.max(viewLine, history.start());
+        int row = line == viewLine ? viewRow : 0;
+        int y = 0;
+        while (y < height && line < history.end()) {
+            ReflowCache.Rows r = reflow.get(line);
+            for (row = Math.min(row, r.rows.length - 1); row < r.rows.length && y < height; row++, y++) {
+                view[y] = r.rows[row];
+                viewRows[y] = r;
+                viewIndices[y] = row;
+            }
+            line += r.sources;
+            row = 0;
+        }
+        viewOffset = y;
+
+        // the margins above and below are reflowed ahead of time, so scrolling stays smooth
+        for (int rows = 0; rows < height && line < history.end(); ) {
+            ReflowCache.Rows r = reflow.get(line);
+            rows += r.rows.length;
+            line += r.sources;
+        }
+        line = Math.max(viewLine, history.start());
+        for (int rows = 0; rows < height && line > history.start(); ) {
+            line = reflow.startOf(line - 1);
+            rows += reflow.get(line).rows.length;
+        }
     }
 
-    void resize(int width, int height) {
-        buffers[0] = _resize(buffers[0], width, height);
-        buffers[1] = _resize(buffers[1], width, height);
+    /**
+     * Changes the size. The normal buffer is reflowed: lines that wrapped are joined and wrapped again at the
+     * new width, lines that do not fit anymore move into the history. The alternate buffer is cut off or padded
+     *
+     * @param cursor the cursor to move along with the text of the normal buffer, null if it belongs to the alternate one
+     */
+    void resize(int width, int height, Cursor cursor) {
+        normalize();
+        buffers[0] = reflow(buffers[0], width, height, cursor);
+        if (buffers[1] != null) {
+            buffers[1] = _resize(buffers[1], width, height);
+        }
 
-        cells = alternate ? buffers[1] : buffers[0];
+        lines = alternate ? buffers[1] : buffers[0];
 
+        if (viewLine >= 0) {
+            // keep the same text at the top of the view
+            viewRow = viewRow * this.width / width;
+        }
         this.width = width;
         this.height = height;
+        spare = new Line[height];
+        reflow.setWidth(width);
+        view = null;
+        damage = new Damage(width, height);
+        damage.markAll();
     }
 
-    private Cell[][] _resize(Cell[][] buffer, int newWidth, int newHeight) {
-        int minW = Math.min(width, newWidth);
-        int minH = Math.min(height, newHeight);
+    private Line[] reflow(Line[] buffer, int newWidth, int newHeight, Cursor cursor) {
+        int cursorY = cursor != null ? cursor.getY() : -1;
+        int last = height - 1;
+        while (last > cursorY && last > 0 && isEmpty(buffer[last])) {
+            last--;
+        }
 
-        Color background = CellStyle.getBackground();
-        Color foreground = CellStyle.getForeground();
+        ArrayList<Line> rows = new ArrayList<>(newHeight);
+        ArrayList<Line> sources = new ArrayList<>();
+        int cursorSource = -1;
+        int cursorColumn = 0;
+        int cursorRow = 0;
+        int cursorX = 0;
+        for (int y = 0; y <= last; y++) {
+            if (y == cursorY) {
+                cursorSource = sources.size();
+                cursorColumn = Math.min(cursor.getX(), width - 1);
+            }
+            sources.add(buffer[y]);
+            if (!buffer[y].wrapped || y == last) {
+                boolean inTail = cursorSource == sources.size() - 1;
+                ReflowCache.Rows wrapped = ReflowCache.wrap(sources, newWidth, inTail ? cursorColumn + 1 : 0);
+                if (cursorSource >= 0) {
+                    int position = wrapped.offsets[cursorSource] + cursorColumn;
+                    int row = wrapped.rowOf(position);
+                    cursorRow = rows.size() + row;
+                    cursorX = Math.min(position - wrapped.starts[row], newWidth - 1);
+                    cursorSource = -1;
+                }
+                Collections.addAll(rows, wrapped.rows);
+                sources.clear();
+            }
+        }
+
+        // rows that do not fit move into the history, unless the cursor would go with them
+        int excess = Math.max(0, rows.size() - newHeight);
+        int top = cursor != null ? Math.min(excess, cursorRow) : excess;
+        for (int y = 0; y < top; y++) {
+            history.push(rows.get(y), clusters, styles);
+        }
+
+        Line[] temp = new Line[newHeight];
+        for (int y = 0; y < newHeight; y++) {
+            temp[y] = top + y < rows.size() ? rows.get(top + y) : new Line(newWidth, BLANK);
+        }
+        if (cursor != null) {
+            cursor.setX(cursorX);
+            cursor.setY(cursorRow - top);
+        }
+        return temp;
+    }
 
-        Cell[][] temp = new Cell[newHeight][newWidth];
+    private static boolean isEmpty(Line line) {
+        if (line.wrapped) {
+            return false;
+        }
+        for (int x = 0; x < line.codes.length; x++) {
+            if (line.codes[x] != 0 || line.attrs[x] != BLANK) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Line[] _resize(Line[] buffer, int newWidth, int newHeight) {
+        int minH = Math.min(height, newHeight);
+
+        Line[] temp = new Line[newHeight];
         for (int y = 0; y < minH; y++) {
-            System.arraycopy(buffer[y], 0, temp[y], 0, minW);
-            if (width < newWidth) {
-                for (int x = width; x < newWidth; x++) {
-                    temp[y][x] = new Cell(background, foreground);
+            temp[y] = buffer[y].resize(newWidth, BLANK);
+        }
+        for (int y = minH; y < newHeight; y++) {
+            temp[y] = new Line(newWidth, BLANK);
+        }
+
+        return temp;
+    }
+
+    private Line[] init() {
+        Line[] buffer = new Line[height];
+        for (int y = 0; y < height; y++) {
+            buffer[y] = new Line(width, BLANK);
+        }
+        return buffer;
+    }
+
+    /**
+     * Compacts the style and the cluster table if they are full. No ids may be held outside of the lines while
+     * doing so, but by the cursor, which renumbers the code of the cell it wrote last
+     *
+     * @param cursor the current cursor
+     */
+    void compactTables(Cursor cursor) {
+        boolean compactStyles = styles.isFull(), compactClusters = clusters.isFull();
+        if (!compactStyles && !compactClusters) {
+            return;
+        }
+        Set<Line> used = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Line[] buffer : buffers) {
+            if (buffer != null) {
+                Collections.addAll(used, buffer);
+            }
+        }
+        if (view != null) {
+            for (int y = 0; y < viewOffset; y++) {
+                used.add(view[y]);
+            }
+        }
+        reflow.addLines(used);
+        if (compactStyles) {
+            styles.compact(used);
+        }
+        if (compactClusters) {
+            cursor.compactClusters(used);
+        }
+        // the ids changed in every row
+        damage.markAll();
+    }
+
+    boolean isAlternate() {
+        return alternate;
+    }
+
+    /**
+     * Scrolls the lines from top (inclusive) to bottom (exclusive) up by d lines, or down if d is negative.
+     * The lines scrolled out are recycled as the new blank lines, so nothing is allocated.
+     * Either the lines inside the region are moved, or the origin is moved and the lines outside of the
+     * region are put back in place, whichever is less work. A full screen scroll only moves the origin.
+     *
+     * @param blank attributes id for the new lines
+     * @param save true to move the lines scrolled out at the top of the screen into the history,
+     *             false if they are deleted
+     */
+    void scroll(int top, int bottom, int d, int blank, boolean save) {
+        int n = bottom - top;
+        int outside = height - n;
+
+        if (d > 0) {
+            d = Math.min(d, n);
+            damageScroll(top, bottom, d);
+            if (top == 0 && save && !alternate) {
+                for (int i = 0; i < d; i++) {
+                    history.push(line(i), clusters, styles);
                 }
+                // the view keeps showing the same lines if scrolled back, but they move up
+                view = null;
             }
+            save(top, d);
+            if (outside < n - d) {
+                // the outside lines wrap around the end of the ring: bottom .. height + top
+                for (int j = height + top - 1; j >= bottom; j--) {
+                    set(j + d, get(j));
+                }
+                restore(bottom, d);
+                origin = Math.floorMod(origin + d, height);
+            }
+            else {
+                for (int j = top + d; j < bottom; j++) {
+                    set(j - d, get(j));
+                }
+                restore(bottom - d, d);
+            }
+            clear(bottom - d, bottom, blank);
         }
-        if (height < newHeight) {
-            for (int y = height; y < newHeight; y++) {
-                for (int x = 0; x < newWidth; x++) {
-                    temp[y][x] = new Cell(background, foreground);
+        else if (d < 0) {
+            d = Math.min(-d, n);
+            damageScroll(top, bottom, -d);
+            save(bottom - d, d);
+            if (outside < n - d) {
+                for (int j = bottom; j < height + top; j++) {
+                    set(j - d, get(j));
+                }
+                restore(top - d, d);
+                origin = Math.floorMod(origin - d, height);
+            }
+            else {
+                for (int j = bottom - 1; j >= top + d; j--) {
+                    set(j, get(j - d));
                 }
+                restore(top, d);
             }
+            clear(top, top + d, blank);
         }
+    }
 
-        return temp;
+    private void damageScroll(int top, int bottom, int d) {
+        if (viewLine >= 0) {
+            damage.markAll();
+        }
+        else {
+            damage.scroll(top, bottom, d);
+        }
     }
 
-    private void init() {
-        Color background = CellStyle.getBackground();
-        Color foreground = CellStyle.getForeground();
+    /**
+     * Unlike {@link #line(int)}, these accept any row index and wrap around the ring
+     */
+    private Line get(int y) {
+        return lines[Math.floorMod(origin + y, height)];
+    }
 
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                cells[y][x] = new Cell(background, foreground);
+    private void set(int y, Line line) {
+        lines[Math.floorMod(origin + y, height)] = line;
+    }
+
+    private void save(int y, int n) {
+        for (int i = 0; i < n; i++) {
+            spare[i] = get(y + i);
+        }
+    }
+
+    private void restore(int y, int n) {
+        for (int i = 0; i < n; i++) {
+            set(y + i, spare[i]);
+            spare[i] = null;
+        }
+    }
+
+    private void clear(int from, int to, int blank) {
+        for (int y = from; y < to; y++) {
+            line(y).clear(blank);
+        }
+    }
+
+    /**
+     * Unrolls the rings of both buffers, so their top lines are at index 0
+     */
+    private void normalize() {
+        origins[alternate ? 1 : 0] = origin;
+        for (int b = 0; b < buffers.length; b++) {
+            if (buffers[b] != null && origins[b] != 0) {
+                Line[] temp = new Line[height];
+                System.arraycopy(buffers[b], origins[b], temp, 0, height - origins[b]);
+                System.arraycopy(buffers[b], 0, temp, height - origins[b], origins[b]);
+                buffers[b] = temp;
+                origins[b] = 0;
+            }
+        }
+        lines = alternate ? buffers[1] : buffers[0];
+        origin = 0;
+    }
+
+    void writeState(DataOutput out) throws IOException {
+        normalize();
+        alternateLines();
+        for (Line[] buffer : buffers) {
+            for (Line line : buffer) {
+                for (int x = 0; x < width; x++) {
+                    int code = line.codes[x];
+                    out.writeInt(code < 0 ? -1 : code);
+                    if (code < 0) {
+                        out.writeUTF(clusters.getText(code));
+                    }
+                    out.writeLong(styles.get(line.attrs[x]));
+                }
+                out.writeBoolean(line.wrapped);
+            }
+        }
+    }
+
+    /**
+     * Drops the history and releases its spill file, see {@link History#close()}
+     */
+    void close() {
+        history.close();
+        reflow.clear();
+        resetView();
+        damage.markAll();
+    }
+
+    /**
+     * Reads both buffers, as written by {@link #writeState(DataOutput)}. Dimensions have to match.
+     * The history is not part of the state, it starts over empty
+     */
+    void readState(DataInput in) throws IOException {
+        normalize();
+        history.clear();
+        reflow.clear();
+        resetView();
+        damage.markAll();
+        alternateLines();
+        for (Line[] buffer : buffers) {
+            for (Line line : buffer) {
+                for (int x = 0; x < width; x++) {
+                    int code = in.readInt();
+                    line.codes[x] = code < 0 ? clusters.intern(in.readUTF()) : code;
+                    line.attrs[x] = styles.intern(in.readLong());
+                }
+                line.wrapped = in.readBoolean();
             }
         }
     }
 
     void useAlternate() {
-        alternate = true;
-        cells = buffers[1];
+        resetView();
+        if (!alternate) {
+            origins[0] = origin;
+            origin = origins[1];
+            alternate = true;
+            lines = alternateLines();
+            damage.markAll();
+        }
+    }
+
+    /**
+     * @return the alternate buffer, created blank if it was not used before
+     */
+    private Line[] alternateLines() {
+        if (buffers[1] == null) {
+            buffers[1] = init();
+        }
+        return buffers[1];
     }
 
     void useNormal() {
-        alternate = false;
-        cells = buffers[0];
+        if (alternate) {
+            origins[1] = origin;
+            origin = origins[0];
+            alternate = false;
+            lines = buffers[0];
+            damage.markAll();
+        }
     }
 
+    /**
+     * @return the text of the selection, lines end with CR LF unless they wrapped
+     */
     String getSelection() {
-        if (selectionStart == null) {
+        if (selection == null) {
             return "";
         }
 
         StringBuilder sb = new StringBuilder();
-
-        int x = selectionStart.x;
-        int y = selectionStart.y;
-        while (y < selectionEnd.y || y == selectionEnd.y && x <= selectionEnd.x) {
-            Cell c = cells[y][x];
-            if (c.text != null) {
-                sb.append(c.text);
-            }
-            x++;
-            if (x == width) {
-                x = 0;
-                y++;
-                if (y <= selectionEnd.y) {
-                    sb.append("\r\n");
+        LineText text = new LineText();
+        long end = Math.min(selection.endLine, history.end() + height - 1);
+        for (long line = Math.max(selection.startLine, history.start()); line <= end; line++) {
+            Line l = line < history.end() ? history.get(line, clusters, styles) : line((int) (line - history.end()));
+            text.set(l, clusters);
+            int from = selection.from(line);
+            int to = selection.to(line);
+            for (int i = 0; i < text.text.length(); i++) {
+                int column = text.column(i);
+                if (column >= from && column < to) {
+                    sb.append(text.text.charAt(i));
                 }
             }
+            if (line < end && (selection.block || !l.wrapped)) {
+                sb.append("\r\n");
+            }
         }
 
         return sb.toString();
     }
 
-    void select(Point start, Point end) {
-        if (start.y < end.y || start.y == end.y && start.x < end.x) {
-            selectionStart = start;
-            selectionEnd = end;
-        }
-        else {
-            selectionStart = end;
-            selectionEnd = start;
-        }
-
-        markSelection();
+    /**
+     * Selects the text between two cells of the view, replacing the previous selection
+     *
+     * @param x0 column of a cell of the view
+     * @param y0 row of a cell of the view
+     * @param x1 column of another cell of the view, before or after the first one
+     * @param y1 row of the other cell
+     * @param block true to select the same columns on every line, false to select in reading order
+     */
+    void select(int x0, int y0, int x1, int y1, boolean block) {
+        clearSelection();
+        selection = new Selection(lineAt(x0, y0), columnAt(x0, y0), lineAt(x1, y1), columnAt(x1, y1), block);
+        damageSelection();
     }
 
     void clearSelection() {
-        if (selectionStart != null) {
-            markSelection();
-            selectionStart = null;
+        if (selection != null) {
+            damageSelection();
+            selection = null;
         }
     }
 
-    private void markSelection() {
-        int x = selectionStart.x;
-        int y = selectionStart.y;
-        while (y < selectionEnd.y || y == selectionEnd.y && x <= selectionEnd.x) {
-            Cell c = cells[y][x];
-            Color temp = c.background;
-            c.background = c.foreground;
-            c.foreground = temp;
+    /**
+     * @return the selection, null if nothing is selected
+     */
+    Selection selection() {
+        return selection;
+    }
 
-            x++;
-            if (x == width) {
-                x = 0;
-                y++;
+    /**
+     * Marks the rows of the view showing selected lines
+     */
+    private void damageSelection() {
+        int offset = getViewOffset();
+        for (int y = 0; y < height; y++) {
+            long first = y < offset ? viewRows[y].start : history.end() + y - offset;
+            long last = y < offset ? first + viewRows[y].sources - 1 : first;
+            if (first <= selection.endLine && last >= selection.startLine) {
+                damage.markRows(y, y + 1);
             }
         }
     }
+
+    /**
+     * @param x column in the view
+     * @param y row in the view
+     * @return absolute number of the line displayed at the cell
+     */
+    private long lineAt(int x, int y) {
+        int offset = getViewOffset();
+        if (y >= offset) {
+            return history.end() + y - offset;
+        }
+        ReflowCache.Rows r = viewRows[y];
+        return r.start + sourceAt(r, r.starts[viewIndices[y]] + x);
+    }
+
+    /**
+     * @param x column in the view
+     * @param y row in the view
+     * @return column of the cell in the line displayed at it
+     */
+    private int columnAt(int x, int y) {
+        int offset = getViewOffset();
+        if (y >= offset) {
+            return x;
+        }
+        ReflowCache.Rows r = viewRows[y];
+        int position = r.starts[viewIndices[y]] + x;
+        return position - r.offsets[sourceAt(r, position)];
+    }
+
+    /**
+     * @return index of the history line holding a position of a logical line
+     */
+    private static int sourceAt(ReflowCache.Rows r, int position) {
+        int i = r.sources - 1;
+        while (i > 0 && r.offsets[i] > position) {
+            i--;
+        }
+        return i;
+    }
 }
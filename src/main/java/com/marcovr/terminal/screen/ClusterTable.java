@@ -0,0 +1,222 @@
+package com.marcovr.terminal.screen;
+
+import com.marcovr.terminal.misc.UnicodeHelper;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Side table for the rare cells that hold more than one code point (a grapheme cluster: base character plus
+ * combining marks, emoji sequences, Hangul syllables from jamo).
+ * Clusters are interned and referred to by negative codes, so cells stay a single int.
+ * The table grows until it reaches its limit, then {@link #compact(Collection)} drops the clusters no line uses
+ * anymore, which are mostly the shorter clusters a longer one was built from.
+ * New clusters are written behind the existing ones, into a new array once the current one is full or the table
+ * is compacted, and existing entries are never modified. So the codes a {@link #snapshot()} was taken for can
+ * be read from it without the screen lock.
+ */
+class ClusterTable {
+
+    private static final int MAX_CLUSTERS = 65536;
+    private static final int MIN_LIMIT = 4096;
+
+    /**
+     * Code points a cluster holds at most, further ones are dropped. Nothing breaks a run of combining marks,
+     * and every mark appended interns a longer string
+     */
+    static final int MAX_LENGTH = 32;
+
+    private static final int MAX_APPEND_SLOTS = 8192;
+
+    private String[] clusters = new String[16];
+    private int count;
+    private int limit = MIN_LIMIT;
+    private final Map<String, Integer> codes = new HashMap<>();
+
+    // cache of append(): (code << 21 | appended code point) -> resulting code, open addressing, 0 marks a free slot.
+    // Created by the first append, a screen of plain text never needs it. Cleared once it would grow past
+    // MAX_APPEND_SLOTS, as the pairs it is asked for need not be limited by the table
+    private long[] appendKeys;
+    private int[] appendCodes;
+    private int appended;
+
+    /**
+     * @param s the grapheme cluster
+     * @return the code of the cluster, or its first code point if the table is full
+     */
+    int intern(String s) {
+        Integer code = codes.get(s);
+        if (code == null) {
+            if (count == MAX_CLUSTERS) {
+                return s.codePointAt(0);
+            }
+            if (count == clusters.length) {
+                clusters = Arrays.copyOf(clusters, count * 2);
+            }
+            clusters[count++] = s;
+            code = -count;
+            codes.put(s, code);
+        }
+        return code;
+    }
+
+    /**
+     * @param code a cell code
+     * @return the text of the cell, or null if the cell is empty, "" for the right half of a wide character
+     */
+    String getText(int code) {
+        return getText(clusters, code);
+    }
+
+    /**
+     * @param code a cell code
+     * @return the first code point of the cell
+     */
+    int getBase(int code) {
+        return getBase(clusters, code);
+    }
+
+    /**
+     * Appends a combining character to a cell
+     *
+     * @param code the cell's code
+     * @param c the code point to append
+     * @return the new code of the cell
+     */
+    int append(int code, int c) {
+        if (appendKeys == null) {
+            appendKeys = new long[64];
+            appendCodes = new int[64];
+        }
+
+        long key = (long) code << 21 | c;
+        int mask = appendKeys.length - 1;
+        int i = hash(key) & mask;
+        while (appendCodes[i] != 0) {
+            if (appendKeys[i] == key) {
+                return appendCodes[i];
+            }
+            i = i + 1 & mask;
+        }
+
+        String text = getText(code);
+        int result;
+        if (text != null && text.codePointCount(0, text.length()) >= MAX_LENGTH) {
+            result = code;
+        }
+        else {
+            String mark = UnicodeHelper.codePointToString(c);
+            result = intern(text == null ? mark : text + mark);
+        }
+        appendKeys[i] = key;
+        appendCodes[i] = result;
+        if (++appended * 2 > appendKeys.length) {
+            if (appendKeys.length < MAX_APPEND_SLOTS) {
+                growAppendCache();
+            }
+            else {
+                Arrays.fill(appendCodes, 0);
+                appended = 0;
+            }
+        }
+        return result;
+    }
+
+    private void growAppendCache() {
+        long[] keys = appendKeys;
+        int[] results = appendCodes;
+        appendKeys = new long[keys.length * 2];
+        appendCodes = new int[keys.length * 2];
+        int mask = appendKeys.length - 1;
+        for (int j = 0; j < keys.length; j++) {
+            if (results[j] != 0) {
+                int i = hash(keys[j]) & mask;
+                while (appendCodes[i] != 0) {
+                    i = i + 1 & mask;
+                }
+                appendKeys[i] = keys[j];
+                appendCodes[i] = results[j];
+            }
+        }
+    }
+
+    /**
+     * @return true if the table should be compacted
+     */
+    boolean isFull() {
+        return count >= limit;
+    }
+
+    /**
+     * Drops the clusters that none of the given lines uses and renumbers the others, rewriting the lines.
+     * The limit is raised if most clusters are still in use.
+     *
+     * @param lines every line holding codes of this table, each one once
+     */
+    void compact(Collection<Line> lines) {
+        // new codes are negative, 0 marks a cluster not met yet
+        int[] map = new int[count];
+        String[] kept = new String[clusters.length];
+        int n = 0;
+
+        for (Line line : lines) {
+            int[] cells = line.codes;
+            for (int x = 0; x < cells.length; x++) {
+                int code = cells[x];
+                if (code < 0) {
+                    if (map[-code - 1] == 0) {
+                        kept[n++] = clusters[-code - 1];
+                        map[-code - 1] = -n;
+                    }
+                    cells[x] = map[-code - 1];
+                }
+            }
+        }
+
+        clusters = kept;
+        count = n;
+        limit = Math.min(MAX_CLUSTERS, Math.max(MIN_LIMIT, count * 2));
+        codes.clear();
+        for (int i = 0; i < count; i++) {
+            codes.put(clusters[i], -i - 1);
+        }
+        // the cached codes changed
+        appendKeys = null;
+        appendCodes = null;
+        appended = 0;
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9e3779b97f4a7c15L;
+        return (int) (h ^ h >>> 32);
+    }
+
+    /**
+     * @return the clusters interned so far, by code -1, -2, ...
+     */
+    String[] snapshot() {
+        return clusters;
+    }
+
+    /**
+     * Like {@link #getText(int)}, for a snapshot
+     */
+    static String getText(String[] clusters, int code) {
+        if (code < 0) {
+            return clusters[-code - 1];
+        }
+        if (code == 0) {
+            return null;
+        }
+        return code == Line.WIDE_TAIL ? "" : UnicodeHelper.codePointToString(code);
+    }
+
+    /**
+     * Like {@link #getBase(int)}, for a snapshot
+     */
+    static int getBase(String[] clusters, int code) {
+        return code < 0 ? clusters[-code - 1].codePointAt(0) : code;
+    }
+}
@@ -1,8 +1,13 @@
 package com.marcovr.terminal.screen;
 
+import com.marcovr.terminal.misc.CharProperties;
+import com.marcovr.terminal.misc.Graphemes;
 import com.marcovr.terminal.misc.UnicodeHelper;
 
-import java.awt.*;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Collection;
 
 public class Cursor {
 
@@ -16,8 +21,13 @@ public class Cursor {
     public boolean visible = true;
     public boolean blinking = false;
 
-    private Color foreground = CellStyle.getForeground();
-    private Color background = CellStyle.getBackground();
+    // the cell written last, its code, its grapheme cluster state and where the cursor went afterwards
+    private Line clusterLine;
+    private int clusterX, clusterCode, clusterNextX, clusterState;
+    private boolean clusterWrapDue;
+
+    private int foreground = CellStyle.DEFAULT_FOREGROUND;
+    private int background = CellStyle.DEFAULT_BACKGROUND;
     public int style = CellStyle.REGULAR;
 
     Cursor(Screen screen, Buffer buffer) {
@@ -39,6 +49,30 @@ public class Cursor {
         return c;
     }
 
+    void writeState(DataOutput out) throws IOException {
+        out.writeInt(x);
+        out.writeInt(y);
+        out.writeBoolean(wrapDue);
+        out.writeBoolean(inverted);
+        out.writeBoolean(visible);
+        out.writeBoolean(blinking);
+        out.writeInt(foreground);
+        out.writeInt(background);
+        out.writeInt(style);
+    }
+
+    void readState(DataInput in) throws IOException {
+        x = in.readInt();
+        y = in.readInt();
+        wrapDue = in.readBoolean();
+        inverted = in.readBoolean();
+        visible = in.readBoolean();
+        blinking = in.readBoolean();
+        foreground = in.readInt();
+        background = in.readInt();
+        style = in.readInt();
+    }
+
     public int getX() {
         return x;
     }
@@ -56,7 +90,10 @@ public class Cursor {
         this.y = y;
     }
 
-    public void setForeground(Color foreground) {
+    /**
+     * @param foreground packed colour, a palette index or created by {@link CellStyle#rgb(int, int, int)}
+     */
+    public void setForeground(int foreground) {
         if (inverted) {
             background = foreground;
         }
@@ -65,7 +102,10 @@ public class Cursor {
         }
     }
 
-    public void setBackground(Color background) {
+    /**
+     * @param background packed colour, a palette index or created by {@link CellStyle#rgb(int, int, int)}
+     */
+    public void setBackground(int background) {
         if (inverted) {
             foreground = background;
         }
@@ -77,7 +117,7 @@ public class Cursor {
     public void setInverted(boolean inverted) {
         if (this.inverted != inverted) {
             this.inverted = inverted;
-            Color temp = foreground;
+            int temp = foreground;
             foreground = background;
             background = temp;
         }
@@ -88,7 +128,7 @@ public class Cursor {
     }
 
     public void down(int n) {
-        y = Math.min(y + n, buffer.height);
+        y = Math.min(y + n, buffer.height - 1);
     }
 
     public void left(int n) {
@@ -97,16 +137,24 @@ public class Cursor {
     }
 
     public void right(int n) {
-        x = Math.min(x + n, buffer.width);
+        x = Math.min(x + n, buffer.width - 1);
         wrapDue = false;
     }
 
     public void next() {
-        if (x + 1 == buffer.width) {
+        next(1);
+    }
+
+    /**
+     * Moves the cursor behind a character n cells wide, or onto the last column
+     */
+    private void next(int n) {
+        if (x + n >= buffer.width) {
+            x = buffer.width - 1;
             wrapDue = screen.autoWrap;
         }
         else {
-            x++;
+            x += n;
             wrapDue = false;
         }
     }
@@ -138,7 +186,7 @@ public class Cursor {
         if (y + 1 == screen.scrollBottom) {
             screen.scroll(1);
         }
-        else {
+        else if (y + 1 < buffer.height) {
             y++;
         }
     }
@@ -155,67 +203,247 @@ public class Cursor {
     }
 
     void write(int c) {
+        int property = CharProperties.breakProperty(c);
+        if (continuesCluster()) {
+            int state = Graphemes.next(clusterState, property);
+            if (state != Graphemes.BREAK) {
+                // no boundary: the code point joins the cluster in the cell written last
+                int[] codes = clusterLine.codes;
+                codes[clusterX] = buffer.clusters.append(codes[clusterX], c);
+                clusterCode = codes[clusterX];
+                clusterState = state;
+                int end = clusterX + 1 < buffer.width && codes[clusterX + 1] == Line.WIDE_TAIL ? 2 : 1;
+                buffer.damage(y, clusterX, clusterX + end);
+                return;
+            }
+        }
+
+        // a zero width character without a cluster to join is shown on its own
+        int width = CharProperties.width(c) == 2 && buffer.width > 1 ? 2 : 1;
         if (wrapDue && screen.autoWrap) {
+            buffer.line(y).wrapped = true;
             CR_LF();
         }
+        else if (width == 2 && x + 1 == buffer.width) {
+            // does not fit into the last column
+            if (screen.autoWrap) {
+                buffer.line(y).wrapped = true;
+                CR_LF();
+            }
+            else {
+                x--;
+            }
+        }
 
-        if (writeDiacritic(c)) {
-            return;
+        Line line = buffer.line(y);
+        int from = x, to = x + width;
+        if (line.splitWide(from, to)) {
+            from = Math.max(from - 1, 0);
+            to = Math.min(to + 1, buffer.width);
         }
+        int attrs = attrs();
+        line.codes[x] = c;
+        line.attrs[x] = attrs;
+        if (width == 2) {
+            line.codes[x + 1] = Line.WIDE_TAIL;
+            line.attrs[x + 1] = attrs;
+        }
+        buffer.damage(y, from, to);
 
-        Cell cell = buffer.cells[y][x];
-        cell.foreground = foreground;
-        cell.background = background;
-        cell.font = UnicodeHelper.getAppropriateFont(c, CellStyle.getFont(style));
-        cell.text = UnicodeHelper.codePointToString(c);
-        next();
+        int head = x;
+        next(width);
+        startCluster(line, head, Graphemes.start(property));
     }
 
-    private boolean writeDiacritic(int c) {
-        switch (Character.getType(c)) {
-            case Character.NON_SPACING_MARK:
-            case Character.COMBINING_SPACING_MARK:
-                prev();
-                Cell cell = buffer.cells[y][x];
-                cell.text += UnicodeHelper.codePointToString(c);
-                next();
-                return true;
+    void write(int[] codePoints, int off, int len) {
+        int attrs = attrs();
+        int end = off + len;
+
+        for (int i = off; i < end; ) {
+            int c = codePoints[i];
+
+            if (c >= 0x20 && c < 0x7f && !wrapDue) {
+                // ASCII fast path: single cells that start a cluster each, until anything else comes
+                Line line = buffer.line(y);
+                int from = x, to = x + 1;
+                if (line.splitWide(x, x + 1)) {
+                    from = Math.max(x - 1, 0);
+                    to = Math.min(x + 2, buffer.width);
+                }
+                int last;
+                do {
+                    line.codes[x] = c;
+                    line.attrs[x] = attrs;
+                    last = x;
+
+                    if (x + 1 == buffer.width) {
+                        wrapDue = screen.autoWrap;
+                    }
+                    else {
+                        x++;
+                    }
+                } while (++i < end && (c = codePoints[i]) >= 0x20 && c < 0x7f && !wrapDue);
+
+                // the run may end on the left half of a wide character
+                if (line.splitWide(last, last + 1)) {
+                    to = Math.max(to, last + 2);
+                }
+                buffer.damage(y, from, Math.max(to, last + 1));
+                startCluster(line, last, Graphemes.start(CharProperties.OTHER));
+            }
+            else {
+                write(c);
+                i++;
+            }
         }
-        return false;
     }
 
-    void insertBlanks(int n) {
-        Cell[] line = buffer.cells[y];
-        int w = x + n;
-        System.arraycopy(line, x, line, w, buffer.width - w);
-        for (int i = x; i < w; i++) {
-            clearCell(i, y);
+    /**
+     * Remembers the cell written last, which following code points may join
+     */
+    private void startCluster(Line line, int x, int state) {
+        clusterLine = line;
+        clusterX = x;
+        clusterCode = line.codes[x];
+        clusterState = state;
+        clusterNextX = this.x;
+        clusterWrapDue = wrapDue;
+    }
+
+    /**
+     * @return true if the cursor did not move since the last cell was written, and the cell still holds what
+     * was written
+     */
+    private boolean continuesCluster() {
+        return clusterLine != null && x == clusterNextX && wrapDue == clusterWrapDue
+                && buffer.line(y) == clusterLine && clusterLine.codes[clusterX] == clusterCode;
+    }
+
+    /**
+     * Forgets the cell written last, so the next code point starts a new cell. For edits that leave the
+     * cursor in place but change or move the cells
+     */
+    private void endCluster() {
+        clusterLine = null;
+    }
+
+    /**
+     * Compacts the cluster table, keeping the cell written last open for further code points if it was
+     *
+     * @param lines every line holding cluster codes
+     */
+    void compactClusters(Collection<Line> lines) {
+        boolean open = continuesCluster();
+        buffer.clusters.compact(lines);
+        if (open) {
+            clusterCode = clusterLine.codes[clusterX];
+        }
+        else {
+            endCluster();
         }
     }
 
+    void insertBlanks(int n) {
+        endCluster();
+        Line line = buffer.line(y);
+        int w = Math.min(x + n, buffer.width);
+        boolean split = line.splitWide(x, x);
+        line.splitWide(buffer.width - (w - x), buffer.width);
+        System.arraycopy(line.codes, x, line.codes, w, buffer.width - w);
+        System.arraycopy(line.attrs, x, line.attrs, w, buffer.width - w);
+        line.clear(x, w, blank());
+        damageSplit(y, x, buffer.width, split);
+    }
+
     void delete(int n) {
+        endCluster();
+        wrapDue = false;
+        Line line = buffer.line(y);
+        int w = Math.min(x + n, buffer.width);
+        boolean split = line.splitWide(x, w);
+        System.arraycopy(line.codes, w, line.codes, x, buffer.width - w);
+        System.arraycopy(line.attrs, w, line.attrs, x, buffer.width - w);
+        line.clear(buffer.width - (w - x), buffer.width, blank());
+        damageSplit(y, x, buffer.width, split);
+    }
+
+    /**
+     * Erases n cells from the cursor on, the cells after them stay in place (ECH)
+     */
+    void eraseChars(int n) {
+        endCluster();
         wrapDue = false;
-        Cell[] line = buffer.cells[y];
-        int w = x + n;
-        System.arraycopy(line, w, line, x, buffer.width - w);
-        for (int i = buffer.width - n; i < buffer.width; i++) {
-            clearCell(i, y);
+        int end = Math.min(x + n, buffer.width);
+        Line line = buffer.line(y);
+        boolean split = line.splitWide(x, end);
+        line.clear(x, end, blank());
+        damageSplit(y, x, end, split);
+    }
+
+    /**
+     * Fills a rectangle of cells, from left/top (inclusive) to right/bottom (exclusive), which have to be
+     * within the screen
+     *
+     * @param c the code point to fill with in the current attributes, 0 to erase the cells instead
+     */
+    void fill(int left, int top, int right, int bottom, int c) {
+        endCluster();
+        int attrs = c == 0 ? blank() : attrs();
+        for (int y = top; y < bottom; y++) {
+            Line line = buffer.line(y);
+            boolean split = line.splitWide(left, right);
+            if (c == 0) {
+                line.clear(left, right, attrs);
+            }
+            else {
+                line.fill(left, right, c, attrs);
+            }
+            damageSplit(y, left, right, split);
         }
     }
 
     void clear() {
-        for (int y = 0; y < buffer.height; y++) {
-            clearLine(y);
-        }
+        fill(0, 0, buffer.width, buffer.height, 0);
     }
 
     void clearLine(int y) {
-        for (int x = 0; x < buffer.width; x++) {
-            clearCell(x, y);
-        }
+        endCluster();
+        buffer.line(y).clear(blank());
+        buffer.damage(y, 0, buffer.width);
     }
 
     void clearCell(int x, int y) {
-        buffer.cells[y][x] = new Cell(background, foreground);
+        endCluster();
+        Line line = buffer.line(y);
+        boolean split = line.splitWide(x, x + 1);
+        line.codes[x] = 0;
+        line.attrs[x] = blank();
+        damageSplit(y, x, x + 1, split);
+    }
+
+    /**
+     * Marks cells as changed, and the ones next to them if a wide character was split there
+     */
+    private void damageSplit(int y, int from, int to, boolean split) {
+        if (split) {
+            buffer.damage(y, Math.max(from - 1, 0), Math.min(to + 1, buffer.width));
+        }
+        else {
+            buffer.damage(y, from, to);
+        }
+    }
+
+    /**
+     * @return id of the attributes of written cells
+     */
+    private int attrs() {
+        return buffer.styles.intern(CellStyle.pack(foreground, background, style));
+    }
+
+    /**
+     * @return id of the attributes of cleared cells: the current colours, without style
+     */
+    int blank() {
+        return buffer.styles.intern(CellStyle.pack(foreground, background, CellStyle.REGULAR));
     }
 }
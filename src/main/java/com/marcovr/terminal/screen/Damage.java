@@ -0,0 +1,163 @@
+package com.marcovr.terminal.screen;
+
+import java.util.Arrays;
+
+/**
+ * What changed on the screen since the previous {@link Screen#takeDamage()}, in rows of the view.
+ * To catch up, a consumer first moves the rows of the scroll region up by the scroll delta (down if negative),
+ * then redraws the dirty spans, which already include the rows uncovered by scrolling.
+ */
+public class Damage {
+
+    private final int width, height;
+    private boolean full;
+    private int scrollTop, scrollBottom, scrollDelta;
+
+    // dirty columns of each row, from start (inclusive) to end (exclusive)
+    private final int[] starts, ends;
+
+    Damage(int width, int height) {
+        this.width = width;
+        this.height = height;
+        starts = new int[height];
+        ends = new int[height];
+        Arrays.fill(starts, width);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return true if everything has to be redrawn, the scroll delta and spans are meaningless then
+     */
+    public boolean isFull() {
+        return full;
+    }
+
+    /**
+     * @return true if nothing changed
+     */
+    public boolean isEmpty() {
+        if (full || scrollDelta != 0) {
+            return false;
+        }
+        for (int y = 0; y < height; y++) {
+            if (starts[y] < ends[y]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return first row of the scroll region
+     */
+    public int getScrollTop() {
+        return scrollTop;
+    }
+
+    /**
+     * @return row after the last one of the scroll region
+     */
+    public int getScrollBottom() {
+        return scrollBottom;
+    }
+
+    /**
+     * @return number of rows the scroll region moved up, negative if down, 0 if it did not scroll
+     */
+    public int getScrollDelta() {
+        return scrollDelta;
+    }
+
+    /**
+     * @param y row index
+     * @return true if any cell of the row has to be redrawn
+     */
+    public boolean isDirty(int y) {
+        return full || starts[y] < ends[y];
+    }
+
+    /**
+     * @param y row index
+     * @return first dirty column of the row
+     */
+    public int getStart(int y) {
+        return full ? 0 : starts[y];
+    }
+
+    /**
+     * @param y row index
+     * @return column after the last dirty one of the row, not greater than the start if the row is clean
+     */
+    public int getEnd(int y) {
+        return full ? width : ends[y];
+    }
+
+    /**
+     * Marks the cells of a row from (inclusive) to (exclusive) dirty
+     */
+    void mark(int y, int from, int to) {
+        if (from < starts[y]) {
+            starts[y] = from;
+        }
+        if (to > ends[y]) {
+            ends[y] = to;
+        }
+    }
+
+    /**
+     * Marks whole rows from (inclusive) to (exclusive) dirty
+     */
+    void markRows(int from, int to) {
+        for (int y = Math.max(from, 0); y < Math.min(to, height); y++) {
+            starts[y] = 0;
+            ends[y] = width;
+        }
+    }
+
+    void markAll() {
+        full = true;
+    }
+
+    /**
+     * Records that the rows from top (inclusive) to bottom (exclusive) moved up by d rows, or down if d is negative.
+     * The spans recorded so far move along, the uncovered rows become dirty.
+     * Only one scroll region is tracked, scrolling another one makes everything dirty
+     */
+    void scroll(int top, int bottom, int d) {
+        if (full || d == 0) {
+            return;
+        }
+        if (scrollDelta != 0 && (top != scrollTop || bottom != scrollBottom)) {
+            full = true;
+            return;
+        }
+        scrollTop = top;
+        scrollBottom = bottom;
+        scrollDelta += d;
+
+        int n = bottom - top;
+        if (Math.abs(scrollDelta) >= n) {
+            // everything in the region scrolled out, a plain redraw is just as cheap
+            scrollDelta = 0;
+            markRows(top, bottom);
+            return;
+        }
+        if (d > 0) {
+            System.arraycopy(starts, top + d, starts, top, n - d);
+            System.arraycopy(ends, top + d, ends, top, n - d);
+            markRows(bottom - d, bottom);
+        }
+        else {
+            System.arraycopy(starts, top, starts, top - d, n + d);
+            System.arraycopy(ends, top, ends, top - d, n + d);
+            markRows(top, top - d);
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package com.marcovr.terminal.screen;
+
+/**
+ * An immutable snapshot of what the screen shows, which is painted without holding the screen lock.
+ * A frame shares the rows that did not change with the previous one, so taking it costs in proportion
+ * to the rows that changed rather than the size of the screen.
+ * Frames are all a painter needs to know about the screen: cells, their attributes, the cursor,
+ * the selected cells and the search matches.
+ */
+public class Frame {
+
+    /**
+     * Marks of {@link #getMatches(int, byte[])}
+     */
+    public static final byte MATCH = 1;
+    public static final byte CURRENT_MATCH = 2;
+
+    /**
+     * Code of a cell covered by the wide character in the cell before it, which draws over both
+     */
+    public static final int WIDE_TAIL = Line.WIDE_TAIL;
+
+    private final int width, height;
+    private final Line[] rows;
+
+    // where the text of each row comes from, to highlight matches and the selection: a reflowed history row has the
+    // logical line and its index in it, a buffer row has null and its absolute line number
+    private final ReflowCache.Rows[] logical;
+    private final int[] indices;
+    private final long[] lines;
+
+    private final int cursorX, cursorY;
+    private final boolean inverted;
+    private final Selection selection;
+    private final Search search;
+    private final String[] clusters;
+    private final long[] styles;
+
+    /**
+     * @param b the buffer, its screen's lock has to be held
+     * @param previous the previous frame, may be null
+     * @param damage what changed since the previous frame, null to copy every row
+     * @param cursorX cursor column
+     * @param cursorY cursor row in the view, -1 if hidden
+     * @param inverted true if the screen is inverted
+     * @param search the current search, may be null
+     */
+    Frame(Buffer b, Frame previous, Damage damage, int cursorX, int cursorY, boolean inverted, Search search) {
+        width = b.width;
+        height = b.height;
+        rows = new Line[height];
+        logical = new ReflowCache.Rows[height];
+        indices = new int[height];
+        lines = new long[height];
+        this.cursorX = cursorX;
+        this.cursorY = cursorY;
+        this.inverted = inverted;
+        this.search = search;
+        selection = b.selection();
+        clusters = b.clusters.snapshot();
+        styles = b.styles.snapshot();
+
+        boolean share = previous != null && damage != null && !damage.isFull()
+                && previous.width == width && previous.height == height;
+        int offset = b.getViewOffset();
+        for (int y = 0; y < height; y++) {
+            if (!share || damage.isDirty(y)) {
+                rows[y] = b.visibleLine(y).copy();
+            }
+            else if (y >= damage.getScrollTop() && y < damage.getScrollBottom()) {
+                // rows uncovered by scrolling are dirty, the others moved along
+                rows[y] = previous.rows[y + damage.getScrollDelta()];
+            }
+            else {
+                rows[y] = previous.rows[y];
+            }
+
+            if (y < offset) {
+                logical[y] = b.viewRows(y);
+                indices[y] = b.viewIndex(y);
+            }
+            else {
+                lines[y] = b.history.end() + y - offset;
+            }
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return the code of a cell: 0 if empty, {@link #WIDE_TAIL} for the right half of a wide character,
+     * otherwise pass it to {@link #getText(int)} or {@link #getBase(int)}
+     */
+    public int getCode(int x, int y) {
+        return rows[y].codes[x];
+    }
+
+    /**
+     * @return the attributes id of a cell, equal ids stand for equal attributes
+     */
+    public int getAttrs(int x, int y) {
+        return rows[y].attrs[x];
+    }
+
+    /**
+     * @param code a non-empty cell code
+     * @return the text to draw for it
+     */
+    public String getText(int code) {
+        return ClusterTable.getText(clusters, code);
+    }
+
+    /**
+     * @param code a non-empty cell code
+     * @return its base code point, which decides the font
+     */
+    public int getBase(int code) {
+        return ClusterTable.getBase(clusters, code);
+    }
+
+    /**
+     * @param attrs an attributes id of this frame
+     * @return the packed foreground colour, a palette index or flagged with {@link CellStyle#RGB}
+     */
+    public int getForeground(int attrs) {
+        return CellStyle.foregroundOf(styles[attrs]);
+    }
+
+    /**
+     * @param attrs an attributes id of this frame
+     * @return the packed background colour
+     */
+    public int getBackground(int attrs) {
+        return CellStyle.backgroundOf(styles[attrs]);
+    }
+
+    /**
+     * @param attrs an attributes id of this frame
+     * @return the {@link CellStyle} flags
+     */
+    public int getStyle(int attrs) {
+        return CellStyle.styleOf(styles[attrs]);
+    }
+
+    /**
+     * @return cursor column
+     */
+    public int getCursorX() {
+        return cursorX;
+    }
+
+    /**
+     * @return cursor row, -1 if the cursor is hidden or scrolled out of the view
+     */
+    public int getCursorY() {
+        return cursorY;
+    }
+
+    public boolean isInverted() {
+        return inverted;
+    }
+
+    public boolean hasSelection() {
+        return selection != null;
+    }
+
+    public boolean hasSearch() {
+        return search != null;
+    }
+
+    /**
+     * Finds the selected cells of a row. The selection is anchored to lines, which the rows map to
+     *
+     * @param y the row
+     * @param cells set to true for each selected cell, at least {@link #getWidth()} long, left as is for the others
+     * @return true if any cell is selected
+     */
+    public boolean getSelected(int y, boolean[] cells) {
+        if (selection == null) {
+            return false;
+        }
+        ReflowCache.Rows r = logical[y];
+        if (r == null) {
+            return select(lines[y], 0, width, cells);
+        }
+        // a reflowed row shows parts of one or more history lines
+        boolean any = false;
+        int shift = r.starts[indices[y]];
+        for (int i = 0; i < r.sources; i++) {
+            int end = i + 1 < r.sources ? r.offsets[i + 1] - shift : width;
+            any |= select(r.start + i, r.offsets[i] - shift, end, cells);
+        }
+        return any;
+    }
+
+    /**
+     * Marks the selected cells of a line, where they are displayed in a row
+     *
+     * @param start column of the row showing the first cell of the line, may be negative
+     * @param end column of the row after the last cell of the line shown
+     * @return true if any cell was marked
+     */
+    private boolean select(long line, int start, int end, boolean[] cells) {
+        if (!selection.contains(line)) {
+            return false;
+        }
+        int from = Math.max(Math.max(0, start), selection.from(line) + start);
+        int to = (int) Math.min(Math.min(width, end), (long) selection.to(line) + start);
+        for (int x = from; x < to; x++) {
+            cells[x] = true;
+        }
+        return from < to;
+    }
+
+    /**
+     * Finds the search matches in a row
+     *
+     * @param y the row
+     * @param cells set to {@link #MATCH} or {@link #CURRENT_MATCH} for each cell of a match, at least
+     *              {@link #getWidth()} long, left as is for the others
+     * @return true if any cell is part of a match
+     */
+    public boolean getMatches(int y, byte[] cells) {
+        if (search == null) {
+            return false;
+        }
+        ReflowCache.Rows r = logical[y];
+        if (r == null) {
+            return match(lines[y], 0, cells);
+        }
+        boolean any = false;
+        int shift = r.starts[indices[y]];
+        for (int i = 0; i < r.sources; i++) {
+            any |= match(r.start + i, r.offsets[i] - shift, cells);
+        }
+        return any;
+    }
+
+    /**
+     * Marks the matches in a line, where they are displayed in a row
+     *
+     * @param shift added to the columns of the line to get those in the row
+     * @return true if any cell was marked
+     */
+    private boolean match(long line, int shift, byte[] cells) {
+        int i = search.find(line);
+        if (i < 0) {
+            return false;
+        }
+        boolean any = false;
+        int current = search.current();
+        for (int count = search.count(); i < count && search.line(i) == line; i++) {
+            int from = Math.max(0, search.column(i) + shift);
+            int to = Math.min(width, search.column(i) + search.length(i) + shift);
+            for (int x = from; x < to; x++) {
+                cells[x] = i == current ? CURRENT_MATCH : MATCH;
+            }
+            any |= from < to;
+        }
+        return any;
+    }
+}
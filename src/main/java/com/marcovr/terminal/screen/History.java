@@ -0,0 +1,691 @@
+package com.marcovr.terminal.screen;
+
+import com.marcovr.terminal.misc.UnicodeHelper;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Scrollback history, keeps the lines that scrolled out of the top of the normal buffer.
+ * Lines are encoded compactly (trailing blanks trimmed, attributes run-length encoded) into blocks of
+ * a fixed number of lines. The newest block stays uncompressed, full blocks are deflated on a background
+ * thread shared by all histories (or right away if it falls behind), which also frees their uncompressed data. Past the memory
+ * budget the oldest blocks move into a memory-mapped spill file, which is used as a ring: past the disk
+ * budget the oldest blocks are dropped. The trigram index of a block counts towards the budget it is kept in,
+ * and moves into the spill file along with the block.
+ * Lines are addressed by absolute line numbers, which stay the same as long as a line is retained.
+ */
+class History {
+
+    /**
+     * Heap used for compressed blocks before spilling to disk, in MiB
+     */
+    static final long MEMORY_BUDGET = Long.getLong("terminal.scrollback.memory", 16) << 20;
+
+    /**
+     * Size of the spill file in MiB, 0 to drop old lines instead of spilling
+     */
+    static final long DISK_BUDGET = Long.getLong("terminal.scrollback.disk", 1024) << 20;
+
+    static final int BLOCK_LINES = 256;
+    private static final int CHUNK_SIZE = 16 << 20;
+    private static final int CACHED_BLOCKS = 8;
+    private static final int MAX_LINE_OVERHEAD = 2 * 5 + 8;
+    private static final int MAX_CELL_SIZE = 5 + 5 + 8;
+    private static final int MAX_PENDING = 16;
+
+    private static final ExecutorService COMPRESSOR = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "Scrollback");
+        t.setDaemon(true);
+        return t;
+    });
+    private static final Deflater COMPRESSOR_DEFLATER = new Deflater(Deflater.BEST_SPEED);
+    private static final LineText COMPRESSOR_TEXT = new LineText();
+
+    private static class Block {
+        volatile byte[] raw;        // uncompressed, cleared by the compressor once data is set
+        volatile long[] trigrams;   // set by the compressor, cleared once spilled behind the compressed data
+        byte[] data;                // compressed
+        boolean adopted;            // the compressed size is accounted for
+        boolean spilled;
+        long offset;                // position in the spill file
+        int length;                 // compressed length
+        int rawLength;
+    }
+
+    private final long memoryBudget;
+    private final long diskCapacity;
+
+    private final ArrayList<Block> blocks = new ArrayList<>();
+    private int firstBlock;     // index of the oldest retained block
+    private int firstInMemory;  // index of the oldest block that is not spilled
+    private int firstPending;   // index of the oldest block that is not compressed yet
+    private long start, end;    // absolute numbers of the oldest line and of the line after the newest
+
+    // the open block: offsets of its lines, followed by the lines, grows as needed
+    private byte[] open = new byte[BLOCK_LINES * 4 + 1024];
+    private int openLength = BLOCK_LINES * 4;
+    private int openCount;
+
+    private long memoryUsed, diskUsed, diskPosition;
+    private File spillFile;
+    private FileChannel spill;
+    private MappedByteBuffer[] chunks;
+    private boolean spillFailed;    // or closed, old blocks are dropped from then on
+
+    // created when first needed, the zlib state is large compared to a short history
+    private Deflater deflater;
+    private Inflater inflater;
+    private LineText text;
+    private int readPosition;
+
+    private final Map<Long, byte[]> cache = new LinkedHashMap<Long, byte[]>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, byte[]> eldest) {
+            return size() > CACHED_BLOCKS;
+        }
+    };
+
+    /**
+     * @param memoryBudget bytes of heap for compressed blocks
+     * @param diskBudget bytes of disk for spilled blocks, 0 to disable spilling
+     */
+    History(long memoryBudget, long diskBudget) {
+        this.memoryBudget = memoryBudget;
+        this.diskCapacity = (diskBudget + CHUNK_SIZE - 1) / CHUNK_SIZE * CHUNK_SIZE;
+    }
+
+    /**
+     * @return absolute number of the oldest retained line
+     */
+    long start() {
+        return start;
+    }
+
+    /**
+     * @return absolute number of the line after the newest one
+     */
+    long end() {
+        return end;
+    }
+
+    long size() {
+        return end - start;
+    }
+
+    /**
+     * Appends a line
+     *
+     * @param line the line, it is copied
+     * @param clusters the table its clusters are interned in
+     * @param styles the table its attributes are interned in
+     */
+    void push(Line line, ClusterTable clusters, StyleTable styles) {
+        if (firstPending < blocks.size() && blocks.get(firstPending).raw == null) {
+            adoptCompressed();
+        }
+        putInt(open, openCount * 4, openLength);
+        openCount++;
+        encode(line, clusters, styles);
+        end++;
+
+        if (openCount == BLOCK_LINES) {
+            closeBlock();
+            openLength = BLOCK_LINES * 4;
+            openCount = 0;
+        }
+    }
+
+    /**
+     * Returns a copy of a retained line, with the width it had when it was pushed
+     *
+     * @param line absolute line number, start() &lt;= line &lt; end()
+     * @param clusters the table to intern clusters in
+     * @param styles the table to intern attributes in
+     * @return the line
+     */
+    Line get(long line, ClusterTable clusters, StyleTable styles) {
+        byte[] data = blockOf(line);
+        return decode(data, getInt(data, indexOf(line) * 4), clusters, styles);
+    }
+
+    /**
+     * Reads the start of a line without decoding it
+     *
+     * @param line absolute line number, start() &lt;= line &lt; end()
+     * @return the number of cells up to the trailing blanks shifted left by one, the lowest bit is the wrap flag
+     */
+    int peek(long line) {
+        byte[] data = blockOf(line);
+        long header = varint(data, getInt(data, indexOf(line) * 4));
+        long n = varint(data, (int) header);
+        return (int) (n >>> 32) << 1 | (int) (header >>> 32) & 1;
+    }
+
+    private byte[] blockOf(long line) {
+        return line >= end - openCount ? open : load(line / BLOCK_LINES);
+    }
+
+    private int indexOf(long line) {
+        long openStart = end - openCount;
+        return (int) (line >= openStart ? line - openStart : line % BLOCK_LINES);
+    }
+
+    /**
+     * @return absolute number of the first line in the open block, i.e. of the first line that is not in a closed block
+     */
+    long openStart() {
+        return end - openCount;
+    }
+
+    /**
+     * Extracts the text of a line in the open block
+     *
+     * @param line absolute line number, openStart() &lt;= line &lt; end()
+     * @param out receives the text
+     */
+    void getText(long line, LineText out) {
+        getText(open, (int) (line - openStart()), out);
+    }
+
+    /**
+     * A closed block, with everything needed to search it without holding the screen lock
+     */
+    static class Snapshot {
+        long[] trigrams;    // null if not indexed yet
+        byte[] data;
+        boolean compressed;
+        int rawLength;
+    }
+
+    /**
+     * @param number absolute block number
+     * @return the block, or null if it is not retained or not closed yet
+     */
+    Snapshot snapshot(long number) {
+        long first = start / BLOCK_LINES;
+        if (number < first || number - first >= blocks.size() - firstBlock) {
+            return null;
+        }
+
+        Block b = blocks.get(firstBlock + (int) (number - first));
+        Snapshot s = new Snapshot();
+        s.trigrams = b.trigrams;
+        s.rawLength = b.rawLength;
+        byte[] raw = b.raw;
+        if (raw != null) {
+            s.data = raw;
+        }
+        else if (b.spilled) {
+            s.data = new byte[b.length];
+            byte[] trigrams = new byte[TrigramIndex.BYTES];
+            try {
+                transfer(s.data, b.length, b.offset, false);
+                transfer(trigrams, trigrams.length, (b.offset + b.length) % diskCapacity, false);
+            } catch (IOException e) {
+                throw new IllegalStateException("corrupt scrollback block " + number, e);
+            }
+            s.trigrams = new long[TrigramIndex.BYTES / 8];
+            ByteBuffer.wrap(trigrams).asLongBuffer().get(s.trigrams);
+            s.compressed = true;
+        }
+        else {
+            s.data = b.data;
+            s.compressed = true;
+        }
+        return s;
+    }
+
+    /**
+     * Extracts the text of a line, see {@link LineText}
+     *
+     * @param block an uncompressed block
+     * @param index index of the line in the block
+     * @param out receives the text
+     */
+    static void getText(byte[] block, int index, LineText out) {
+        out.clear();
+        long v = varint(block, getInt(block, index * 4)); // width and wrap flag
+        v = varint(block, (int) v);
+        int n = (int) (v >>> 32);
+        int position = (int) v;
+
+        int last = 0;
+        for (int x = 0; x < n; x++) {
+            v = varint(block, position);
+            position = (int) v;
+            int code = (int) (v >>> 32);
+            if (code == 0) {
+                v = varint(block, position);
+                position = (int) v;
+                int length = (int) (v >>> 32);
+                for (int i = 0; i < length; i++) {
+                    v = varint(block, position);
+                    position = (int) v;
+                    out.append((char) (v >>> 32), x);
+                }
+                last = out.text.length();
+            }
+            else if (code == 1) {
+                out.append(' ', x);
+            }
+            else if (code <= 0x10000) {
+                out.append((char) (code - 1), x);
+                last = out.text.length();
+            }
+            else if (code - 1 != Line.WIDE_TAIL) {
+                out.append(UnicodeHelper.codePointToString(code - 1), x);
+                last = out.text.length();
+            }
+        }
+        out.text.setLength(last);
+    }
+
+    /**
+     * Reads a varint without a cursor
+     *
+     * @return the value in the upper, the position after it in the lower 32 bits
+     */
+    private static long varint(byte[] data, int position) {
+        int v = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = data[position++];
+            v |= (b & 0x7f) << shift;
+            shift += 7;
+        } while (b < 0);
+        return (long) v << 32 | position;
+    }
+
+    /**
+     * Drops all lines
+     */
+    void clear() {
+        blocks.clear();
+        cache.clear();
+        firstBlock = firstInMemory = firstPending = 0;
+        start = end = 0;
+        openLength = BLOCK_LINES * 4;
+        openCount = 0;
+        memoryUsed = diskUsed = diskPosition = 0;
+    }
+
+    /**
+     * Drops all lines and deletes the spill file. The history stays usable, but drops old lines instead of
+     * spilling them from then on
+     */
+    void close() {
+        clear();
+        spillFailed = true;
+        if (spill != null) {
+            try {
+                spill.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            // the mappings are released once collected, the file is gone before on systems that allow it
+            chunks = null;
+            spill = null;
+            spillFile.delete();
+            spillFile = null;
+        }
+        if (deflater != null) {
+            deflater.end();
+            deflater = null;
+        }
+        if (inflater != null) {
+            inflater.end();
+            inflater = null;
+        }
+    }
+
+    private void closeBlock() {
+        Block b = new Block();
+        b.raw = Arrays.copyOf(open, openLength);
+        b.rawLength = openLength;
+        blocks.add(b);
+        memoryUsed += openLength;
+
+        if (blocks.size() - firstPending > MAX_PENDING) {
+            if (deflater == null) {
+                deflater = new Deflater(Deflater.BEST_SPEED);
+                text = new LineText();
+            }
+            compress(b, deflater, text);
+        }
+        else {
+            COMPRESSOR.execute(() -> compress(b, COMPRESSOR_DEFLATER, COMPRESSOR_TEXT));
+        }
+
+        adoptCompressed();
+        while (memoryUsed > memoryBudget && firstInMemory < firstPending) {
+            if (diskCapacity == 0 || spillFailed || !spill(blocks.get(firstInMemory))) {
+                dropOldest();
+            }
+        }
+    }
+
+    /**
+     * Accounts for the blocks the compressor finished since the last call
+     */
+    private void adoptCompressed() {
+        for (int i = firstPending; i < blocks.size(); i++) {
+            Block b = blocks.get(i);
+            if (!b.adopted && b.raw == null) {
+                b.adopted = true;
+                memoryUsed += b.length + TrigramIndex.BYTES - b.rawLength;
+            }
+        }
+        while (firstPending < blocks.size() && blocks.get(firstPending).adopted) {
+            firstPending++;
+        }
+    }
+
+    /**
+     * Indexes and compresses a block, then replaces its uncompressed data. Readers take the uncompressed data
+     * into a local first, and see the compressed data once it is cleared
+     */
+    private static void compress(Block b, Deflater deflater, LineText text) {
+        byte[] raw = b.raw;
+        b.trigrams = TrigramIndex.of(text, raw, BLOCK_LINES);
+        byte[] data = compress(deflater, raw);
+        b.data = data;
+        b.length = data.length;
+        b.raw = null;
+    }
+
+    private static byte[] compress(Deflater deflater, byte[] raw) {
+        deflater.reset();
+        deflater.setInput(raw);
+        deflater.finish();
+        byte[] out = new byte[raw.length / 4 + 64];
+        int length = 0;
+        while (!deflater.finished()) {
+            if (length == out.length) {
+                out = Arrays.copyOf(out, length * 2);
+            }
+            length += deflater.deflate(out, length, out.length - length);
+        }
+        return Arrays.copyOf(out, length);
+    }
+
+    /**
+     * Moves the oldest block in memory into the spill file, followed by its trigram index. Drops the oldest
+     * spilled blocks if the file is full
+     *
+     * @return false if spilling failed
+     */
+    private boolean spill(Block b) {
+        int size = b.length + TrigramIndex.BYTES;
+        if (size > diskCapacity) {
+            return false;
+        }
+        try {
+            if (spill == null) {
+                spillFile = File.createTempFile("scrollback", ".tmp");
+                spillFile.deleteOnExit();
+                spill = new RandomAccessFile(spillFile, "rw").getChannel();
+                chunks = new MappedByteBuffer[(int) (diskCapacity / CHUNK_SIZE)];
+            }
+            while (diskUsed + size > diskCapacity) {
+                dropOldest();
+            }
+
+            b.offset = diskPosition;
+            transfer(b.data, b.length, b.offset, true);
+            byte[] trigrams = new byte[TrigramIndex.BYTES];
+            ByteBuffer.wrap(trigrams).asLongBuffer().put(b.trigrams);
+            transfer(trigrams, trigrams.length, (b.offset + b.length) % diskCapacity, true);
+            diskPosition = (diskPosition + size) % diskCapacity;
+        } catch (IOException e) {
+            e.printStackTrace();
+            spillFailed = true;
+            return false;
+        }
+
+        diskUsed += size;
+        memoryUsed -= size;
+        b.data = null;
+        b.trigrams = null;
+        b.spilled = true;
+        firstInMemory++;
+        return true;
+    }
+
+    /**
+     * Copies between a byte array and the spill file, which is a ring of mapped chunks
+     */
+    private void transfer(byte[] data, int length, long position, boolean write) throws IOException {
+        int done = 0;
+        while (done < length) {
+            int chunk = (int) (position / CHUNK_SIZE);
+            int offset = (int) (position % CHUNK_SIZE);
+            int n = Math.min(length - done, CHUNK_SIZE - offset);
+
+            if (chunks[chunk] == null) {
+                chunks[chunk] = spill.map(FileChannel.MapMode.READ_WRITE, (long) chunk * CHUNK_SIZE, CHUNK_SIZE);
+            }
+            MappedByteBuffer buffer = chunks[chunk];
+            buffer.position(offset);
+            if (write) {
+                buffer.put(data, done, n);
+            }
+            else {
+                buffer.get(data, done, n);
+            }
+
+            done += n;
+            position = (position + n) % diskCapacity;
+        }
+    }
+
+    private void dropOldest() {
+        Block b = blocks.get(firstBlock);
+        if (b.spilled) {
+            diskUsed -= b.length + TrigramIndex.BYTES;
+        }
+        else {
+            memoryUsed -= b.adopted ? b.length + TrigramIndex.BYTES : b.rawLength;
+        }
+        blocks.set(firstBlock, null);
+        firstBlock++;
+        firstInMemory = Math.max(firstInMemory, firstBlock);
+        firstPending = Math.max(firstPending, firstBlock);
+        start += BLOCK_LINES;
+
+        // compact the list once the dropped part dominates
+        if (firstBlock > 1024 && firstBlock > blocks.size() / 2) {
+            blocks.subList(0, firstBlock).clear();
+            firstInMemory -= firstBlock;
+            firstPending -= firstBlock;
+            firstBlock = 0;
+        }
+    }
+
+    /**
+     * @param number absolute block number
+     * @return the uncompressed block
+     */
+    private byte[] load(long number) {
+        byte[] raw = cache.get(number);
+        if (raw != null) {
+            return raw;
+        }
+
+        Block b = blocks.get(firstBlock + (int) (number - start / BLOCK_LINES));
+        raw = b.raw;
+        if (raw != null) {
+            return raw;
+        }
+
+        byte[] data = b.data;
+        try {
+            if (b.spilled) {
+                data = new byte[b.length];
+                transfer(data, b.length, b.offset, false);
+            }
+
+            raw = new byte[b.rawLength];
+            if (inflater == null) {
+                inflater = new Inflater();
+            }
+            inflater.reset();
+            inflater.setInput(data, 0, b.length);
+            inflater.inflate(raw);
+        } catch (IOException | DataFormatException e) {
+            throw new IllegalStateException("corrupt scrollback block " + number, e);
+        }
+
+        cache.put(number, raw);
+        return raw;
+    }
+
+    /**
+     * Appends a line to the open block: width and wrap flag, number of cells up to the trailing blanks, their codes,
+     * their attributes as runs, then the attributes of the trailing blanks.
+     * Attributes are stored packed rather than as ids, so blocks do not depend on the style table
+     */
+    private void encode(Line line, ClusterTable clusters, StyleTable styles) {
+        int[] codes = line.codes;
+        int[] attrs = line.attrs;
+        int width = codes.length;
+        int fill = attrs[width - 1];
+        int n = line.length();
+
+        // room for the worst case: every code 5 bytes, every cell a run of its own
+        ensureOpen(MAX_LINE_OVERHEAD + n * MAX_CELL_SIZE);
+        byte[] buf = open;
+        int pos = putVarint(buf, openLength, width << 1 | (line.wrapped ? 1 : 0));
+        pos = putVarint(buf, pos, n);
+        for (int x = 0; x < n; x++) {
+            int code = codes[x];
+            if (code >= 0 && code < 0x7f) {
+                buf[pos++] = (byte) (code + 1);
+            }
+            else if (code > 0) {
+                pos = putVarint(buf, pos, code + 1);
+            }
+            else {
+                String s = clusters.getText(code);
+                openLength = pos;
+                ensureOpen(MAX_LINE_OVERHEAD + s.length() * 3 + (n - x) * MAX_CELL_SIZE);
+                buf = open;
+                pos = putVarint(buf, pos, 0);
+                pos = putVarint(buf, pos, s.length());
+                for (int i = 0; i < s.length(); i++) {
+                    pos = putVarint(buf, pos, s.charAt(i));
+                }
+            }
+        }
+
+        for (int x = 0; x < n; ) {
+            int a = attrs[x];
+            int run = 1;
+            while (x + run < n && attrs[x + run] == a) {
+                run++;
+            }
+            pos = putVarint(buf, pos, run);
+            pos = putLong(buf, pos, styles.get(a));
+            x += run;
+        }
+        openLength = putLong(buf, pos, styles.get(fill));
+    }
+
+    private Line decode(byte[] data, int position, ClusterTable clusters, StyleTable styles) {
+        readPosition = position;
+        int header = readVarint(data);
+        int width = header >>> 1;
+        int n = readVarint(data);
+
+        Line line = new Line(width, Buffer.BLANK);
+        line.wrapped = (header & 1) != 0;
+        for (int x = 0; x < n; x++) {
+            int code = readVarint(data);
+            if (code == 0) {
+                char[] chars = new char[readVarint(data)];
+                for (int i = 0; i < chars.length; i++) {
+                    chars[i] = (char) readVarint(data);
+                }
+                code = clusters.intern(new String(chars));
+            }
+            else {
+                code--;
+            }
+            line.codes[x] = code;
+        }
+
+        for (int x = 0; x < n; ) {
+            int run = readVarint(data);
+            int attrs = styles.intern(readLong(data));
+            Arrays.fill(line.attrs, x, x + run, attrs);
+            x += run;
+        }
+        Arrays.fill(line.attrs, n, width, styles.intern(readLong(data)));
+        return line;
+    }
+
+    private void ensureOpen(int n) {
+        if (openLength + n > open.length) {
+            open = Arrays.copyOf(open, Math.max(open.length * 2, openLength + n));
+        }
+    }
+
+    private static int putVarint(byte[] data, int position, int v) {
+        while ((v & ~0x7f) != 0) {
+            data[position++] = (byte) (v | 0x80);
+            v >>>= 7;
+        }
+        data[position++] = (byte) v;
+        return position;
+    }
+
+    private static int putLong(byte[] data, int position, long v) {
+        putInt(data, position, (int) (v >>> 32));
+        putInt(data, position + 4, (int) v);
+        return position + 8;
+    }
+
+    private int readVarint(byte[] data) {
+        int v = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = data[readPosition++];
+            v |= (b & 0x7f) << shift;
+            shift += 7;
+        } while (b < 0);
+        return v;
+    }
+
+    private long readLong(byte[] data) {
+        long v = (long) getInt(data, readPosition) << 32 | getInt(data, readPosition + 4) & 0xffffffffL;
+        readPosition += 8;
+        return v;
+    }
+
+    private static void putInt(byte[] data, int position, int v) {
+        data[position] = (byte) (v >>> 24);
+        data[position + 1] = (byte) (v >>> 16);
+        data[position + 2] = (byte) (v >>> 8);
+        data[position + 3] = (byte) v;
+    }
+
+    private static int getInt(byte[] data, int position) {
+        return (data[position] & 0xff) << 24 | (data[position + 1] & 0xff) << 16
+                | (data[position + 2] & 0xff) << 8 | data[position + 3] & 0xff;
+    }
+}
@@ -0,0 +1,115 @@
+package com.marcovr.terminal.screen;
+
+import java.util.Arrays;
+
+/**
+ * One row of the screen, stored as primitive arrays instead of an object per cell.
+ * A code is either a code point (0 for an empty cell) or, if negative, refers to a grapheme cluster
+ * in the buffer's {@link ClusterTable}. Attributes are ids in the buffer's {@link StyleTable}.
+ * A wide character takes two cells: its code in the first, {@link #WIDE_TAIL} in the second.
+ */
+class Line {
+
+    /**
+     * Code of the cell covered by the right half of the wide character before it.
+     * Above the code point range, so it is stored like any other code point
+     */
+    static final int WIDE_TAIL = Character.MAX_CODE_POINT + 1;
+
+    final int[] codes;
+    final int[] attrs;
+
+    /**
+     * True if the text continues on the next line, because the cursor wrapped at the end of this one
+     */
+    boolean wrapped;
+
+    Line(int width, int blank) {
+        codes = new int[width];
+        attrs = new int[width];
+        Arrays.fill(attrs, blank);
+    }
+
+    private Line(int[] codes, int[] attrs) {
+        this.codes = codes;
+        this.attrs = attrs;
+    }
+
+    /**
+     * Empties the cells from (inclusive) to (exclusive). Clearing the end of the line also clears the wrap flag
+     */
+    void clear(int from, int to, int blank) {
+        fill(from, to, 0, blank);
+        if (to == codes.length) {
+            wrapped = false;
+        }
+    }
+
+    /**
+     * Sets the cells from (inclusive) to (exclusive) to the same code and attributes
+     */
+    void fill(int from, int to, int code, int attrs) {
+        Arrays.fill(codes, from, to, code);
+        Arrays.fill(this.attrs, from, to, attrs);
+    }
+
+    /**
+     * Empties the halves of wide characters that would lose their other half when the cells from (inclusive)
+     * to (exclusive) are overwritten or moved away
+     *
+     * @return true if a cell was emptied
+     */
+    boolean splitWide(int from, int to) {
+        boolean split = false;
+        if (from > 0 && from < codes.length && codes[from] == WIDE_TAIL) {
+            codes[from - 1] = 0;
+            split = true;
+        }
+        if (to < codes.length && codes[to] == WIDE_TAIL) {
+            codes[to] = 0;
+            split = true;
+        }
+        return split;
+    }
+
+    void clear(int blank) {
+        clear(0, codes.length, blank);
+    }
+
+    /**
+     * @return number of cells up to the last one that is not empty or differs from the last cell's attributes
+     */
+    int length() {
+        int fill = attrs[attrs.length - 1];
+        int n = codes.length;
+        while (n > 0 && codes[n - 1] == 0 && attrs[n - 1] == fill) {
+            n--;
+        }
+        return n;
+    }
+
+    /**
+     * @return a copy of this line
+     */
+    Line copy() {
+        Line l = new Line(codes.clone(), attrs.clone());
+        l.wrapped = wrapped;
+        return l;
+    }
+
+    /**
+     * @return a copy of this line with the given width, or this line if the width matches
+     */
+    Line resize(int width, int blank) {
+        if (width == codes.length) {
+            return this;
+        }
+
+        Line l = new Line(width, blank);
+        int n = Math.min(width, codes.length);
+        System.arraycopy(codes, 0, l.codes, 0, n);
+        System.arraycopy(attrs, 0, l.attrs, 0, n);
+        l.wrapped = wrapped;
+        return l;
+    }
+}
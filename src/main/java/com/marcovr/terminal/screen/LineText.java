@@ -0,0 +1,71 @@
+package com.marcovr.terminal.screen;
+
+import java.util.Arrays;
+
+/**
+ * Reusable text of a single line, for searching. Empty cells become spaces, trailing ones are omitted.
+ * Keeps the column of every char, since cells may hold more than one char.
+ */
+class LineText {
+
+    final StringBuilder text = new StringBuilder();
+    private int[] columns = new int[256];
+
+    void clear() {
+        text.setLength(0);
+    }
+
+    /**
+     * Appends the text of a cell
+     *
+     * @param s the text, null for an empty cell
+     * @param column the column of the cell
+     */
+    void append(String s, int column) {
+        if (s == null) {
+            append(' ', column);
+        }
+        else {
+            for (int i = 0; i < s.length(); i++) {
+                append(s.charAt(i), column);
+            }
+        }
+    }
+
+    void append(char c, int column) {
+        int i = text.length();
+        if (i == columns.length) {
+            columns = Arrays.copyOf(columns, i * 2);
+        }
+        columns[i] = column;
+        text.append(c);
+    }
+
+    /**
+     * Copies the text of a line
+     */
+    void set(Line line, ClusterTable clusters) {
+        clear();
+        int n = line.codes.length;
+        while (n > 0 && line.codes[n - 1] == 0) {
+            n--;
+        }
+        for (int x = 0; x < n; x++) {
+            int code = line.codes[x];
+            if (code > 0 && code < 0x10000) {
+                append((char) code, x);
+            }
+            else {
+                append(clusters.getText(code), x);
+            }
+        }
+    }
+
+    /**
+     * @param index index of a char
+     * @return the column of the cell holding it
+     */
+    int column(int index) {
+        return columns[index];
+    }
+}
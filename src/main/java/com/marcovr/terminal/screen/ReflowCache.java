@@ -0,0 +1,208 @@
+package com.marcovr.terminal.screen;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * History lines reflowed to the current width. Lines that soft-wrapped are joined into logical lines,
+ * which are wrapped again at the current width. Reflowing is done lazily, only for the logical lines
+ * that get displayed, and the most recently used ones are kept until the width changes.
+ * Logical lines never cross history blocks, which bounds the work for a single one.
+ */
+class ReflowCache {
+
+    private static final int CAPACITY = 1024;
+
+    /**
+     * A logical line, reflowed. Positions in it count its cells, without the blanks wide characters that did
+     * not fit into the last column left there
+     */
+    static class Rows {
+        long start;         // absolute number of its first history line
+        int sources;        // number of history lines
+        int[] offsets;      // position of each history line in the logical line
+        int[] starts;       // position of each row in the logical line
+        Line[] rows;
+        boolean open;       // the logical line may continue in lines pushed later
+
+        /**
+         * @param position a position in the logical line
+         * @return index of the row showing it
+         */
+        int rowOf(int position) {
+            int i = Arrays.binarySearch(starts, position);
+            return i >= 0 ? i : Math.max(0, -i - 2);
+        }
+    }
+
+    private final History history;
+    private final ClusterTable clusters;
+    private final StyleTable styles;
+    private int width;
+
+    private final Map<Long, Rows> cache = new LinkedHashMap<Long, Rows>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Rows> eldest) {
+            return size() > CAPACITY;
+        }
+    };
+
+    ReflowCache(History history, ClusterTable clusters, StyleTable styles, int width) {
+        this.history = history;
+        this.clusters = clusters;
+        this.styles = styles;
+        this.width = width;
+    }
+
+    void setWidth(int width) {
+        if (width != this.width) {
+            this.width = width;
+            cache.clear();
+        }
+    }
+
+    void clear() {
+        cache.clear();
+    }
+
+    /**
+     * Adds the rows of all cached logical lines to a collection
+     */
+    void addLines(Collection<Line> lines) {
+        for (Rows r : cache.values()) {
+            Collections.addAll(lines, r.rows);
+        }
+    }
+
+    /**
+     * @param line absolute history line number, start() &lt;= line &lt; end()
+     * @return absolute number of the first line of the logical line containing it
+     */
+    long startOf(long line) {
+        long min = Math.max(history.start(), line - line % History.BLOCK_LINES);
+        while (line > min && (history.peek(line - 1) & 1) != 0) {
+            line--;
+        }
+        return line;
+    }
+
+    /**
+     * @param start absolute number of the first line of a logical line
+     * @return its number of rows at the current width, a single line that fits is not reflowed for this
+     */
+    int rowCount(long start) {
+        Rows r = cache.get(start);
+        if (r == null) {
+            int peek = history.peek(start);
+            if ((peek & 1) == 0 && peek >>> 1 <= width) {
+                return 1;
+            }
+            r = get(start);
+        }
+        return r.rows.length;
+    }
+
+    /**
+     * @param start absolute number of the first line of a logical line
+     * @return absolute number of the first line of the next logical line
+     */
+    long next(long start) {
+        return (history.peek(start) & 1) == 0 ? start + 1 : start + get(start).sources;
+    }
+
+    /**
+     * @param start absolute number of the first line of a logical line
+     * @return the logical line, reflowed to the current width
+     */
+    Rows get(long start) {
+        Rows r = cache.get(start);
+        if (r != null && !(r.open && r.start + r.sources < history.end())) {
+            return r;
+        }
+
+        long end = Math.min(history.end(), start - start % History.BLOCK_LINES + History.BLOCK_LINES);
+        ArrayList<Line> sources = new ArrayList<>();
+        Line line;
+        do {
+            line = history.get(start + sources.size(), clusters, styles);
+            sources.add(line);
+        } while (line.wrapped && start + sources.size() < end);
+
+        r = wrap(sources, width, 0);
+        r.start = start;
+        r.open = line.wrapped && start + r.sources == history.end();
+        cache.put(start, r);
+        return r;
+    }
+
+    /**
+     * Joins lines into one logical line and wraps it at the given width. Every line but the last one is
+     * taken completely, except for a blank in its last column that a wide character did not fit into.
+     * The last one is taken up to its trailing blanks, whose attributes fill the last row.
+     * A wide character that would start in the last column of a row moves on to the next row, like the cursor
+     * writes it, leaving a blank
+     *
+     * @param sources the lines, every one but the last has to be wrapped
+     * @param width width of the new rows
+     * @param minTail minimum number of cells taken from the last line, e.g. to keep the cursor in it
+     * @return the logical line, without start: the new rows, which are wrapped except for the last one if the last
+     * source is not, and the positions of the sources and rows
+     */
+    static Rows wrap(List<Line> sources, int width, int minTail) {
+        Rows r = new Rows();
+        r.sources = sources.size();
+        r.offsets = new int[r.sources];
+        r.starts = new int[4];
+        ArrayList<Line> rows = new ArrayList<>();
+        Line last = sources.get(r.sources - 1);
+        int fill = last.attrs[last.attrs.length - 1];
+
+        Line row = null;
+        int column = width;
+        int position = 0;
+        for (int i = 0; i < r.sources; i++) {
+            Line source = sources.get(i);
+            r.offsets[i] = position;
+            int n = source.codes.length;
+            if (i == r.sources - 1) {
+                n = Math.max(source.length(), Math.min(minTail, n));
+            }
+            else if (source.codes[n - 1] == 0 && isWideHead(sources.get(i + 1), 0)) {
+                n--;
+            }
+
+            for (int x = 0; x < n; x++, position++) {
+                if (column == width || column == width - 1 && width > 1 && isWideHead(source, x)) {
+                    if (rows.size() == r.starts.length) {
+                        r.starts = Arrays.copyOf(r.starts, rows.size() * 2);
+                    }
+                    r.starts[rows.size()] = position;
+                    row = new Line(width, fill);
+                    row.wrapped = true;
+                    rows.add(row);
+                    column = 0;
+                }
+                row.codes[column] = source.codes[x];
+                row.attrs[column] = source.attrs[x];
+                column++;
+            }
+        }
+
+        if (rows.isEmpty()) {
+            rows.add(new Line(width, fill));
+        }
+        rows.get(rows.size() - 1).wrapped = last.wrapped;
+        r.rows = rows.toArray(new Line[0]);
+        r.starts = Arrays.copyOf(r.starts, r.rows.length);
+        return r;
+    }
+
+    private static boolean isWideHead(Line line, int x) {
+        return x + 1 < line.codes.length && line.codes[x + 1] == Line.WIDE_TAIL;
+    }
+}
@@ -1,12 +1,24 @@
 package com.marcovr.terminal.screen;
 
-import java.awt.*;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 public class Screen {
 
     private final Buffer buffer;
     private Cursor cursor;
     private Cursor savedCursor;
+    private Search search;
+
+    // what the previous damage was taken for: the cursor cell in the view (y = -1 if hidden) and inversion
+    private int damageCursorX, damageCursorY = -1;
+    private boolean damageInverted;
+
+    // what is painted, replaced by every takeDamage()
+    private volatile Frame frame;
 
     public int scrollTop, scrollBottom;
     public boolean autoWrap, replaceMode, inverted;
@@ -16,7 +28,19 @@ public class Screen {
     }
 
     public Screen(int width, int height) {
-        buffer = new Buffer(width, height);
+        this(width, height, History.MEMORY_BUDGET, History.DISK_BUDGET);
+    }
+
+    /**
+     * Creates a screen with its own scrollback budget, e.g. to fit many screens into a server
+     *
+     * @param width columns
+     * @param height rows
+     * @param scrollbackMemory bytes of heap for the compressed scrollback
+     * @param scrollbackDisk bytes of disk for scrollback spilled from the heap, 0 to drop old lines instead
+     */
+    public Screen(int width, int height, long scrollbackMemory, long scrollbackDisk) {
+        buffer = new Buffer(width, height, scrollbackMemory, scrollbackDisk);
         cursor = savedCursor = new Cursor(this, buffer);
 
         scrollTop = 0;
@@ -37,52 +61,212 @@ public class Screen {
     public synchronized void resize(int width, int height) {
         if (width != buffer.width || height != buffer.height) {
             buffer.clearSelection();
-            if (cursor.getY() >= height) {
+            if (buffer.isAlternate() && cursor.getY() >= height) {
                 _scroll(cursor.getY() - (height - 1));
             }
 
             scrollBottom += height - buffer.height;
-            buffer.resize(width, height);
+            if (scrollTop >= scrollBottom - 1 || scrollBottom > height) {
+                scrollTop = 0;
+                scrollBottom = height;
+            }
+            buffer.resize(width, height, buffer.isAlternate() ? null : cursor);
             cursor.setX(Math.min(cursor.getX(), width - 1));
             cursor.setY(Math.min(cursor.getY(), height - 1));
         }
     }
 
+    /**
+     * Sets the scroll region and moves the cursor home (DECSTBM).
+     * Ignored unless 1 &lt;= top &lt; bottom &lt;= height, 0 selects the default
+     *
+     * @param top first row of the region, 1-based
+     * @param bottom last row of the region, 1-based
+     */
+    public synchronized void setScrollRegion(int top, int bottom) {
+        if (top == 0) {
+            top = 1;
+        }
+        if (bottom == 0) {
+            bottom = buffer.height;
+        }
+        if (top >= 1 && top < bottom && bottom <= buffer.height) {
+            scrollTop = top - 1;
+            scrollBottom = bottom;
+            cursor.setX(0);
+            cursor.setY(0);
+        }
+    }
+
     public synchronized void clear() {
-        buffer.clearSelection();
         cursor.clear();
     }
 
     public synchronized void clearLine(int y) {
-        buffer.clearSelection();
         cursor.clearLine(y);
     }
 
     public synchronized void clearCell(int x, int y) {
-        buffer.clearSelection();
         cursor.clearCell(x, y);
     }
 
+    /**
+     * Erases n cells from the cursor on, the cells after them stay in place (ECH)
+     */
+    public synchronized void eraseChars(int n) {
+        cursor.eraseChars(n);
+    }
+
+    /**
+     * Fills a rectangle with a character in the current attributes (DECFRA). Bounds are clipped to the screen
+     *
+     * @param c the code point
+     * @param left first column
+     * @param top first row
+     * @param right column after the last one
+     * @param bottom row after the last one
+     */
+    public synchronized void fillRect(int c, int left, int top, int right, int bottom) {
+        fill(c, left, top, right, bottom);
+    }
+
+    /**
+     * Erases a rectangle (DECERA). Bounds are clipped to the screen
+     *
+     * @param left first column
+     * @param top first row
+     * @param right column after the last one
+     * @param bottom row after the last one
+     */
+    public synchronized void eraseRect(int left, int top, int right, int bottom) {
+        fill(0, left, top, right, bottom);
+    }
+
+    private void fill(int c, int left, int top, int right, int bottom) {
+        left = Math.max(left, 0);
+        top = Math.max(top, 0);
+        right = Math.min(right, buffer.width);
+        bottom = Math.min(bottom, buffer.height);
+        if (left < right && top < bottom) {
+            cursor.fill(left, top, right, bottom, c);
+        }
+    }
+
+    /**
+     * Inserts n blank lines at the cursor row, moving the rows below it down within the scroll region (IL).
+     * Does nothing if the cursor is outside of the scroll region
+     */
+    public synchronized void insertLines(int n) {
+        scrollFromCursor(-n);
+    }
+
+    /**
+     * Deletes n lines at the cursor row, moving the rows below it up within the scroll region (DL).
+     * Does nothing if the cursor is outside of the scroll region
+     */
+    public synchronized void deleteLines(int n) {
+        scrollFromCursor(n);
+    }
+
+    private void scrollFromCursor(int d) {
+        int y = cursor.getY();
+        if (y >= scrollTop && y < scrollBottom) {
+            buffer.scroll(y, scrollBottom, d, cursor.blank(), false);
+            cursor.carriageReturn();
+        }
+    }
+
     public synchronized void scroll(int d) {
-        buffer.clearSelection();
         _scroll(d);
     }
 
     private void _scroll(int d) {
-        if (d > 0) {
-            System.arraycopy(buffer.cells, scrollTop + d, buffer.cells, scrollTop, scrollBottom - d);
-            for (int i = scrollBottom - d; i < scrollBottom; i++) {
-                buffer.cells[i] = new Cell[buffer.width];
-                cursor.clearLine(i);
-            }
+        buffer.scroll(scrollTop, scrollBottom, d, cursor.blank(), true);
+    }
+
+    /**
+     * Scrolls the view through the history
+     *
+     * @param lines number of rows to scroll back, negative to scroll forward
+     */
+    public synchronized void scrollView(int lines) {
+        buffer.scrollView(lines);
+        buffer.compactTables(cursor);
+    }
+
+    /**
+     * Scrolls the view back to the bottom, i.e. shows the buffer without history
+     */
+    public synchronized void resetView() {
+        if (buffer.getViewOffset() != 0) {
+            buffer.resetView();
         }
-        else {
-            d = -d;
-            System.arraycopy(buffer.cells, scrollTop, buffer.cells, scrollTop + d, scrollBottom - d);
-            for (int i = scrollTop; i < scrollTop + d; i++) {
-                buffer.cells[i] = new Cell[buffer.width];
-                cursor.clearLine(i);
-            }
+    }
+
+    /**
+     * @return number of history rows shown above the buffer, 0 if not scrolled back
+     */
+    public synchronized int getViewOffset() {
+        return buffer.getViewOffset();
+    }
+
+    /**
+     * @return number of lines in the history
+     */
+    public synchronized long getHistorySize() {
+        return buffer.history.size();
+    }
+
+    /**
+     * Starts searching the screen and its history, replacing the previous search.
+     * Matches are searched from the bottom up on a separate thread
+     *
+     * @param query the text or regular expression to search for
+     * @param regex true if the query is a regular expression
+     * @param ignoreCase true to ignore upper/lower case
+     * @param listener gets notified about the progress
+     * @throws PatternSyntaxException if the query is not a valid regular expression
+     */
+    public synchronized void search(String query, boolean regex, boolean ignoreCase, SearchListener listener) {
+        clearSearch();
+        int flags = regex ? 0 : Pattern.LITERAL;
+        if (ignoreCase) {
+            flags |= Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE;
+        }
+        Pattern pattern = Pattern.compile(query, flags);
+        String required = regex ? Search.requiredLiteral(query) : query;
+        search = new Search(this, buffer, pattern, TrigramIndex.of(required), listener);
+        search.start();
+        buffer.damageAll();
+    }
+
+    /**
+     * Moves to the next match of the current search and scrolls the view to show it
+     *
+     * @param older true to move up, towards older lines
+     * @return false if there is no match
+     */
+    public synchronized boolean findNext(boolean older) {
+        long line = search != null ? search.next(older) : -1;
+        if (line < 0) {
+            return false;
+        }
+        int column = search.column(search.current());
+        if (buffer.viewRowOf(line, column) < 0) {
+            buffer.showLine(line, column);
+        }
+        buffer.damageAll();
+        return true;
+    }
+
+    /**
+     * Stops the current search and removes its highlights
+     */
+    public synchronized void clearSearch() {
+        if (search != null) {
+            search.cancel();
+            search = null;
+            buffer.damageAll();
         }
     }
 
@@ -112,7 +296,6 @@ public class Screen {
     }
 
     public synchronized void delete(int n) {
-        buffer.clearSelection();
         cursor.delete(n);
     }
 
@@ -120,15 +303,23 @@ public class Screen {
         return buffer.getSelection();
     }
 
-    public synchronized void select(Point start, Point end) {
-        buffer.clearSelection();
-        buffer.select(pixelToCell(start), pixelToCell(end));
+    /**
+     * Selects the text between two cells of the view, which are clamped to the screen.
+     * The selection stays on the same text while the screen scrolls
+     *
+     * @param x0 selection start column
+     * @param y0 selection start row
+     * @param x1 selection end column
+     * @param y1 selection end row
+     * @param block true to select a rectangle, false to select in reading order
+     */
+    public synchronized void select(int x0, int y0, int x1, int y1, boolean block) {
+        buffer.select(clamp(x0, buffer.width), clamp(y0, buffer.height),
+                clamp(x1, buffer.width), clamp(y1, buffer.height), block);
     }
 
-    private Point pixelToCell(Point p) {
-        p.x = Math.min(Math.max(p.x / CellStyle.WIDTH, 0), buffer.width - 1);
-        p.y = Math.min(Math.max(p.y / CellStyle.HEIGHT, 0), buffer.height - 1);
-        return p;
+    private static int clamp(int i, int size) {
+        return Math.min(Math.max(i, 0), size - 1);
     }
 
     public synchronized void clearSelection() {
@@ -136,21 +327,159 @@ public class Screen {
     }
 
     public synchronized void write(int b) {
-        buffer.clearSelection();
         cursor.write(b);
+        buffer.compactTables(cursor);
+    }
+
+    /**
+     * Writes a run of code points, taking the lock only once
+     *
+     * @param codePoints the code points to write
+     * @param off offset of the run
+     * @param len length of the run
+     */
+    public synchronized void write(int[] codePoints, int off, int len) {
+        cursor.write(codePoints, off, len);
+        buffer.compactTables(cursor);
     }
 
     public synchronized void write(String s) {
-        buffer.clearSelection();
         cursor.write(s);
+        buffer.compactTables(cursor);
     }
 
     public synchronized void insertBlanks(int n) {
-        buffer.clearSelection();
         cursor.insertBlanks(n);
     }
 
-    public synchronized void paint(Graphics2D g, boolean hasFocus) {
-        BufferPainter.paint(g, buffer, cursor, inverted, hasFocus);
+    /**
+     * Writes the complete screen state (both buffers, cursors and modes), e.g. for a session recording
+     *
+     * @param out the destination
+     * @throws IOException from out
+     */
+    public synchronized void writeState(DataOutput out) throws IOException {
+        out.writeInt(buffer.width);
+        out.writeInt(buffer.height);
+        out.writeInt(scrollTop);
+        out.writeInt(scrollBottom);
+        out.writeBoolean(autoWrap);
+        out.writeBoolean(replaceMode);
+        out.writeBoolean(inverted);
+        out.writeBoolean(buffer.isAlternate());
+        buffer.writeState(out);
+        cursor.writeState(out);
+        out.writeBoolean(savedCursor == cursor);
+        if (savedCursor != cursor) {
+            savedCursor.writeState(out);
+        }
+    }
+
+    /**
+     * Restores a screen state written by {@link #writeState(DataOutput)}. The cursor object is kept
+     *
+     * @param in the source
+     * @throws IOException from in
+     */
+    public synchronized void readState(DataInput in) throws IOException {
+        buffer.clearSelection();
+        clearSearch();
+        int width = in.readInt();
+        int height = in.readInt();
+        if (width != buffer.width || height != buffer.height) {
+            buffer.resize(width, height, null);
+        }
+        scrollTop = in.readInt();
+        scrollBottom = in.readInt();
+        autoWrap = in.readBoolean();
+        replaceMode = in.readBoolean();
+        inverted = in.readBoolean();
+        if (in.readBoolean()) {
+            buffer.useAlternate();
+        }
+        else {
+            buffer.useNormal();
+        }
+        buffer.readState(in);
+        cursor.readState(in);
+        if (in.readBoolean()) {
+            savedCursor = cursor;
+        }
+        else {
+            savedCursor = new Cursor(this, buffer);
+            savedCursor.readState(in);
+        }
+    }
+
+    /**
+     * Stops the search and releases the scrollback, including its spill file. To be called once the screen is
+     * not needed anymore; it stays usable, but drops old lines instead of spilling them to disk
+     */
+    public synchronized void close() {
+        clearSearch();
+        buffer.close();
+    }
+
+    /**
+     * Returns what changed since the previous call, and starts recording anew.
+     * Besides the buffer changes this covers the cursor moving, showing or hiding, and inverting the screen.
+     * Also takes the frame that {@link #getFrame()} returns from then on
+     *
+     * @return the damage, in rows of the view
+     */
+    public synchronized Damage takeDamage() {
+        int y = cursor.getY() + buffer.getViewOffset();
+        if (!cursor.visible || y >= buffer.height) {
+            y = -1;
+        }
+        int x = Math.min(cursor.getX(), buffer.width - 1);
+
+        Damage damage = buffer.takeDamage();
+        if (inverted != damageInverted) {
+            damage.markAll();
+        }
+        if (x != damageCursorX || y != damageCursorY || damage.getScrollDelta() != 0) {
+            if (y >= 0) {
+                damage.mark(y, x, x + 1);
+            }
+            // the old cursor moved along if its row scrolled
+            int oldY = damageCursorY;
+            if (oldY >= damage.getScrollTop() && oldY < damage.getScrollBottom()) {
+                oldY -= damage.getScrollDelta();
+            }
+            if (oldY >= 0 && oldY < damage.getHeight() && damageCursorX < damage.getWidth()) {
+                damage.mark(oldY, damageCursorX, damageCursorX + 1);
+            }
+        }
+        damageCursorX = x;
+        damageCursorY = y;
+        damageInverted = inverted;
+        frame = new Frame(buffer, frame, damage, x, y, inverted, search);
+        return damage;
+    }
+
+    /**
+     * Returns the frame taken by the last {@link #takeDamage()}, for painting. Does not wait for the screen lock,
+     * so changes made meanwhile show up once damage is taken again
+     *
+     * @return the frame
+     */
+    public Frame getFrame() {
+        Frame f = frame;
+        if (f == null) {
+            f = firstFrame();
+        }
+        return f;
+    }
+
+    private synchronized Frame firstFrame() {
+        if (frame == null) {
+            int y = cursor.getY() + buffer.getViewOffset();
+            frame = new Frame(buffer, null, null, Math.min(cursor.getX(), buffer.width - 1),
+                    cursor.visible && y < buffer.height ? y : -1, inverted, search);
+            // the next frame cannot tell what changed since this one
+            buffer.damageAll();
+        }
+        return frame;
     }
 }
@@ -0,0 +1,285 @@
+package com.marcovr.terminal.screen;
+
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * A search through the screen and its history, running on its own thread.
+ * Lines are searched from the bottom up and matches are published while searching, so the nearest ones show first.
+ * History blocks whose trigram index rules out the search term are skipped without decompressing them.
+ * Besides the screen and the open history block, the screen lock is only held to take a snapshot of one block at a time.
+ * Matches are addressed by absolute line numbers: history lines count from 0, screen rows follow the history.
+ */
+class Search implements Runnable {
+
+    private static final int MAX_MATCHES = 100_000;
+
+    private final Screen screen;
+    private final Buffer buffer;
+    private final Matcher matcher;
+    private final long[] trigrams;
+    private final SearchListener listener;
+    private volatile boolean cancelled;
+    private volatile boolean full;
+
+    // ordered by line (descending), then by column: line, first column and number of columns of each match
+    private long[] lines = new long[64];
+    private int[] columns = new int[64];
+    private int[] lengths = new int[64];
+    private int count;
+    private int current = -1;
+
+    /**
+     * @param screen the screen, its lock guards the buffer
+     * @param buffer the buffer to search
+     * @param pattern what to search for
+     * @param trigrams trigrams of a text every match contains, may be null
+     * @param listener gets notified about new matches
+     */
+    Search(Screen screen, Buffer buffer, Pattern pattern, long[] trigrams, SearchListener listener) {
+        this.screen = screen;
+        this.buffer = buffer;
+        this.matcher = pattern.matcher("");
+        this.trigrams = trigrams;
+        this.listener = listener;
+    }
+
+    void start() {
+        Thread t = new Thread(this, "Search");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    void cancel() {
+        cancelled = true;
+    }
+
+    @Override
+    public void run() {
+        LineText text = new LineText();
+        Inflater inflater = new Inflater();
+        try {
+            long openStart;
+            synchronized (screen) {
+                History history = buffer.history;
+                long end = history.end();
+                for (int y = buffer.height - 1; y >= 0; y--) {
+                    text.set(buffer.line(y), buffer.clusters);
+                    match(text, end + y);
+                }
+                openStart = history.openStart();
+                for (long line = end - 1; line >= openStart; line--) {
+                    history.getText(line, text);
+                    match(text, line);
+                }
+            }
+            publish(false);
+
+            byte[] raw = new byte[0];
+            for (long number = openStart / History.BLOCK_LINES - 1; !stopped(); number--) {
+                History.Snapshot s;
+                synchronized (screen) {
+                    s = buffer.history.snapshot(number);
+                }
+                if (s == null) {
+                    break;
+                }
+                if (s.trigrams != null && !TrigramIndex.mayContain(s.trigrams, trigrams)) {
+                    continue;
+                }
+
+                byte[] block = s.data;
+                if (s.compressed) {
+                    if (raw.length < s.rawLength) {
+                        raw = new byte[s.rawLength];
+                    }
+                    inflater.reset();
+                    inflater.setInput(s.data);
+                    inflater.inflate(raw, 0, s.rawLength);
+                    block = raw;
+                }
+
+                int before = count();
+                for (int i = History.BLOCK_LINES - 1; i >= 0 && !stopped(); i--) {
+                    History.getText(block, i, text);
+                    match(text, number * History.BLOCK_LINES + i);
+                }
+                if (count() != before) {
+                    publish(false);
+                }
+            }
+        } catch (DataFormatException e) {
+            e.printStackTrace();
+        } finally {
+            inflater.end();
+        }
+        publish(true);
+    }
+
+    private void match(LineText text, long line) {
+        matcher.reset(text.text);
+        while (matcher.find()) {
+            if (matcher.end() > matcher.start()) {
+                int column = text.column(matcher.start());
+                add(line, column, text.column(matcher.end() - 1) + 1 - column);
+            }
+        }
+    }
+
+    private synchronized void add(long line, int column, int length) {
+        if (count == MAX_MATCHES) {
+            full = true;
+            return;
+        }
+        if (count == lines.length) {
+            lines = Arrays.copyOf(lines, count * 2);
+            columns = Arrays.copyOf(columns, count * 2);
+            lengths = Arrays.copyOf(lengths, count * 2);
+        }
+        lines[count] = line;
+        columns[count] = column;
+        lengths[count] = length;
+        count++;
+    }
+
+    private boolean stopped() {
+        return cancelled || full;
+    }
+
+    private void publish(boolean finished) {
+        if (!cancelled) {
+            synchronized (screen) {
+                buffer.damageAll();
+            }
+            listener.progress(count(), finished);
+        }
+    }
+
+    synchronized int count() {
+        return count;
+    }
+
+    /**
+     * @param line absolute line number
+     * @return index of the first match on the line, or -1 if there is none
+     */
+    synchronized int find(long line) {
+        int low = 0;
+        int high = count - 1;
+        int found = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (lines[mid] > line) {
+                low = mid + 1;
+            }
+            else {
+                if (lines[mid] == line) {
+                    found = mid;
+                }
+                high = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    synchronized long line(int i) {
+        return lines[i];
+    }
+
+    synchronized int column(int i) {
+        return columns[i];
+    }
+
+    synchronized int length(int i) {
+        return lengths[i];
+    }
+
+    synchronized int current() {
+        return current;
+    }
+
+    /**
+     * Moves to the next match
+     *
+     * @param older true to move up, towards older lines
+     * @return line of the new current match, or -1 if there are no matches
+     */
+    synchronized long next(boolean older) {
+        if (count == 0) {
+            return -1;
+        }
+        if (current < 0) {
+            current = older ? 0 : count - 1;
+        }
+        else {
+            current = Math.floorMod(current + (older ? 1 : -1), count);
+        }
+        return lines[current];
+    }
+
+    /**
+     * Finds the longest run of literal text every match of a regular expression contains.
+     * Conservative: only looks outside of groups and gives up on alternatives
+     *
+     * @param regex the regular expression
+     * @return the literal text, possibly empty
+     */
+    static String requiredLiteral(String regex) {
+        String best = "";
+        StringBuilder run = new StringBuilder();
+        int depth = 0;
+        int n = regex.length();
+
+        for (int i = 0; i < n; i++) {
+            char c = regex.charAt(i);
+            boolean literal = false;
+            switch (c) {
+                case '|':
+                    return "";
+                case '\\':
+                    if (++i < n) {
+                        c = regex.charAt(i);
+                        if (c == 'Q') {
+                            n = i;
+                        }
+                        literal = !Character.isLetterOrDigit(c);
+                    }
+                    break;
+                case '[':
+                case '{':
+                    char close = c == '[' ? ']' : '}';
+                    while (++i < n && regex.charAt(i) != close) {
+                        if (regex.charAt(i) == '\\') {
+                            i++;
+                        }
+                    }
+                    break;
+                case '(':
+                    depth++;
+                    break;
+                case ')':
+                    depth--;
+                    break;
+                default:
+                    literal = "?*+.^$".indexOf(c) < 0;
+            }
+
+            // a character followed by ?, * or {0,...} may be missing, one followed by + may repeat
+            char next = i + 1 < n ? regex.charAt(i + 1) : 0;
+            if (literal && depth == 0 && next != '?' && next != '*' && next != '{') {
+                run.append(c);
+                if (next != '+') {
+                    continue;
+                }
+            }
+            if (run.length() > best.length()) {
+                best = run.toString();
+            }
+            run.setLength(0);
+        }
+        return run.length() > best.length() ? run.toString() : best;
+    }
+}
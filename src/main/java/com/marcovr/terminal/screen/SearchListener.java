@@ -0,0 +1,15 @@
+package com.marcovr.terminal.screen;
+
+/**
+ * Gets notified about the progress of a search
+ */
+public interface SearchListener {
+
+    /**
+     * Called from the search thread whenever new matches were found, and once at the end
+     *
+     * @param matches number of matches found so far
+     * @param finished true if the search is complete
+     */
+    void progress(int matches, boolean finished);
+}
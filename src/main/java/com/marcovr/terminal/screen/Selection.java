@@ -0,0 +1,60 @@
+package com.marcovr.terminal.screen;
+
+/**
+ * A selected range of text, anchored to absolute line numbers (history lines count from 0, buffer rows follow
+ * the history), so it stays on the same text while the screen scrolls. Columns are those of the stored lines,
+ * which differ from the displayed ones for reflowed history lines.
+ * Linear selections run from the start cell to the end cell in reading order, block selections cover the same
+ * columns on every line. Selections are immutable and only applied when painting and copying.
+ */
+class Selection {
+
+    final long startLine, endLine;
+    final int startColumn, endColumn;
+    final boolean block;
+
+    /**
+     * Creates a selection between two cells, given in any order. Both cells are included
+     */
+    Selection(long line0, int column0, long line1, int column1, boolean block) {
+        this.block = block;
+        startLine = Math.min(line0, line1);
+        endLine = Math.max(line0, line1);
+        if (block) {
+            startColumn = Math.min(column0, column1);
+            endColumn = Math.max(column0, column1);
+        }
+        else if (line0 < line1 || line0 == line1 && column0 <= column1) {
+            startColumn = column0;
+            endColumn = column1;
+        }
+        else {
+            startColumn = column1;
+            endColumn = column0;
+        }
+    }
+
+    /**
+     * @param line absolute line number
+     * @return true if any cell of the line is selected
+     */
+    boolean contains(long line) {
+        return line >= startLine && line <= endLine;
+    }
+
+    /**
+     * @param line absolute line number, contained in the selection
+     * @return first selected column of the line
+     */
+    int from(long line) {
+        return block || line == startLine ? startColumn : 0;
+    }
+
+    /**
+     * @param line absolute line number, contained in the selection
+     * @return column after the last selected one of the line, Integer.MAX_VALUE if selected up to its end
+     */
+    int to(long line) {
+        return block || line == endLine ? endColumn + 1 : Integer.MAX_VALUE;
+    }
+}
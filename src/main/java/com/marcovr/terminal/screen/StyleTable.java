@@ -0,0 +1,134 @@
+package com.marcovr.terminal.screen;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Interns cell attributes, packed by {@link CellStyle#pack(int, int, int)}, to small ids which the cells store instead.
+ * Equal attributes get equal ids, so comparing attributes compares ints, and painters resolve the colours of an id once.
+ * Id 0 always stands for the default attributes.
+ * The table only grows until it reaches its limit, then {@link #compact(Collection)} drops the ids no line uses
+ * anymore, which are mostly one-off truecolour combinations.
+ * New attributes are written behind the existing ones and existing entries are never modified, growing and
+ * compacting replace the array. So the ids a {@link #snapshot()} was taken for can be read from it without the
+ * screen lock.
+ */
+class StyleTable {
+
+    static final int BLANK = 0;
+
+    private static final int MIN_LIMIT = 1024;
+
+    private long[] attrs = new long[64];
+    private int count;
+    private int limit = MIN_LIMIT;
+
+    // open addressing, id + 1 of the attributes hashed to a slot, 0 if free
+    private int[] slots = new int[128];
+
+    StyleTable() {
+        intern(CellStyle.pack(CellStyle.DEFAULT_FOREGROUND, CellStyle.DEFAULT_BACKGROUND, CellStyle.REGULAR));
+    }
+
+    /**
+     * @param a packed attributes
+     * @return their id
+     */
+    int intern(long a) {
+        int mask = slots.length - 1;
+        int i = hash(a) & mask;
+        for (int s; (s = slots[i]) != 0; i = i + 1 & mask) {
+            if (attrs[s - 1] == a) {
+                return s - 1;
+            }
+        }
+
+        if (count == attrs.length) {
+            attrs = Arrays.copyOf(attrs, count * 2);
+        }
+        attrs[count] = a;
+        slots[i] = ++count;
+        if (count * 2 > slots.length) {
+            rehash(slots.length * 2);
+        }
+        return count - 1;
+    }
+
+    /**
+     * @param id an id returned by {@link #intern(long)}
+     * @return the packed attributes
+     */
+    long get(int id) {
+        return attrs[id];
+    }
+
+    /**
+     * @return the packed attributes by id, ids interned later may be missing from it
+     */
+    long[] snapshot() {
+        return attrs;
+    }
+
+    /**
+     * @return number of ids in use
+     */
+    int size() {
+        return count;
+    }
+
+    /**
+     * @return true if the table should be compacted
+     */
+    boolean isFull() {
+        return count >= limit;
+    }
+
+    /**
+     * Drops the ids that none of the given lines uses and renumbers the others, rewriting the lines.
+     * The limit is raised if most ids are still in use.
+     *
+     * @param lines every line holding ids of this table, each one once
+     */
+    void compact(Collection<Line> lines) {
+        int[] map = new int[count];
+        Arrays.fill(map, -1);
+        map[BLANK] = BLANK;
+        long[] kept = new long[attrs.length];
+        kept[BLANK] = attrs[BLANK];
+        int n = 1;
+
+        for (Line line : lines) {
+            int[] ids = line.attrs;
+            for (int x = 0; x < ids.length; x++) {
+                int id = map[ids[x]];
+                if (id < 0) {
+                    id = map[ids[x]] = n;
+                    kept[n++] = attrs[ids[x]];
+                }
+                ids[x] = id;
+            }
+        }
+
+        attrs = kept;
+        count = n;
+        limit = Math.max(MIN_LIMIT, count * 2);
+        rehash(slots.length);
+    }
+
+    private void rehash(int size) {
+        slots = new int[size];
+        int mask = size - 1;
+        for (int id = 0; id < count; id++) {
+            int i = hash(attrs[id]) & mask;
+            while (slots[i] != 0) {
+                i = i + 1 & mask;
+            }
+            slots[i] = id + 1;
+        }
+    }
+
+    private static int hash(long a) {
+        long h = a * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ h >>> 32);
+    }
+}
@@ -0,0 +1,80 @@
+package com.marcovr.terminal.screen;
+
+/**
+ * Bitsets of the (lower case) trigrams occurring in a block of history lines.
+ * Used to skip blocks that cannot contain a search term without decompressing them.
+ * Trigrams are hashed into a fixed number of bits, so a hit only means the block may match.
+ */
+final class TrigramIndex {
+
+    private static final int BITS = 8192;
+
+    /**
+     * Size of a bitset in bytes
+     */
+    static final int BYTES = BITS / 8;
+
+    private TrigramIndex() {}
+
+    /**
+     * @param lines reusable text buffer
+     * @param block an uncompressed history block
+     * @param count number of lines in the block
+     * @return the trigram bitset of all lines in the block
+     */
+    static long[] of(LineText lines, byte[] block, int count) {
+        long[] bits = new long[BITS / 64];
+        for (int i = 0; i < count; i++) {
+            History.getText(block, i, lines);
+            add(bits, lines.text);
+        }
+        return bits;
+    }
+
+    /**
+     * @param s text that has to occur
+     * @return the trigram bitset of the text, or null if it is too short to have any
+     */
+    static long[] of(CharSequence s) {
+        if (s.length() < 3) {
+            return null;
+        }
+        long[] bits = new long[BITS / 64];
+        add(bits, s);
+        return bits;
+    }
+
+    /**
+     * @param index bitset of a block
+     * @param query bitset of the text that has to occur, may be null
+     * @return false if the block cannot contain the text
+     */
+    static boolean mayContain(long[] index, long[] query) {
+        if (query == null) {
+            return true;
+        }
+        for (int i = 0; i < index.length; i++) {
+            if ((index[i] & query[i]) != query[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void add(long[] bits, CharSequence s) {
+        int n = s.length();
+        if (n < 3) {
+            return;
+        }
+        int c1 = Character.toLowerCase(s.charAt(0));
+        int c2 = Character.toLowerCase(s.charAt(1));
+        for (int i = 2; i < n; i++) {
+            int c3 = Character.toLowerCase(s.charAt(i));
+            int h = (c1 * 0x9e3779b1 + c2) * 0x9e3779b1 + c3;
+            h = (h ^ h >>> 15) & (BITS - 1);
+            bits[h >>> 6] |= 1L << h;
+            c1 = c2;
+            c2 = c3;
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package com.marcovr.terminal.ssh;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lock-free single-producer / single-consumer ring buffer for bytes.
+ * The producer blocks while the buffer is full (backpressure), the consumer while it is empty.
+ * Keeps gauges on occupancy and on the time the producer had to wait.
+ */
+public class ByteRingBuffer {
+
+    private final byte[] buffer;
+    private final int mask;
+
+    // positions only ever increase, index = position & mask
+    private final AtomicLong head = new AtomicLong(); // next byte to read, written by consumer
+    private final AtomicLong tail = new AtomicLong(); // next byte to write, written by producer
+
+    private volatile Thread waitingProducer;
+    private volatile Thread waitingConsumer;
+    private volatile boolean closed;
+
+    private volatile long stallNanos;
+    private volatile long stalls;
+
+    /**
+     * Creates a new ring buffer
+     *
+     * @param capacity the capacity in bytes, rounded up to a power of two
+     */
+    public ByteRingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        buffer = new byte[size];
+        mask = size - 1;
+    }
+
+    /**
+     * Reads from the input stream straight into the free part of the buffer.
+     * Blocks while the buffer is full. Only to be called by the producer thread.
+     *
+     * @param in the stream to read from
+     * @return number of bytes read, or -1 at end of stream
+     * @throws IOException from the input stream
+     */
+    public int fill(InputStream in) throws IOException {
+        long t = tail.get();
+        long free = awaitSpace(t);
+        if (free < 0) {
+            return -1;
+        }
+
+        int index = (int) (t & mask);
+        int len = (int) Math.min(free, buffer.length - index);
+        int n = in.read(buffer, index, len);
+        if (n > 0) {
+            tail.set(t + n);
+            Thread consumer = waitingConsumer;
+            if (consumer != null) {
+                LockSupport.unpark(consumer);
+            }
+        }
+        return n;
+    }
+
+    private long awaitSpace(long t) {
+        long free = buffer.length - (t - head.get());
+        if (free > 0) {
+            return free;
+        }
+
+        long start = System.nanoTime();
+        waitingProducer = Thread.currentThread();
+        try {
+            while ((free = buffer.length - (t - head.get())) == 0) {
+                if (closed) {
+                    return -1;
+                }
+                LockSupport.park(this);
+            }
+        } finally {
+            waitingProducer = null;
+            stallNanos += System.nanoTime() - start;
+            stalls++;
+        }
+        return free;
+    }
+
+    /**
+     * Copies available bytes into the destination. Blocks while the buffer is empty.
+     * Only to be called by the consumer thread.
+     *
+     * @param dst the destination
+     * @param off offset into dst
+     * @param len maximum number of bytes to read
+     * @return number of bytes read, or -1 if the buffer is closed and drained
+     */
+    public int read(byte[] dst, int off, int len) {
+        long h = head.get();
+        long available = tail.get() - h;
+
+        if (available == 0) {
+            waitingConsumer = Thread.currentThread();
+            try {
+                while ((available = tail.get() - h) == 0) {
+                    if (closed) {
+                        // the producer may have published right before closing
+                        if ((available = tail.get() - h) == 0) {
+                            return -1;
+                        }
+                        break;
+                    }
+                    LockSupport.park(this);
+                }
+            } finally {
+                waitingConsumer = null;
+            }
+        }
+
+        int n = (int) Math.min(available, len);
+        int index = (int) (h & mask);
+        int first = Math.min(n, buffer.length - index);
+        System.arraycopy(buffer, index, dst, off, first);
+        System.arraycopy(buffer, 0, dst, off + first, n - first);
+
+        head.set(h + n);
+        Thread producer = waitingProducer;
+        if (producer != null) {
+            LockSupport.unpark(producer);
+        }
+        return n;
+    }
+
+    /**
+     * Closes the buffer. The consumer can still drain the remaining bytes
+     */
+    public void close() {
+        closed = true;
+        Thread t = waitingConsumer;
+        if (t != null) {
+            LockSupport.unpark(t);
+        }
+        t = waitingProducer;
+        if (t != null) {
+            LockSupport.unpark(t);
+        }
+    }
+
+    /**
+     * @return the capacity in bytes
+     */
+    public int capacity() {
+        return buffer.length;
+    }
+
+    /**
+     * @return number of bytes currently buffered
+     */
+    public int occupancy() {
+        return (int) (tail.get() - head.get());
+    }
+
+    /**
+     * @return total time in nanoseconds the producer was blocked on a full buffer
+     */
+    public long stallNanos() {
+        return stallNanos;
+    }
+
+    /**
+     * @return number of times the producer was blocked on a full buffer
+     */
+    public long stalls() {
+        return stalls;
+    }
+}
@@ -1,5 +1,6 @@
 package com.marcovr.terminal.ssh;
 
+import com.marcovr.terminal.commands.OutputSource;
 import com.marcovr.terminal.misc.UnicodeHelper;
 import net.schmizz.sshj.SSHClient;
 import net.schmizz.sshj.common.LoggerFactory;
@@ -17,14 +18,15 @@ import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
 
-public class ConnectionHandler {
+public class ConnectionHandler implements OutputSource {
 
     private static final boolean DEBUG = false;
+    private static final int RECEIVE_BUFFER_SIZE = 1 << 20;
 
     private SSHClient ssh;
     private Session session;
-    private OutputStreamWriter writer;
-    private InputStreamReader reader;
+    private OutboundWriter writer;
+    private ByteRingBuffer received;
     private Session.Shell shell;
 
     public void connect(String hostname, int port) throws IOException {
@@ -55,11 +57,36 @@ public class ConnectionHandler {
 
         OutputStream outputStream = shell.getOutputStream();
         InputStream inputStream = shell.getInputStream();
-        reader = new UnicodeHelper.UnicodeStreamReader(inputStream);
-        writer = new OutputStreamWriter(outputStream, StandardCharsets.UTF_8);
+        received = new ByteRingBuffer(RECEIVE_BUFFER_SIZE);
+        writer = new OutboundWriter(outputStream);
+
+        Thread reader = new Thread(() -> readLoop(inputStream), "SSH-Reader");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * Copies everything the shell sends into the receive buffer, until the channel is closed.
+     * Blocks while the buffer is full, which stops consuming the SSH window.
+     *
+     * @param in the shell's input stream
+     */
+    private void readLoop(InputStream in) {
+        try {
+            while (received.fill(in) >= 0) {
+                // keep reading
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            received.close();
+        }
     }
 
     public void disconnect() {
+        if (writer != null) {
+            writer.close();
+        }
         try {
             session.close();
         } catch (Exception ignored) {}
@@ -78,55 +105,94 @@ public class ConnectionHandler {
         }
     }
 
-    public int receive() throws IOException {
-        int x = reader.read();
-        if (x < 0) {
+    /**
+     * Fills the given buffer with the raw bytes received from the shell.
+     * Blocks until at least one byte is available.
+     *
+     * @param buf the buffer to fill
+     * @return number of bytes received
+     * @throws IOException from connection, EOFException if the shell closed
+     */
+    @Override
+    public int receive(byte[] buf) throws IOException {
+        int n = received.read(buf, 0, buf.length);
+        if (n < 0) {
             throw new EOFException();
         }
-        logIN(x);
-        return x;
+        logIN(buf, n);
+        return n;
+    }
+
+    /**
+     * @return number of received bytes waiting to be parsed
+     */
+    public int getReceiveBacklog() {
+        return received == null ? 0 : received.occupancy();
     }
 
+    /**
+     * @return total time in nanoseconds reading from the shell was stalled by a full receive buffer
+     */
+    public long getReceiveStallNanos() {
+        return received == null ? 0 : received.stallNanos();
+    }
+
+    /**
+     * Queues a character to be sent to the shell. Does not block
+     *
+     * @param c the character
+     */
     public void send(char c) {
         if (writer != null) {
-            try {
-                logOUT(c);
-                writer.write(c);
-                writer.flush();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+            logOUT(c);
+            writer.send(c);
         }
     }
 
+    /**
+     * Queues text to be sent to the shell. Does not block
+     *
+     * @param s the text
+     */
     public void send(String s) {
         if (writer != null) {
-            try {
-                for (char c : s.toCharArray()) {
-                    writer.write(c);
-                }
-                writer.flush();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+            writer.send(s);
         }
     }
 
-    private void logIN(int b) {
-        if (DEBUG) {
-            System.err.print(UnicodeHelper.codePointToReadable(b));
+    /**
+     * Queues text to be sent to the shell, blocking while too much text is waiting already.
+     *
+     * @param cbuf the text
+     * @param off offset into cbuf
+     * @param len number of characters
+     * @throws InterruptedException if interrupted while waiting
+     */
+    void sendBounded(char[] cbuf, int off, int len) throws InterruptedException {
+        if (writer != null) {
+            writer.sendBounded(cbuf, off, len, len);
         }
     }
 
-    private void logOUT(char c) {
+    /**
+     * @return number of bytes the remote side currently accepts
+     */
+    long getRemoteWindowSize() {
+        return shell == null ? 0 : shell.getRemoteWinSize();
+    }
+
+    private void logIN(byte[] buf, int n) {
         if (DEBUG) {
-            System.err.println("[OUT:" + c + "]");
+            String s = new String(buf, 0, n, StandardCharsets.UTF_8);
+            for (int i = 0; i < s.length(); i = s.offsetByCodePoints(i, 1)) {
+                System.err.print(UnicodeHelper.codePointToReadable(s.codePointAt(i)));
+            }
         }
     }
 
-    public void println() {
+    private void logOUT(char c) {
         if (DEBUG) {
-            System.err.println();
+            System.err.println("[OUT:" + c + "]");
         }
     }
 }
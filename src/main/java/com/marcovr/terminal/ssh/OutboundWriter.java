@@ -0,0 +1,222 @@
+package com.marcovr.terminal.ssh;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Sends text to the shell from a dedicated thread, so callers (e.g. the EDT) never block on the network.
+ * Text queued within a short window is coalesced and flushed as one packet.
+ */
+class OutboundWriter {
+
+    /**
+     * How long to wait for further input before flushing
+     */
+    private static final long LINGER_MILLIS = 2;
+    private static final int BUFFER_SIZE = 8192;
+    private static final int MAX_RETAINED = 65536;
+
+    private final OutputStream out;
+    private final Object lock = new Object();
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE);
+    private final CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+
+    private StringBuilder pending = new StringBuilder();
+    private StringBuilder sending = new StringBuilder();
+    private boolean closed;
+
+    /**
+     * Creates a new OutboundWriter and starts its thread
+     *
+     * @param out the shell's output stream
+     */
+    OutboundWriter(OutputStream out) {
+        this.out = out;
+
+        Thread t = new Thread(this::writeLoop, "SSH-Writer");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * Queues text to be sent. Never blocks on the network
+     *
+     * @param s the text
+     */
+    void send(CharSequence s) {
+        synchronized (lock) {
+            if (!closed) {
+                pending.append(s);
+                lock.notify();
+            }
+        }
+    }
+
+    /**
+     * Queues a single character to be sent
+     *
+     * @param c the character
+     */
+    void send(char c) {
+        synchronized (lock) {
+            if (!closed) {
+                pending.append(c);
+                lock.notify();
+            }
+        }
+    }
+
+    /**
+     * Queues text to be sent, blocking while more than the given amount is still queued.
+     * Used for bulk transfers, to keep their memory use bounded
+     *
+     * @param cbuf the text
+     * @param off offset into cbuf
+     * @param len number of characters
+     * @param limit maximum number of characters to be queued before this call
+     * @throws InterruptedException if interrupted while waiting
+     */
+    void sendBounded(char[] cbuf, int off, int len, int limit) throws InterruptedException {
+        synchronized (lock) {
+            while (pending.length() > limit && !closed) {
+                lock.wait();
+            }
+            if (!closed) {
+                pending.append(cbuf, off, len);
+                lock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Stops the writer thread. Text still queued is dropped
+     */
+    void close() {
+        synchronized (lock) {
+            closed = true;
+            lock.notifyAll();
+        }
+    }
+
+    private void writeLoop() {
+        try {
+            while (take()) {
+                write(sending);
+                sending.setLength(0);
+                if (sending.capacity() > MAX_RETAINED) {
+                    sending = new StringBuilder();
+                }
+
+                if (!linger()) {
+                    out.flush();
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (InterruptedException ignored) {}
+    }
+
+    /**
+     * Waits for queued text and swaps it into the sending buffer. A high surrogate at the end stays queued,
+     * the text is encoded one batch at a time and its low surrogate is yet to come
+     *
+     * @return false if closed
+     */
+    private boolean take() throws InterruptedException {
+        synchronized (lock) {
+            while (!isSendable()) {
+                if (closed) {
+                    return false;
+                }
+                lock.wait();
+            }
+
+            StringBuilder temp = sending;
+            sending = pending;
+            pending = temp;
+            int last = sending.length() - 1;
+            if (Character.isHighSurrogate(sending.charAt(last))) {
+                pending.append(sending.charAt(last));
+                sending.setLength(last);
+            }
+            lock.notifyAll(); // wake up bounded senders
+            return true;
+        }
+    }
+
+    /**
+     * @return true if there is queued text besides a high surrogate waiting for its pair. The lock has to be held
+     */
+    private boolean isSendable() {
+        int n = pending.length();
+        return n > 1 || n == 1 && !Character.isHighSurrogate(pending.charAt(0));
+    }
+
+    /**
+     * Waits a short moment for more text to coalesce with what was just written
+     *
+     * @return true if more text is queued
+     */
+    private boolean linger() throws InterruptedException {
+        synchronized (lock) {
+            if (!isSendable() && !closed) {
+                lock.wait(LINGER_MILLIS);
+            }
+            return isSendable();
+        }
+    }
+
+    /**
+     * Encodes the text into the reused byte buffer and writes it out
+     *
+     * @param s the text
+     */
+    private void write(CharSequence s) throws IOException {
+        encoder.reset();
+        int pos = 0;
+        while (pos < s.length()) {
+            int n = Math.min(chars.capacity(), s.length() - pos);
+            if (pos + n < s.length() && Character.isHighSurrogate(s.charAt(pos + n - 1))) {
+                n--; // don't split surrogate pairs between chunks
+            }
+            chars.clear();
+            for (int i = 0; i < n; i++) {
+                chars.put(s.charAt(pos + i));
+            }
+            pos += n;
+            chars.flip();
+            encode(pos == s.length());
+        }
+    }
+
+    private void encode(boolean endOfInput) throws IOException {
+        CoderResult result;
+        do {
+            result = encoder.encode(chars, bytes, endOfInput);
+            drain();
+        } while (result.isOverflow());
+
+        if (endOfInput) {
+            while (encoder.flush(bytes).isOverflow()) {
+                drain();
+            }
+            drain();
+        }
+    }
+
+    private void drain() throws IOException {
+        if (bytes.position() > 0) {
+            out.write(bytes.array(), 0, bytes.position());
+            bytes.clear();
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.marcovr.terminal.ssh;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Streams pasted text to the shell in bounded chunks, so pastes of any size use constant memory.
+ * The chunk size follows the remote window of the channel, the transfer can be cancelled at any time.
+ */
+public class PasteJob {
+
+    private static final String BRACKET_START = "\033[200~";
+    private static final String BRACKET_END = "\033[201~";
+    private static final int MIN_CHUNK = 1024;
+    private static final int MAX_CHUNK = 16384;
+
+    /**
+     * Gets notified about the progress of a paste
+     */
+    public interface Listener {
+
+        /**
+         * Called after every chunk
+         *
+         * @param chars number of characters sent so far
+         */
+        void progress(long chars);
+
+        /**
+         * Called once the paste has ended
+         *
+         * @param cancelled true if cancelled before completion
+         */
+        void finished(boolean cancelled);
+    }
+
+    private final ConnectionHandler handler;
+    private final Reader reader;
+    private final boolean bracketed;
+    private final Listener listener;
+    private volatile boolean cancelled;
+
+    /**
+     * Creates a new paste job
+     *
+     * @param handler the connection to send to
+     * @param reader source of the pasted text
+     * @param bracketed wrap the text in bracketed paste markers
+     * @param listener gets notified about progress
+     */
+    public PasteJob(ConnectionHandler handler, Reader reader, boolean bracketed, Listener listener) {
+        this.handler = handler;
+        this.reader = reader;
+        this.bracketed = bracketed;
+        this.listener = listener;
+    }
+
+    /**
+     * Starts sending in a new thread
+     */
+    public void start() {
+        Thread t = new Thread(this::run, "Paste");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * Stops sending after the current chunk
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    private void run() {
+        char[] buf = new char[MAX_CHUNK];
+        long sent = 0;
+        // a high surrogate ending the previous chunk, sent along with its low surrogate in the next one
+        int held = 0;
+
+        try {
+            if (bracketed) {
+                handler.send(BRACKET_START);
+            }
+
+            int n;
+            while (!cancelled && (n = reader.read(buf, held, chunkSize() - held)) >= 0) {
+                n += held;
+                if (n > 0 && bracketed) {
+                    n = stripEscapes(buf, n);
+                }
+                held = n > 0 && Character.isHighSurrogate(buf[n - 1]) ? 1 : 0;
+                handler.sendBounded(buf, 0, n - held);
+                sent += n - held;
+                listener.progress(sent);
+                if (held > 0) {
+                    buf[0] = buf[n - 1];
+                }
+            }
+            if (held > 0 && !cancelled) {
+                // unpaired at the end of the text
+                handler.sendBounded(buf, 0, held);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            cancelled = true;
+        } catch (InterruptedException e) {
+            cancelled = true;
+        } finally {
+            if (bracketed) {
+                handler.send(BRACKET_END);
+            }
+            try {
+                reader.close();
+            } catch (IOException ignored) {}
+            listener.finished(cancelled);
+        }
+    }
+
+    /**
+     * @return number of characters to send next, based on the remote window
+     */
+    private int chunkSize() {
+        long window = handler.getRemoteWindowSize() / 2;
+        return (int) Math.max(MIN_CHUNK, Math.min(MAX_CHUNK, window));
+    }
+
+    /**
+     * Removes ESC characters, so the pasted text cannot end bracketed paste mode early
+     *
+     * @param buf the text
+     * @param len number of characters
+     * @return new number of characters
+     */
+    private static int stripEscapes(char[] buf, int len) {
+        int n = 0;
+        for (int i = 0; i < len; i++) {
+            if (buf[i] != '\033') {
+                buf[n++] = buf[i];
+            }
+        }
+        return n;
+    }
+}
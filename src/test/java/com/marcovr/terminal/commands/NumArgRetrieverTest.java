@@ -0,0 +1,91 @@
+package com.marcovr.terminal.commands;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class NumArgRetrieverTest {
+
+    private static NumArgRetriever args(String parameters) {
+        NumArgRetriever args = new NumArgRetriever();
+        args.reset();
+        for (int i = 0; i < parameters.length(); i++) {
+            args.put(parameters.charAt(i));
+        }
+        args.finish();
+        return args;
+    }
+
+    @Test
+    void clampsOverflowingValues() {
+        NumArgRetriever args = args("99999999999999999999;65535;65536;7");
+        assertEquals(65535, args.consumeArgOrDef(0));
+        assertEquals(65535, args.consumeArgOrDef(0));
+        assertEquals(65535, args.consumeArgOrDef(0));
+        assertEquals(7, args.consumeArgOrDef(0));
+    }
+
+    @Test
+    void clampsOverlongLists() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            sb.append(i).append(';');
+        }
+        NumArgRetriever args = args(sb.toString());
+        assertEquals(32, args.remaining());
+        assertEquals(31, args.getArgOrDef(31, -1));
+        assertEquals(-1, args.getArgOrDef(32, -1));
+    }
+
+    @Test
+    void emptyArgumentsTakeTheDefault() {
+        NumArgRetriever args = args(";5;");
+        assertEquals(1, args.consumeArgOrDef(1));
+        assertEquals(5, args.consumeArgOrDef(1));
+        assertEquals(1, args.consumeArgOrDef(1));
+        assertFalse(args.hasArguments());
+        assertEquals(9, args.consumeArgOrDef(9));
+    }
+
+    @Test
+    void subParameters() {
+        NumArgRetriever args = args("1;38:2::255:128:0;4");
+        assertEquals(1, args.consumeArgOrDef(0));
+        assertFalse(args.hasSubArgs());
+
+        assertEquals(38, args.consumeArgOrDef(0));
+        assertEquals(5, args.subArgCount());
+        assertEquals(2, args.consumeSubArgOrDef(-1));
+        assertEquals(-1, args.consumeSubArgOrDef(-1));
+        assertEquals(255, args.consumeSubArgOrDef(-1));
+        assertEquals(128, args.consumeSubArgOrDef(-1));
+        assertEquals(0, args.consumeSubArgOrDef(-1));
+        assertFalse(args.hasSubArgs());
+        assertEquals(-1, args.consumeSubArgOrDef(-1));
+
+        assertEquals(4, args.consumeArgOrDef(0));
+        assertFalse(args.hasArguments());
+    }
+
+    @Test
+    void skipsUnconsumedSubParameters() {
+        NumArgRetriever args = args("4:3;58:5:9;1");
+        assertEquals(4, args.consumeArgOrDef(0));
+        assertEquals(58, args.consumeArgOrDef(0));
+        assertTrue(args.hasSubArgs());
+        assertEquals(1, args.consumeArgOrDef(0));
+        assertFalse(args.hasArguments());
+    }
+
+    @Test
+    void resetDiscardsArguments() {
+        NumArgRetriever args = args("1:2;3");
+        assertEquals("1:2;3", args.toString());
+        args.reset();
+        args.finish();
+        assertEquals(0, args.consumeArgOrDef(0));
+        assertFalse(args.hasSubArgs());
+    }
+}
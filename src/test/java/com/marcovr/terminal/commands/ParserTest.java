@@ -0,0 +1,154 @@
+package com.marcovr.terminal.commands;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ParserTest {
+
+    private static final String OUTPUT = "plain \u00e9\u4e2d\ud83d\udc4d\r\n"
+            + "\033[1;38:2::255:128:0mcolour\033[0m"
+            + "\033[?1049h\033[2J\033[5;10H"
+            + "\033]0;title \u00e9\007"
+            + "\033]2;other\033\\"
+            + "\033(B\033M"
+            + "\033P1$qm\033\\"
+            + "tail";
+
+    /**
+     * Records what the parser dispatches. Printed text is collected without the run boundaries, which depend
+     * on where the input was split
+     */
+    private static class Trace implements ParserListener {
+
+        final StringBuilder events = new StringBuilder();
+        private final StringBuilder text = new StringBuilder();
+        private final NumArgRetriever numArgs;
+
+        Trace(NumArgRetriever numArgs) {
+            this.numArgs = numArgs;
+        }
+
+        private void event(String s) {
+            if (text.length() > 0) {
+                events.append("print(").append(text).append(")\n");
+                text.setLength(0);
+            }
+            events.append(s).append('\n');
+        }
+
+        String finish() {
+            event("end");
+            return events.toString();
+        }
+
+        @Override
+        public void print(int[] data, int off, int len) {
+            for (int i = off; i < off + len; i++) {
+                text.appendCodePoint(data[i]);
+            }
+        }
+
+        @Override
+        public void execute(int c) {
+            event("execute(" + c + ")");
+        }
+
+        @Override
+        public void escDispatch(int intermediates, int c) {
+            event("esc(" + intermediates + "," + (char) c + ")");
+        }
+
+        @Override
+        public void csiDispatch(int prefix, int intermediates, int c) {
+            event("csi(" + prefix + "," + intermediates + "," + numArgs + "," + (char) c + ")");
+        }
+
+        @Override
+        public void oscDispatch(CharSequence s) {
+            event("osc(" + s + ")");
+        }
+
+        @Override
+        public void dcsHook(int prefix, int intermediates, int c) {
+            event("hook(" + prefix + "," + intermediates + "," + numArgs + "," + (char) c + ")");
+        }
+
+        @Override
+        public void dcsPut(int c) {
+            event("put(" + (char) c + ")");
+        }
+
+        @Override
+        public void dcsUnhook() {
+            event("unhook");
+        }
+    }
+
+    private static String parse(byte[] data, int... splits) {
+        NumArgRetriever numArgs = new NumArgRetriever();
+        Trace trace = new Trace(numArgs);
+        Parser parser = new Parser(trace, numArgs);
+        int off = 0;
+        for (int split : splits) {
+            parser.parse(data, off, split - off);
+            off = split;
+        }
+        parser.parse(data, off, data.length - off);
+        return trace.finish();
+    }
+
+    @Test
+    void sequencesSplitAtAnyByte() {
+        byte[] data = OUTPUT.getBytes(StandardCharsets.UTF_8);
+        String whole = parse(data);
+        for (int i = 1; i < data.length; i++) {
+            assertEquals(whole, parse(data, i), "split at " + i);
+        }
+    }
+
+    @Test
+    void sequencesSplitIntoSingleBytes() {
+        byte[] data = OUTPUT.getBytes(StandardCharsets.UTF_8);
+        int[] splits = new int[data.length - 1];
+        for (int i = 0; i < splits.length; i++) {
+            splits[i] = i + 1;
+        }
+        assertEquals(parse(data), parse(data, splits));
+    }
+
+    @Test
+    void dispatches() {
+        String trace = parse("a\033[3;4Hb\033[38:2::1:2:3m\033[?25l\033]0;t\007".getBytes(StandardCharsets.UTF_8));
+        assertEquals("print(a)\n"
+                + "csi(0,0,3;4,H)\n"
+                + "print(b)\n"
+                + "csi(0,0,38:2::1:2:3,m)\n"
+                + "csi(63,0,25,l)\n"
+                + "osc(0;t)\n"
+                + "end\n", trace);
+    }
+
+    @Test
+    void idleOnlyBetweenSequencesAndCharacters() {
+        NumArgRetriever numArgs = new NumArgRetriever();
+        Parser parser = new Parser(new Trace(numArgs), numArgs);
+        assertTrue(parser.isIdle());
+
+        byte[] csi = "\033[1;2".getBytes(StandardCharsets.UTF_8);
+        parser.parse(csi, 0, csi.length);
+        assertFalse(parser.isIdle());
+        parser.parse(new byte[] {'H'}, 0, 1);
+        assertTrue(parser.isIdle());
+
+        byte[] euro = "\u20ac".getBytes(StandardCharsets.UTF_8);
+        parser.parse(euro, 0, 2);
+        assertFalse(parser.isIdle());
+        parser.parse(euro, 2, 1);
+        assertTrue(parser.isIdle());
+    }
+}
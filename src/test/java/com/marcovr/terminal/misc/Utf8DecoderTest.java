@@ -0,0 +1,79 @@
+package com.marcovr.terminal.misc;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class Utf8DecoderTest {
+
+    private static final String TEXT = "a\u00e9\u0800\u4e2d\uffff\ud800\udc00\ud83d\udc4d\udbff\udfffz";
+
+    private static int[] decode(Utf8Decoder decoder, byte[] data, int... splits) {
+        int[] out = new int[data.length + 1];
+        int n = 0, off = 0;
+        int[] chunk = new int[data.length + 1];
+        for (int i = 0; i <= splits.length; i++) {
+            int end = i < splits.length ? splits[i] : data.length;
+            int m = decoder.decode(data, off, end - off, chunk);
+            System.arraycopy(chunk, 0, out, n, m);
+            n += m;
+            off = end;
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    private static int[] decode(byte[] data, int... splits) {
+        return decode(new Utf8Decoder(), data, splits);
+    }
+
+    @Test
+    void decodesWhole() {
+        assertArrayEquals(TEXT.codePoints().toArray(), decode(TEXT.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    void sequencesSplitAtAnyByte() {
+        byte[] data = TEXT.getBytes(StandardCharsets.UTF_8);
+        int[] expected = TEXT.codePoints().toArray();
+        for (int i = 1; i < data.length; i++) {
+            assertArrayEquals(expected, decode(data, i), "split at " + i);
+        }
+        for (int i = 1; i < data.length; i++) {
+            for (int j = i + 1; j < data.length; j++) {
+                assertArrayEquals(expected, decode(data, i, j), "split at " + i + ", " + j);
+            }
+        }
+    }
+
+    @Test
+    void replacesMalformedInput() {
+        int r = 0xfffd;
+        // stray continuation, overlong encoding, surrogate, above U+10FFFF, truncated sequence before ASCII
+        byte[] data = {(byte) 0x80, 'a', (byte) 0xc0, (byte) 0xaf, (byte) 0xed, (byte) 0xa0, (byte) 0x80,
+                (byte) 0xf4, (byte) 0x90, (byte) 0x80, (byte) 0x80, (byte) 0xe2, (byte) 0x82, 'b'};
+        assertArrayEquals(new int[] {r, 'a', r, r, r, r, r, 'b'}, decode(data));
+    }
+
+    @Test
+    void idleBetweenCharacters() {
+        Utf8Decoder decoder = new Utf8Decoder();
+        byte[] data = "\ud83d\udc4d".getBytes(StandardCharsets.UTF_8);
+        int[] out = new int[data.length + 1];
+        assertTrue(decoder.isIdle());
+        for (int i = 0; i < data.length - 1; i++) {
+            decoder.decode(data, i, 1, out);
+            assertFalse(decoder.isIdle());
+        }
+        decoder.decode(data, data.length - 1, 1, out);
+        assertTrue(decoder.isIdle());
+
+        decoder.decode(data, 0, 2, out);
+        decoder.reset();
+        assertTrue(decoder.isIdle());
+    }
+}
@@ -0,0 +1,140 @@
+package com.marcovr.terminal.record;
+
+import com.marcovr.terminal.commands.CommandHandler;
+import com.marcovr.terminal.commands.OutputSource;
+import com.marcovr.terminal.commands.TerminalHost;
+import com.marcovr.terminal.screen.Screen;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SessionPlayerTest {
+
+    /**
+     * Ignores everything but the end of the session
+     */
+    private static class Host implements TerminalHost {
+
+        final CountDownLatch closed = new CountDownLatch(1);
+
+        @Override
+        public void send(String s) {}
+
+        @Override
+        public void bell() {}
+
+        @Override
+        public void setTitle(String title) {}
+
+        @Override
+        public void setApplicationCursorKeys(boolean status) {}
+
+        @Override
+        public void setBracketedPaste(boolean status) {}
+
+        @Override
+        public boolean handleXterm(int n, int argc, int arg0, int arg1) {
+            return false;
+        }
+
+        @Override
+        public void scheduleRepaint() {}
+
+        @Override
+        public void shutdown() {
+            closed.countDown();
+        }
+    }
+
+    private static byte[] state(Screen screen) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        screen.writeState(new DataOutputStream(bytes));
+        return bytes.toByteArray();
+    }
+
+    private static String lines(char first, int n) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < 30; j++) {
+                sb.append((char) (first + (i + j) % 26));
+            }
+            sb.append("\r\n");
+        }
+        return sb.toString();
+    }
+
+    @Test
+    void resizeDuringAChunkReplaysLikeTheLiveSession() throws Exception {
+        File file = File.createTempFile("recording", ".trec");
+        file.deleteOnExit();
+        Screen live = new Screen(40, 10, 1 << 20, 0);
+        SessionRecorder recorder = new SessionRecorder(file, live);
+        Thread[] resizer = new Thread[1];
+        CommandHandler[] handler = new CommandHandler[1];
+
+        // the window is resized while the title sequence in the middle of the first chunk is parsed
+        Host host = new Host() {
+            @Override
+            public void setTitle(String title) {
+                resizer[0] = new Thread(() -> handler[0].resize(20, 8));
+                resizer[0].start();
+                try {
+                    resizer[0].join(200);
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        };
+        String[] chunks = {lines('a', 3) + "\u001b[3;35HX\u001b[6;1H\u001b]0;title\u0007" + lines('A', 2), "end"};
+        handler[0] = new CommandHandler(live, host);
+        handler[0].setRecorder(recorder);
+        handler[0].start(new OutputSource() {
+            int next;
+
+            @Override
+            public int receive(byte[] buffer) throws IOException {
+                if (resizer[0] != null) {
+                    try {
+                        resizer[0].join();
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                }
+                if (next == chunks.length) {
+                    throw new EOFException();
+                }
+                byte[] b = chunks[next++].getBytes(StandardCharsets.UTF_8);
+                System.arraycopy(b, 0, buffer, 0, b.length);
+                return b.length;
+            }
+        });
+        assertTrue(host.closed.await(10, TimeUnit.SECONDS));
+        recorder.close();
+        assertEquals(20, live.getWidth());
+
+        Screen replayed = new Screen(80, 24, 1 << 20, 0);
+        try (SessionPlayer player = new SessionPlayer(file, replayed, new Host())) {
+            player.play(false);
+        }
+        assertArrayEquals(state(live), state(replayed));
+
+        // and from a seek, which starts at the initial keyframe
+        replayed = new Screen(80, 24, 1 << 20, 0);
+        try (SessionPlayer player = new SessionPlayer(file, replayed, new Host())) {
+            player.seek(Long.MAX_VALUE);
+        }
+        assertArrayEquals(state(live), state(replayed));
+        file.delete();
+    }
+}
@@ -0,0 +1,105 @@
+package com.marcovr.terminal.screen;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class BufferTest {
+
+    private static List<Line> rows(Buffer buffer) {
+        List<Line> rows = new ArrayList<>();
+        for (int y = 0; y < buffer.height; y++) {
+            rows.add(buffer.line(y));
+        }
+        return rows;
+    }
+
+    /**
+     * Scrolls the buffer and a plain list of its rows alike, the rows scrolled out come back as the new blank ones
+     */
+    private static void scroll(Buffer buffer, List<Line> model, int top, int bottom, int d) {
+        buffer.scroll(top, bottom, d, StyleTable.BLANK, false);
+        Collections.rotate(model.subList(top, bottom), -Math.max(-(bottom - top), Math.min(d, bottom - top)));
+
+        IdentityHashMap<Line, Boolean> seen = new IdentityHashMap<>();
+        for (int y = 0; y < buffer.height; y++) {
+            assertSame(model.get(y), buffer.line(y), "row " + y);
+            seen.put(buffer.line(y), true);
+        }
+        assertEquals(buffer.height, seen.size());
+    }
+
+    @Test
+    void fullScreenScrollsMatchAnArray() {
+        Buffer buffer = new Buffer(4, 5, 1 << 20, 0);
+        List<Line> model = rows(buffer);
+        for (int d : new int[] {1, 2, 4, 5, 7, -1, -3, -5, -9, 3}) {
+            scroll(buffer, model, 0, 5, d);
+        }
+    }
+
+    @Test
+    void regionScrollsMatchAnArray() {
+        Buffer buffer = new Buffer(4, 6, 1 << 20, 0);
+        List<Line> model = rows(buffer);
+        // small regions move their own lines, large ones move the origin and put the others back
+        scroll(buffer, model, 1, 3, 1);
+        scroll(buffer, model, 0, 5, 2);
+        scroll(buffer, model, 1, 6, 3);
+        scroll(buffer, model, 2, 4, 5);
+        scroll(buffer, model, 4, 6, 1);
+        scroll(buffer, model, 0, 2, 1);
+    }
+
+    @Test
+    void reverseScrollsMatchAnArray() {
+        Buffer buffer = new Buffer(4, 6, 1 << 20, 0);
+        List<Line> model = rows(buffer);
+        scroll(buffer, model, 1, 3, -1);
+        scroll(buffer, model, 0, 5, -2);
+        scroll(buffer, model, 1, 6, -3);
+        scroll(buffer, model, 2, 4, -5);
+        scroll(buffer, model, 4, 6, -1);
+        scroll(buffer, model, 0, 6, -4);
+    }
+
+    @Test
+    void randomScrollsMatchAnArray() {
+        Random random = new Random(42);
+        for (int height = 2; height <= 9; height++) {
+            Buffer buffer = new Buffer(4, height, 1 << 20, 0);
+            List<Line> model = rows(buffer);
+            for (int i = 0; i < 500; i++) {
+                int top = random.nextInt(height - 1);
+                int bottom = top + 2 + random.nextInt(height - top - 1);
+                int d = random.nextInt(2 * height + 1) - height;
+                scroll(buffer, model, top, bottom, d);
+            }
+        }
+    }
+
+    @Test
+    void scrolledInLinesAreBlank() {
+        Buffer buffer = new Buffer(3, 4, 1 << 20, 0);
+        for (int y = 0; y < 4; y++) {
+            buffer.line(y).codes[0] = 'a' + y;
+        }
+        buffer.scroll(1, 4, 2, StyleTable.BLANK, false);
+        assertEquals('a', buffer.line(0).codes[0]);
+        assertEquals('d', buffer.line(1).codes[0]);
+        assertEquals(0, buffer.line(2).codes[0]);
+        assertEquals(0, buffer.line(3).codes[0]);
+
+        buffer.scroll(0, 4, -1, StyleTable.BLANK, false);
+        assertEquals(0, buffer.line(0).codes[0]);
+        assertEquals('a', buffer.line(1).codes[0]);
+        assertEquals('d', buffer.line(2).codes[0]);
+    }
+}
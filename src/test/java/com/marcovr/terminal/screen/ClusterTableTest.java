@@ -0,0 +1,112 @@
+package com.marcovr.terminal.screen;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ClusterTableTest {
+
+    private static final int ACUTE = 0x301;
+
+    private static Line line(int... codes) {
+        Line line = new Line(codes.length, StyleTable.BLANK);
+        System.arraycopy(codes, 0, line.codes, 0, codes.length);
+        return line;
+    }
+
+    @Test
+    void appendInternsEqualClustersToEqualCodes() {
+        ClusterTable table = new ClusterTable();
+        int code = table.append('e', ACUTE);
+        assertTrue(code < 0);
+        assertEquals("e\u0301", table.getText(code));
+        assertEquals('e', table.getBase(code));
+        assertEquals(code, table.append('e', ACUTE));
+        assertEquals(code, table.intern("e\u0301"));
+    }
+
+    @Test
+    void appendIsAnsweredAlikeAfterTheCacheIsCleared() {
+        ClusterTable table = new ClusterTable();
+        int[] codes = new int[20_000];
+        for (int i = 0; i < codes.length; i++) {
+            codes[i] = table.append(0x4e00 + i, ACUTE);
+        }
+        for (int i = 0; i < codes.length; i++) {
+            assertEquals(codes[i], table.append(0x4e00 + i, ACUTE));
+        }
+    }
+
+    @Test
+    void marksPastTheMaximumLengthAreDropped() {
+        ClusterTable table = new ClusterTable();
+        int code = 'a';
+        for (int i = 0; i < 100_000; i++) {
+            code = table.append(code, ACUTE);
+        }
+        String text = table.getText(code);
+        assertEquals(ClusterTable.MAX_LENGTH, text.codePointCount(0, text.length()));
+        assertEquals('a', text.charAt(0));
+        assertFalse(table.isFull());
+    }
+
+    @Test
+    void compactRenumbersTheClustersInUse() {
+        ClusterTable table = new ClusterTable();
+        int e = table.append('e', ACUTE);
+        int a = table.append('a', ACUTE);
+        int aa = table.append(a, ACUTE);
+        String[] snapshot = table.snapshot();
+        Line line = line('x', aa, 0, Line.WIDE_TAIL, e, aa);
+
+        table.compact(Collections.singletonList(line));
+
+        // in order of first use, the intermediate cluster is gone
+        assertArrayEquals(new int[] {'x', -1, 0, Line.WIDE_TAIL, -2, -1}, line.codes);
+        assertEquals("a\u0301\u0301", table.getText(-1));
+        assertEquals("e\u0301", table.getText(-2));
+        assertEquals(-2, table.append('e', ACUTE));
+        assertEquals(-3, table.append('a', ACUTE));
+        assertEquals(-1, table.append(-3, ACUTE));
+
+        // frames taken before still read their codes
+        assertEquals("a\u0301", ClusterTable.getText(snapshot, a));
+    }
+
+    @Test
+    void isFullOnceTheLimitIsReached() {
+        ClusterTable table = new ClusterTable();
+        int[] codes = new int[5000];
+        for (int i = 0; i < codes.length; i++) {
+            codes[i] = table.append(0x4e00 + i, ACUTE);
+        }
+        assertTrue(table.isFull());
+
+        table.compact(Arrays.asList(line(codes[0]), line(codes[1])));
+        assertFalse(table.isFull());
+        assertEquals("\u4e00\u0301", table.getText(-1));
+        assertEquals("\u4e01\u0301", table.getText(-2));
+    }
+
+    @Test
+    void marksJoinTheCellWrittenLastAcrossCompactions() {
+        Screen screen = new Screen(10, 2, 1 << 20, 0);
+        for (int i = 0; i < 10_000; i++) {
+            // two or three clusters per round, so the table is compacted after each of the writes sometime
+            String marks = i % 3 == 0 ? "\u0302\u0303" : "\u0302";
+            screen.getCursor().carriageReturn();
+            screen.write((char) (0x4e00 + i) + "\u0301");
+            screen.write(marks);
+            screen.takeDamage();
+            Frame frame = screen.getFrame();
+            assertEquals((char) (0x4e00 + i) + "\u0301" + marks, frame.getText(frame.getCode(0, 0)));
+            assertEquals(Frame.WIDE_TAIL, frame.getCode(1, 0));
+        }
+    }
+}
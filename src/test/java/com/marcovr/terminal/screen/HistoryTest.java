@@ -0,0 +1,195 @@
+package com.marcovr.terminal.screen;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.zip.Inflater;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+class HistoryTest {
+
+    private static final int BLOCK = History.BLOCK_LINES;
+
+    private final ClusterTable clusters = new ClusterTable();
+    private final StyleTable styles = new StyleTable();
+    private int width = 80;
+    private long seed;
+    // truecolour attributes for every cell, which hardly compress
+    private boolean noisy;
+
+    /**
+     * @return line i of the test: random blanks, ASCII, CJK and clusters in runs of random attributes, sometimes
+     * followed by trailing blanks. The same for the same number
+     */
+    private Line line(long i) {
+        Random r = new Random(seed * 1_000_003 + i);
+        Line line = new Line(width, StyleTable.BLANK);
+        int length = r.nextInt(4) == 0 ? r.nextInt(width) : width;
+        int attrs = StyleTable.BLANK;
+        for (int x = 0; x < length; x++) {
+            if (noisy) {
+                int foreground = CellStyle.rgb(r.nextInt(256), r.nextInt(256), r.nextInt(256));
+                int background = CellStyle.rgb(r.nextInt(256), r.nextInt(256), r.nextInt(256));
+                attrs = styles.intern(CellStyle.pack(foreground, background, r.nextInt(8)));
+            }
+            else if (r.nextInt(8) == 0) {
+                attrs = styles.intern(CellStyle.pack(r.nextInt(256), r.nextInt(256), r.nextInt(8)));
+            }
+            int kind = r.nextInt(16);
+            if (kind == 0) {
+                line.codes[x] = 0;
+            }
+            else if (kind == 1) {
+                line.codes[x] = clusters.intern("e\u0301");
+            }
+            else if (kind < 6) {
+                line.codes[x] = 0x4e00 + r.nextInt(0x5200);
+            }
+            else {
+                line.codes[x] = 0x20 + r.nextInt(0x5f);
+            }
+            line.attrs[x] = attrs;
+        }
+        line.wrapped = r.nextBoolean();
+        return line;
+    }
+
+    private void push(History history, int lines) {
+        for (int i = 0; i < lines; i++) {
+            history.push(line(history.end()), clusters, styles);
+        }
+    }
+
+    /**
+     * Checks every retained line against the one pushed, decoding them into tables of their own
+     */
+    private void assertRetained(History history) {
+        ClusterTable c = new ClusterTable();
+        StyleTable s = new StyleTable();
+        for (long i = history.start(); i < history.end(); i++) {
+            Line expected = line(i);
+            Line actual = history.get(i, c, s);
+            assertEquals(expected.codes.length, actual.codes.length, "width of line " + i);
+            assertEquals(expected.wrapped, actual.wrapped, "wrap flag of line " + i);
+            for (int x = 0; x < expected.codes.length; x++) {
+                int code = expected.codes[x];
+                boolean same = code < 0 ? clusters.getText(code).equals(c.getText(actual.codes[x]))
+                        : code == actual.codes[x];
+                if (!same || styles.get(expected.attrs[x]) != s.get(actual.attrs[x])) {
+                    fail("line " + i + ", column " + x + " differs");
+                }
+            }
+        }
+    }
+
+    private static Set<String> spillFiles() {
+        Set<String> names = new HashSet<>();
+        File[] files = new File(System.getProperty("java.io.tmpdir")).listFiles();
+        if (files != null) {
+            for (File f : files) {
+                if (f.getName().startsWith("scrollback")) {
+                    names.add(f.getName());
+                }
+            }
+        }
+        return names;
+    }
+
+    @Test
+    void roundTripInMemory() {
+        History history = new History(64 << 20, 0);
+        push(history, 20 * BLOCK + 17);
+        assertEquals(0, history.start());
+        assertEquals(20 * BLOCK + 17, history.end());
+        assertRetained(history);
+
+        // and again once the compressor is done with every block
+        push(history, 1);
+        assertRetained(history);
+        history.close();
+    }
+
+    @Test
+    void dropsOldestBlocksPastTheBudget() {
+        seed = 1;
+        History history = new History(64 << 10, 0);
+        push(history, 60 * BLOCK + 100);
+
+        assertEquals(60 * BLOCK + 100, history.end());
+        assertTrue(history.start() > 0);
+        assertEquals(0, history.start() % BLOCK);
+        assertRetained(history);
+        history.close();
+    }
+
+    @Test
+    void spillsToDiskAndDropsOnceFull() {
+        seed = 2;
+        width = 400;
+        noisy = true;
+        Set<String> before = spillFiles();
+        // the disk budget is rounded up to the 16 MiB the spill file is mapped in
+        History history = new History(64 << 10, 1);
+
+        push(history, 4 * BLOCK);
+        assertEquals(0, history.start(), "spilled rather than dropped");
+        assertRetained(history);
+        Set<String> created = spillFiles();
+        created.removeAll(before);
+        assertEquals(1, created.size());
+
+        // the spill file is a ring, wrapping drops the oldest spilled blocks
+        for (int i = 0; i < 100 && history.start() == 0; i++) {
+            push(history, BLOCK);
+        }
+        assertTrue(history.start() > 0);
+        push(history, 2 * BLOCK);
+        assertRetained(history);
+
+        history.close();
+        assertEquals(0, history.size());
+        for (String name : created) {
+            assertFalse(spillFiles().contains(name), name + " deleted");
+        }
+
+        // a closed history keeps working in memory
+        push(history, 3 * BLOCK);
+        assertRetained(history);
+        history.close();
+    }
+
+    @Test
+    void spilledBlocksKeepTheirTrigrams() throws Exception {
+        seed = 3;
+        width = 400;
+        noisy = true;
+        History history = new History(64 << 10, 1);
+        push(history, 4 * BLOCK);
+        // blocks are spilled once compressed, by the next one closed
+        for (int i = 0; i < 500 && !history.snapshot(2).compressed; i++) {
+            Thread.sleep(10);
+        }
+        push(history, BLOCK);
+
+        Inflater inflater = new Inflater();
+        for (long number = 0; number < 3; number++) {
+            History.Snapshot s = history.snapshot(number);
+            assertTrue(s.compressed);
+            byte[] raw = new byte[s.rawLength];
+            inflater.reset();
+            inflater.setInput(s.data);
+            assertEquals(raw.length, inflater.inflate(raw));
+            assertArrayEquals(TrigramIndex.of(new LineText(), raw, BLOCK), s.trigrams, "trigrams of block " + number);
+        }
+        inflater.end();
+        history.close();
+    }
+}
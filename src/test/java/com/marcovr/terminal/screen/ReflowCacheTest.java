@@ -0,0 +1,102 @@
+package com.marcovr.terminal.screen;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ReflowCacheTest {
+
+    private static final int WIDE = 0x4e2d;
+    private static final int TAIL = Line.WIDE_TAIL;
+
+    private static Line line(boolean wrapped, int... codes) {
+        Line line = new Line(codes.length, StyleTable.BLANK);
+        System.arraycopy(codes, 0, line.codes, 0, codes.length);
+        line.wrapped = wrapped;
+        return line;
+    }
+
+    private static String text(Frame f, int y) {
+        StringBuilder sb = new StringBuilder();
+        for (int x = 0; x < f.getWidth(); x++) {
+            int code = f.getCode(x, y);
+            sb.append(code == 0 ? "_" : code == Frame.WIDE_TAIL ? "" : f.getText(code));
+        }
+        return sb.toString();
+    }
+
+    @Test
+    void blankLeftByAWideCharacterIsNotText() {
+        // the cursor left the last column blank, the wide character did not fit into it
+        ReflowCache.Rows r = ReflowCache.wrap(Arrays.asList(
+                line(true, 'a', 'b', 'c', 'd', 0),
+                line(false, WIDE, TAIL, 'e', 0, 0)), 10, 0);
+
+        assertEquals(1, r.rows.length);
+        assertArrayEquals(new int[] {'a', 'b', 'c', 'd', WIDE, TAIL, 'e', 0, 0, 0}, r.rows[0].codes);
+        assertArrayEquals(new int[] {0, 4}, r.offsets);
+        assertFalse(r.rows[0].wrapped);
+    }
+
+    @Test
+    void wideCharacterMovesOnInsteadOfStartingInTheLastColumn() {
+        ReflowCache.Rows r = ReflowCache.wrap(Arrays.asList(
+                line(false, 'a', 'b', 'c', WIDE, TAIL, 'd', 0, 0)), 4, 0);
+
+        assertEquals(2, r.rows.length);
+        assertArrayEquals(new int[] {'a', 'b', 'c', 0}, r.rows[0].codes);
+        assertArrayEquals(new int[] {WIDE, TAIL, 'd', 0}, r.rows[1].codes);
+        assertTrue(r.rows[0].wrapped);
+        assertArrayEquals(new int[] {0, 3}, r.starts);
+        assertEquals(0, r.rowOf(2));
+        assertEquals(1, r.rowOf(3));
+        assertEquals(1, r.rowOf(5));
+    }
+
+    @Test
+    void resizingBackAndForthKeepsTheText() {
+        Screen screen = new Screen(5, 4, 1 << 20, 0);
+        screen.write("abcd\u4e2de");
+        for (int i = 0; i < 3; i++) {
+            screen.resize(10, 4);
+            screen.takeDamage();
+            Frame f = screen.getFrame();
+            assertEquals("abcd\u4e2de___", text(f, 0));
+            assertEquals(7, f.getCursorX());
+
+            screen.resize(5, 4);
+            screen.takeDamage();
+            f = screen.getFrame();
+            assertEquals("abcd_", text(f, 0));
+            assertEquals("\u4e2de__", text(f, 1));
+            assertEquals(3, f.getCursorX());
+            assertEquals(1, f.getCursorY());
+
+            screen.resize(4, 4);
+            screen.takeDamage();
+            f = screen.getFrame();
+            assertEquals("abcd", text(f, 0));
+            assertEquals("\u4e2de_", text(f, 1));
+        }
+    }
+
+    @Test
+    void historyIsReflowedLikeTheBuffer() {
+        Screen screen = new Screen(6, 2, 1 << 20, 0);
+        screen.write("abc\u4e2de");
+        screen.getCursor().CR_LF();
+        screen.getCursor().CR_LF();
+        screen.write("x");
+        screen.resize(4, 2);
+        screen.scrollView(2);
+        screen.takeDamage();
+        Frame f = screen.getFrame();
+        assertEquals("abc_", text(f, 0));
+        assertEquals("\u4e2de_", text(f, 1));
+    }
+}
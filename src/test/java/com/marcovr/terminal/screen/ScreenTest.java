@@ -0,0 +1,47 @@
+package com.marcovr.terminal.screen;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ScreenTest {
+
+    @Test
+    void scrollRegionOutsideOfTheScreenIsIgnored() {
+        Screen screen = new Screen(10, 24, 1 << 20, 0);
+        screen.getCursor().setX(3);
+        screen.getCursor().setY(5);
+        screen.setScrollRegion(1, 200);
+        screen.setScrollRegion(10, 10);
+        screen.setScrollRegion(12, 4);
+        assertEquals(0, screen.scrollTop);
+        assertEquals(24, screen.scrollBottom);
+        assertEquals(3, screen.getCursor().getX());
+        assertEquals(5, screen.getCursor().getY());
+    }
+
+    @Test
+    void scrollRegionHomesTheCursor() {
+        Screen screen = new Screen(10, 24, 1 << 20, 0);
+        screen.getCursor().setX(3);
+        screen.getCursor().setY(5);
+        screen.setScrollRegion(2, 20);
+        assertEquals(1, screen.scrollTop);
+        assertEquals(20, screen.scrollBottom);
+        assertEquals(0, screen.getCursor().getX());
+        assertEquals(0, screen.getCursor().getY());
+
+        screen.setScrollRegion(0, 0);
+        assertEquals(0, screen.scrollTop);
+        assertEquals(24, screen.scrollBottom);
+    }
+
+    @Test
+    void resizeKeepsTheScrollRegionInsideOfTheScreen() {
+        Screen screen = new Screen(10, 24, 1 << 20, 0);
+        screen.setScrollRegion(20, 22);
+        screen.resize(10, 5);
+        assertEquals(0, screen.scrollTop);
+        assertEquals(5, screen.scrollBottom);
+    }
+}
@@ -0,0 +1,107 @@
+package com.marcovr.terminal.screen;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StyleTableTest {
+
+    private static long attrs(int i) {
+        return CellStyle.pack(CellStyle.rgb(i & 0xff, i >> 8 & 0xff, 1), CellStyle.DEFAULT_BACKGROUND, CellStyle.BOLD);
+    }
+
+    private static Line line(int... ids) {
+        Line line = new Line(ids.length, StyleTable.BLANK);
+        System.arraycopy(ids, 0, line.attrs, 0, ids.length);
+        return line;
+    }
+
+    @Test
+    void internsEqualAttributesToEqualIds() {
+        StyleTable table = new StyleTable();
+        assertEquals(1, table.size());
+        assertEquals(StyleTable.BLANK,
+                table.intern(CellStyle.pack(CellStyle.DEFAULT_FOREGROUND, CellStyle.DEFAULT_BACKGROUND, CellStyle.REGULAR)));
+
+        int a = table.intern(attrs(1));
+        int b = table.intern(attrs(2));
+        assertNotEquals(a, b);
+        assertEquals(a, table.intern(attrs(1)));
+        assertEquals(attrs(2), table.get(b));
+        assertEquals(3, table.size());
+    }
+
+    @Test
+    void compactRenumbersInOrderOfFirstUse() {
+        StyleTable table = new StyleTable();
+        int[] ids = new int[10];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = table.intern(attrs(i + 1));
+        }
+        Line first = line(ids[7], StyleTable.BLANK, ids[3], ids[7]);
+        Line second = line(ids[5], ids[3], StyleTable.BLANK);
+        List<Line> lines = Arrays.asList(first, second);
+
+        table.compact(lines);
+
+        // the blank attributes keep id 0, the others are numbered as they are first met and the unused dropped
+        assertEquals(4, table.size());
+        assertArrayEquals(new int[] {1, 0, 2, 1}, first.attrs);
+        assertArrayEquals(new int[] {3, 2, 0}, second.attrs);
+        assertEquals(attrs(8), table.get(1));
+        assertEquals(attrs(4), table.get(2));
+        assertEquals(attrs(6), table.get(3));
+
+        // kept attributes are found again, dropped ones get new ids
+        assertEquals(2, table.intern(attrs(4)));
+        assertEquals(StyleTable.BLANK,
+                table.intern(CellStyle.pack(CellStyle.DEFAULT_FOREGROUND, CellStyle.DEFAULT_BACKGROUND, CellStyle.REGULAR)));
+        assertEquals(4, table.intern(attrs(1)));
+    }
+
+    @Test
+    void compactLeavesSnapshotsReadable() {
+        StyleTable table = new StyleTable();
+        int id = table.intern(attrs(1));
+        table.intern(attrs(2));
+        long[] snapshot = table.snapshot();
+
+        table.compact(Arrays.asList(line(StyleTable.BLANK)));
+        table.intern(attrs(3));
+
+        assertEquals(attrs(1), snapshot[id]);
+        assertEquals(attrs(3), table.get(1));
+    }
+
+    @Test
+    void limitGrowsWithTheIdsStillInUse() {
+        StyleTable table = new StyleTable();
+        int[] ids = new int[1500];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = table.intern(attrs(i + 1));
+        }
+        assertTrue(table.isFull());
+
+        // nothing but the blank attributes in use: back to the minimum limit
+        table.compact(Arrays.asList(line(StyleTable.BLANK)));
+        assertEquals(1, table.size());
+        assertFalse(table.isFull());
+
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = table.intern(attrs(i + 1));
+        }
+        table.compact(Arrays.asList(line(ids)));
+        assertEquals(ids.length + 1, table.size());
+        assertFalse(table.isFull(), "limit raised to twice the ids kept");
+        for (int i = 0; i < ids.length; i++) {
+            assertEquals(ids[i], table.intern(attrs(i + 1)));
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.marcovr.terminal.ssh;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+class OutboundWriterTest {
+
+    private static byte[] await(ByteArrayOutputStream out, int size) throws InterruptedException {
+        for (int i = 0; i < 500 && out.size() < size; i++) {
+            Thread.sleep(10);
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    void sendsText() throws InterruptedException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        OutboundWriter writer = new OutboundWriter(out);
+        writer.send("ls -l");
+        writer.send('\r');
+
+        byte[] expected = "ls -l\r".getBytes(StandardCharsets.UTF_8);
+        assertArrayEquals(expected, await(out, expected.length));
+        writer.close();
+    }
+
+    @Test
+    void keepsSurrogatePairsSplitAcrossSends() throws InterruptedException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        OutboundWriter writer = new OutboundWriter(out);
+        String text = "a\ud83d\ude00b";
+
+        // the first part is taken alone, while the second one is not queued yet
+        writer.send(text.substring(0, 2));
+        assertArrayEquals(new byte[] {'a'}, await(out, 1));
+        Thread.sleep(50);
+        writer.send(text.substring(2));
+
+        byte[] expected = text.getBytes(StandardCharsets.UTF_8);
+        assertArrayEquals(expected, await(out, expected.length));
+        writer.close();
+    }
+
+    @Test
+    void keepsSurrogatePairsSplitAcrossBoundedSends() throws InterruptedException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        OutboundWriter writer = new OutboundWriter(out);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 20_000; i++) {
+            sb.append(i % 7 == 0 ? "\ud83d\ude00" : "x");
+        }
+        char[] text = sb.toString().toCharArray();
+
+        // chunks of odd sizes end in high surrogates now and then
+        for (int off = 0; off < text.length; off += 13) {
+            int len = Math.min(13, text.length - off);
+            writer.sendBounded(text, off, len, 64);
+        }
+
+        byte[] expected = sb.toString().getBytes(StandardCharsets.UTF_8);
+        assertArrayEquals(expected, await(out, expected.length));
+        writer.close();
+    }
+}